@@ -1,6 +1,7 @@
 package net.allape.housedog
 
 import android.Manifest
+import android.content.Context
 import android.content.pm.PackageManager
 import android.graphics.Point
 import android.hardware.camera2.CameraAccessException
@@ -15,15 +16,27 @@ import android.widget.Toast
 import androidx.annotation.RequiresApi
 import net.allape.housedog.activity.WatcherActivity
 import net.allape.housedog.constant.MQDataSheet
+import net.allape.housedog.detector.BandExecutor
+import net.allape.housedog.detector.BlobMotionDetector
+import net.allape.housedog.detector.PyramidMotionDetector
+import net.allape.housedog.detector.RunningAverageMotionDetector
+import net.allape.housedog.detector.TileGridMotionDetector
+import net.allape.housedog.pipeline.DropPolicy
+import net.allape.housedog.pipeline.LatencyRegistry
+import net.allape.housedog.server.MjpegPreview
+import net.allape.housedog.server.ViewerServer
+import net.allape.housedog.stream.ClipStore
+import net.allape.housedog.stream.EncoderProfile
+import net.allape.housedog.util.FramePool
 import net.allape.housedog.view.MotionDetectionView
 import net.allape.housedog.view.MqRpcView
 import net.allape.housedog.view.RtmpPusherView
-import org.bytedeco.javacv.Frame
-import org.bytedeco.opencv.global.opencv_core
 import org.bytedeco.opencv.global.opencv_imgproc
-import org.bytedeco.opencv.opencv_core.IplImage
 import pub.devrel.easypermissions.EasyPermissions
+import java.io.File
+import java.io.IOException
 import java.nio.ByteBuffer
+import java.security.SecureRandom
 import kotlin.experimental.and
 import kotlin.experimental.or
 
@@ -50,8 +63,34 @@ class MainActivity : WatcherActivity(), MqRpcView.MQListener {
     private val _width = 1920
     private val _height = 1080
     private val _frameRate = 10
+    // 持续_quietPeriod没有运动后降到的帧率
+    private val _idleFrameRate = 2
+    private val _quietPeriod = 60_000L
+    // 降帧率时是否同时降低摄像头的输出帧率, 否则只丢弃多余的帧
+    private val _adjustCaptureFrameRate = true
     private val _scale = 8
     private val _diffThreshold = 150
+    // 背景学习率, 越大越快适应光线变化
+    private val _learningRate = 0.05f
+    // 网格模式, 按网格统计变化并可屏蔽部分网格
+    private val _tileGrid = true
+    // 金字塔模式, 先粗检测再只细检测变化的区域, 开启时不使用网格模式
+    private val _pyramid = false
+    // 金字塔粗检测相对缩放后的帧的比例, 即原图的 1 / (_scale * _pyramidFactor)
+    private val _pyramidFactor = 4
+    // 网格边长, 缩放后的像素
+    private val _tileSize = 16
+    // 网格中至少多少像素变化才算活跃
+    private val _minTilePixels = 4
+    // 至少多少网格活跃才算运动
+    private val _minActiveTiles = 1
+    // 连通区域至少多少像素才算运动, 过滤零散的噪点
+    private val _minBlobArea = 4
+    // 检测的并行度, 帧太小时串行
+    private val _detectionParallelism = Runtime.getRuntime().availableProcessors()
+    // 摄像头线程交给监测线程的队列长度, 只处理最新的帧
+    private val _frameQueueCapacity = 1
+    private val _frameDropPolicy = DropPolicy.DROP_OLDEST
 
     private val _mqHost = BuildConfig.MQ_HOST
     private val _mqUsername = BuildConfig.MQ_USERNAME
@@ -60,6 +99,42 @@ class MainActivity : WatcherActivity(), MqRpcView.MQListener {
 
     private val _rtmpUrl = BuildConfig.RTMP_URL
     private val _rtmpScale = 4
+    // 彩色直播, 直接使用摄像头的YUV平面; 关闭时为RGB转换后的灰度
+    private val _rtmpColor = true
+    // 监测线程中准备并推送一帧直播的耗时
+    private val _rtmpStage = LatencyRegistry.stage("rtmp.frame")
+    // 直播编码队列, 上行慢时最多积压的帧数
+    private val _rtmpQueueCapacity = 3
+    private val _rtmpDropPolicy = DropPolicy.DROP_NON_KEY
+    // 直播编码参数, 上行拥塞时自动降低码率/分辨率/帧率
+    private val _rtmpProfile = EncoderProfile.BALANCED
+    private val _rtmpAdaptive = true
+    // 没有运动时只推保活帧, 运动停止后保持全帧率的时长, 以及静止时关键帧的最大间隔
+    // 片段录制与直播共用编码, 门控会使片段触发前只有保活帧, 所以二者互斥, 录制片段时不开启
+    private val _rtmpMotionGate = false
+    private val _rtmpMotionHold = 5_000L
+    private val _rtmpIdleKeyFrameInterval = 10_000L
+    // 断网期间暂存的段, 恢复后在直播的同时限速补传到单独的流, 见env.properties的rtmpBackfillUrl, null/不补传
+    private val _rtmpBackfillUrl: String? = BuildConfig.RTMP_BACKFILL_URL
+    private val _rtmpBackfillBytesPerSecond = 128L * 1024
+    // 运动片段录制, 开启时即使不直播也一直编码到内存, 有运动时写出触发前后的MP4
+    private val _clipEnabled = true
+    private val _clipPreEvent = 10_000L
+    private val _clipTail = 15_000L
+    // 片段的保留策略
+    private val _clipMaxBytes = 512L * 1024 * 1024
+    private val _clipMaxAge = 7L * 24 * 60 * 60 * 1000
+    // 局域网观看, http://<手机IP>:<端口>/live.flv?token=<口令> 和 /preview.mjpg?token=<口令>
+    // 监听所有网卡, 明文HTTP, 口令在第一次运行时随机生成并保存, 通过MQ指令VIEWER查询
+    private val _viewerPort = 8080
+    private val _viewerPreferences = "viewer"
+    private val _viewerTokenKey = "token"
+    // 单个直播客户端积压的上限, 超过时断开
+    private val _viewerMaxBacklog = 2L * 1024 * 1024
+    // MJPEG预览的缩小倍数/帧率/质量
+    private val _previewScale = 4
+    private val _previewFrameRate = 2
+    private val _previewQuality = 60
     private val _audioRateInHz = 44100
 
     // 是否开启自动报警
@@ -71,6 +146,12 @@ class MainActivity : WatcherActivity(), MqRpcView.MQListener {
     // 运动检测
     private var motionDetectionView: MotionDetectionView? = null
 
+    // 网格运动检测, 非网格模式时为null
+    private var tileGridDetector: TileGridMotionDetector? = null
+
+    // 按横条并行检测
+    private var bandExecutor: BandExecutor? = null
+
     // 自动报警 开启/关闭
     private var autoWarningToggle: Button? = null
 
@@ -83,6 +164,14 @@ class MainActivity : WatcherActivity(), MqRpcView.MQListener {
     // 直播按钮
     private var rtmpPusherButton: Button? = null
 
+    // 直播缩放用的图片, 只在检测线程中使用
+    private val rtmpFramePool = FramePool()
+
+    // 局域网观看
+    private var viewerServer: ViewerServer? = null
+    // MJPEG预览, 只在检测线程中使用
+    private var mjpegPreview: MjpegPreview? = null
+
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         setContentView(R.layout.activity_main)
@@ -121,8 +210,12 @@ class MainActivity : WatcherActivity(), MqRpcView.MQListener {
     override fun onDestroy() {
         super.onDestroy()
         motionDetectionView!!.destroy()
+        bandExecutor?.shutdown()
         mqRpcView!!.close()
-        stopStreaming()
+        // 不能用stopStreaming, 开启片段录制时它会继续编码
+        rtmpPusherView!!.close()
+        viewerServer?.close()
+        rtmpFramePool.clear()
     }
 
     override fun onMessage(message: ByteArray?): ByteArray {
@@ -164,19 +257,104 @@ class MainActivity : WatcherActivity(), MqRpcView.MQListener {
                 } catch (e: InterruptedException) {
                     e.printStackTrace()
                 }
+                val scheduler = motionDetectionView!!.frameRateScheduler
                 return byteArrayOf(
                     MQDataSheet.InspectStatus.Byte0,
                     ((if (motionDetectionView!!.isOn) MQDataSheet.MotionDetection.CAMERA else 0)
                             or (if (flashLightOn) MQDataSheet.MotionDetection.FLASH_LIGHT else 0)
                             or if (autoWarning) MQDataSheet.MotionDetection.AUTO_WARNING else 0),
-                    ((if (rtmpPusherView!!.isRecording) MQDataSheet.InspectStatus.Byte2.RTMP_VIDEO else 0)
-                            or if (isWarningSoundPlaying) MQDataSheet.InspectStatus.Byte2.WARNING_SOUND else 0)
+                    ((if (rtmpPusherView!!.isLive) MQDataSheet.InspectStatus.Byte2.RTMP_VIDEO else 0)
+                            or if (isWarningSoundPlaying) MQDataSheet.InspectStatus.Byte2.WARNING_SOUND else 0),
+                    (scheduler?.frameRate ?: _frameRate).toByte(),
+                    if (scheduler?.isIdle == true) MQDataSheet.InspectStatus.Byte4.IDLE else 0
                 )
             }
+            MQDataSheet.Commands.VIEWER -> {
+                val server = viewerServer ?: return byteArrayOf(MQDataSheet.Commands.VIEWER)
+                val token = viewerToken().toByteArray(Charsets.US_ASCII)
+                val response = ByteBuffer.allocate(3 + token.size)
+                response.put(MQDataSheet.Commands.VIEWER)
+                response.putShort(server.port.toShort())
+                response.put(token)
+                return response.array()
+            }
+            MQDataSheet.Commands.PERFORMANCE -> {
+                return performanceSnapshot(message.size > 1 && message[1] != 0.toByte())
+            }
+            MQDataSheet.Commands.TILE_GRID -> {
+                val detector = tileGridDetector ?: return byteArrayOf(MQDataSheet.Commands.TILE_GRID, 0, 0)
+                if (message.size > 1) {
+                    detector.setTileMask(TileGridMotionDetector.packTileMask(message, 1, message.size - 1))
+                }
+                val snapshot = detector.snapshot() ?: return byteArrayOf(MQDataSheet.Commands.TILE_GRID, 0, 0)
+                val tileCount = snapshot.size - 2
+                val response = ByteBuffer.allocate(3 + tileCount * 2)
+                response.put(MQDataSheet.Commands.TILE_GRID)
+                response.put(snapshot[0].toByte())
+                response.put(snapshot[1].toByte())
+                for (i in 0 until tileCount) {
+                    response.putShort(snapshot[i + 2].toShort())
+                }
+                return response.array()
+            }
         }
         return message
     }
 
+    /**
+     * 局域网观看的口令, 第一次调用时随机生成并保存
+     * @return 32位十六进制的口令
+     */
+    private fun viewerToken(): String {
+        val preferences = getSharedPreferences(_viewerPreferences, Context.MODE_PRIVATE)
+        preferences.getString(_viewerTokenKey, null)?.let { return it }
+        val bytes = ByteArray(16)
+        SecureRandom().nextBytes(bytes)
+        val token = bytes.joinToString("") { String.format("%02x", it) }
+        preferences.edit().putString(_viewerTokenKey, token).apply()
+        Log.i(_logTag, "viewer token generated")
+        return token
+    }
+
+    /**
+     * 帧统计和各阶段耗时, 格式见[MQDataSheet.Commands.PERFORMANCE]
+     * @param reset 读取后是否清空耗时
+     */
+    private fun performanceSnapshot(reset: Boolean): ByteArray {
+        // 计算长度和写入使用同一份快照, 期间注册的新阶段不会导致越界
+        val stages = ArrayList(LatencyRegistry.stages())
+        var size = 1 + 6 * 8 + 1
+        for (stage in stages) {
+            size += 1 + stage.name.length + 8 + 4 * 4
+        }
+        val response = ByteBuffer.allocate(size)
+        response.put(MQDataSheet.Commands.PERFORMANCE)
+
+        val stats = motionDetectionView!!.frameStats
+        response.putLong(stats.arrived)
+        response.putLong(stats.droppedByReader)
+        response.putLong(stats.skipped)
+        response.putLong(stats.droppedByQueue)
+        response.putLong(stats.processed)
+        response.putLong(stats.failed)
+
+        response.put(stages.size.toByte())
+        for (stage in stages) {
+            val name = stage.name.toByteArray(Charsets.US_ASCII)
+            response.put(name.size.toByte())
+            response.put(name)
+            response.putLong(stage.count)
+            response.putInt(stage.percentile(50.0).toInt())
+            response.putInt(stage.percentile(95.0).toInt())
+            response.putInt(stage.percentile(99.0).toInt())
+            response.putInt(stage.max.toInt())
+        }
+        if (reset) {
+            LatencyRegistry.reset()
+        }
+        return response.array()
+    }
+
     private fun init() {
         // 屏幕常亮
         window.addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON)
@@ -190,50 +368,57 @@ class MainActivity : WatcherActivity(), MqRpcView.MQListener {
 
         // region  运动检测
         try {
-            motionDetectionView = MotionDetectionView(this) { _, source, _, _, _, moved ->
+            // 回调在监测线程中执行
+            motionDetectionView = MotionDetectionView(this) { image, _, source, _, result ->
                 if (autoWarning) {
-                    if (moved) {
+                    if (result.isMoved) {
                         playWarningSound()
                     } else {
                         pauseWarningSound()
                     }
                 }
-                if (rtmpPusherView != null && rtmpPusherView!!.isRecording) {
-                    val before = System.currentTimeMillis()
-                    val resizedSource: IplImage = IplImage.create(
-                        source.width() / _rtmpScale,
-                        source.height() / _rtmpScale,
-                        source.depth(),
-                        source.nChannels()
-                    )
-                    opencv_imgproc.cvResize(source, resizedSource)
-                    val graySource = IplImage.create(
-                        resizedSource.width(),
-                        resizedSource.height(),
-                        opencv_core.IPL_DEPTH_8U,
-                        1
-                    )
-                    opencv_imgproc.cvCvtColor(
-                        resizedSource,
-                        graySource,
-                        opencv_imgproc.CV_RGB2GRAY
-                    )
-                    val currBuffer = graySource.createBuffer<ByteBuffer>()
-                    val currBytes = ByteArray(currBuffer.remaining())
-                    currBuffer[currBytes]
-                    val frame = Frame(
-                        graySource.width(),
-                        graySource.height(),
-                        Frame.DEPTH_UBYTE,
-                        1
-                    )
-                    (frame.image[0].position(0) as ByteBuffer).put(currBytes)
+                if (result.isMoved) {
+                    rtmpPusherView?.onMotion()
+                }
+                mjpegPreview?.offer(image)
+                // 静止时跳过大部分帧, 省掉转换/缩放/编码/上行
+                val streaming = rtmpPusherView != null && rtmpPusherView!!.isRecording
+                        && rtmpPusherView!!.acceptFrame(result.isMoved)
+                if (_rtmpColor && streaming) {
+                    val before = System.nanoTime()
+                    // 彩色直接从摄像头的YUV平面缩小, 上行慢时优先保留有运动的帧
+                    rtmpPusherView!!.pushImage(image, result.isMoved)
+                    _rtmpStage.recordSince(before)
+                } else if (source != null && streaming) {
+                    val before = System.nanoTime()
+                    // 灰度直接写入复用帧的内存, 不经过中间数组
+                    val frame = rtmpPusherView!!.acquireFrame(1)
+                    try {
+                        val resizedSource = rtmpFramePool.acquireImage(
+                            frame.width,
+                            frame.height,
+                            source.depth(),
+                            source.nChannels()
+                        )
+                        try {
+                            opencv_imgproc.cvResize(source, resizedSource)
+                            opencv_imgproc.cvCvtColor(
+                                resizedSource,
+                                frame.image,
+                                opencv_imgproc.CV_RGB2GRAY
+                            )
+                        } finally {
+                            rtmpFramePool.releaseImage(resizedSource)
+                        }
+                    } catch (e: Exception) {
+                        // 没有交给合流线程的帧需要自己归还
+                        rtmpPusherView!!.releaseFrame(frame)
+                        throw e
+                    }
+                    // 上行慢时优先保留有运动的帧
+                    frame.isKey = result.isMoved
                     rtmpPusherView!!.push(frame)
-                    frame.close()
-                    Log.v(
-                        _logTag,
-                        "push time: " + (System.currentTimeMillis() - before)
-                    )
+                    _rtmpStage.recordSince(before)
                 }
             }
             wrapper.addView(
@@ -249,6 +434,47 @@ class MainActivity : WatcherActivity(), MqRpcView.MQListener {
                 _scale,
                 _diffThreshold
             )
+            motionDetectionView!!.configureFrameQueue(_frameQueueCapacity, _frameDropPolicy)
+            motionDetectionView!!.configureFrameRateScheduler(_idleFrameRate, _quietPeriod, _adjustCaptureFrameRate)
+            bandExecutor = BandExecutor(_detectionParallelism)
+            if (_pyramid) {
+                motionDetectionView!!.setMotionDetector(
+                    BlobMotionDetector(
+                        PyramidMotionDetector(
+                            _diffThreshold,
+                            _learningRate,
+                            1,
+                            _pyramidFactor,
+                            _diffThreshold / 2,
+                            PyramidMotionDetector.DEFAULT_REFRESH_PERIOD
+                        ),
+                        _minBlobArea,
+                        bandExecutor
+                    )
+                )
+            } else if (_tileGrid) {
+                tileGridDetector = TileGridMotionDetector(
+                    _tileSize,
+                    _diffThreshold,
+                    _learningRate,
+                    _minTilePixels,
+                    _minActiveTiles,
+                    // 运动块过滤需要完整的掩码, 不能提前结束
+                    false,
+                    bandExecutor
+                )
+                motionDetectionView!!.setMotionDetector(
+                    BlobMotionDetector(tileGridDetector!!, _minBlobArea, bandExecutor)
+                )
+            } else {
+                motionDetectionView!!.setMotionDetector(
+                    BlobMotionDetector(
+                        RunningAverageMotionDetector(_diffThreshold, _learningRate, 1, bandExecutor),
+                        _minBlobArea,
+                        bandExecutor
+                    )
+                )
+            }
             motionDetectionView!!.changeCamera(
                 _cameraId,
                 _cameraTemplate,
@@ -283,14 +509,36 @@ class MainActivity : WatcherActivity(), MqRpcView.MQListener {
         ))
         // endregion
 
+        // region 局域网观看
+        try {
+            viewerServer = ViewerServer(_viewerPort, _viewerMaxBacklog, viewerToken())
+            viewerServer!!.start()
+            mjpegPreview = MjpegPreview(viewerServer!!, _previewScale, _previewFrameRate, _previewQuality)
+        } catch (e: IOException) {
+            e.printStackTrace()
+            viewerServer = null
+        }
+        // endregion
+
         // region 直播
         rtmpPusherView = RtmpPusherView(this)
         rtmpPusherView!!.config(_rtmpUrl, _width / _rtmpScale, _height / _rtmpScale, _frameRate, _audioRateInHz)
+        rtmpPusherView!!.configureEncoder(_rtmpQueueCapacity, _rtmpDropPolicy)
+        rtmpPusherView!!.configureProfile(_rtmpProfile, _rtmpAdaptive)
+        rtmpPusherView!!.configureMotionGate(_rtmpMotionGate, _rtmpMotionHold, _rtmpIdleKeyFrameInterval)
+        rtmpPusherView!!.configureBackfill(_rtmpBackfillUrl, _rtmpBackfillBytesPerSecond)
+        if (_clipEnabled) {
+            rtmpPusherView!!.configureClips(
+                ClipStore(File(getExternalFilesDir(null), "clips"), ".mp4", _clipMaxBytes, _clipMaxAge),
+                _clipPreEvent, _clipTail
+            )
+        }
+        rtmpPusherView!!.configureViewer(viewerServer)
         wrapper.addView(rtmpPusherView)
 
         rtmpPusherButton = Button(this)
         rtmpPusherButton!!.setOnClickListener{
-            if (rtmpPusherView!!.isRecording) {
+            if (rtmpPusherView!!.isLive) {
                 stopStreaming()
             } else {
                 startStreaming()
@@ -324,14 +572,30 @@ class MainActivity : WatcherActivity(), MqRpcView.MQListener {
     }
 
     private fun startStreaming() {
-//        motionDetectionView.setSkip(true);
-        rtmpPusherView!!.start()
+        rtmpPusherView!!.isLive = true
+        startEncoding()
         rtmpPusherButton!!.setText(R.string.StopStreaming)
     }
 
     private fun stopStreaming() {
-//        motionDetectionView.setSkip(false);
-        rtmpPusherView!!.close()
+        rtmpPusherView!!.isLive = false
+        if (_clipEnabled) {
+            // 片段录制需要一直编码
+            startEncoding()
+        } else {
+            // 不编码时只用亮度进行运动监测
+            motionDetectionView?.isLumaOnly = true
+            rtmpPusherView!!.close()
+        }
         rtmpPusherButton!!.setText(R.string.StartStreaming)
     }
+
+    private fun startEncoding() {
+        if (rtmpPusherView!!.isRecording) {
+            return
+        }
+        // 灰度直播需要RGB的原图, 彩色直播直接使用YUV平面
+        motionDetectionView?.isLumaOnly = _rtmpColor
+        rtmpPusherView!!.start()
+    }
 }
\ No newline at end of file
@@ -34,10 +34,33 @@ public final class MQDataSheet {
         public static final byte WARNING_SOUND = 3;
 
         /**
-         * 状态查询 >>
+         * 状态查询 >> {@link InspectStatus}
          */
         public static final byte INSPECT_STATUS = 4;
 
+        /**
+         * 网格运动检测
+         * bytes[1:]: undefined/只查询, 其他/设置屏蔽的网格, 第j个字节的第i位 (从低位开始) 为1表示屏蔽第 j * 8 + i 个网格, 网格按行排列
+         * >> bytes[1]: 列数, bytes[2]: 行数, 非网格模式或还没有检测过时均为0
+         * >> bytes[3:]: 最近一帧每个网格中变化的像素数, 每个网格2个byte, 0xFFFF/未读取 (被屏蔽或已提前判定为运动)
+         */
+        public static final byte TILE_GRID = 5;
+
+        /**
+         * 性能统计
+         * bytes[1]: undefined或0x0/只查询, 其他/查询后清空各阶段耗时
+         * >> bytes[1:49]: 帧统计, 6个8byte: 到达/ImageReader丢弃/帧率跳过/队列丢弃/已处理/出错
+         * >> bytes[49]: 阶段数, 之后每个阶段:
+         *    1byte名称长度 + ASCII名称 + 8byte次数 + 4byte的 p50/p95/p99/max, 单位us
+         */
+        public static final byte PERFORMANCE = 6;
+
+        /**
+         * 局域网观看的地址
+         * >> bytes[1:3]: 端口, bytes[3:]: ASCII口令, 访问时带上 ?token=口令; 服务未开启时只有bytes[0]
+         */
+        public static final byte VIEWER = 7;
+
     }
 
     /**
@@ -89,6 +112,17 @@ public final class MQDataSheet {
 
         }
 
+        // Byte3: 当前的检测帧率
+
+        public static final class Byte4 {
+
+            /**
+             * 是否因为持续没有运动而降为空闲帧率
+             */
+            public static final byte IDLE =                 1;
+
+        }
+
     }
 
 }
@@ -0,0 +1,94 @@
+package net.allape.housedog.detector;
+
+/**
+ * 逐像素的滑动平均背景, 使用定点数保存 (高位为亮度, 低8位为小数)
+ * background = background + (luma - background) * learningRate
+ * 非线程安全, 但不同像素可以在不同线程中同时更新
+ */
+public class BackgroundModel {
+
+    // 定点数的小数位数
+    static final int FRACTION_BITS = 8;
+    // 定点数的1
+    static final int ONE = 1 << FRACTION_BITS;
+
+    // 学习率, 定点数
+    private final int learningRate;
+
+    // 背景, 定点数
+    private int[] background;
+    // 是否已用第一帧初始化
+    private boolean primed = false;
+
+    /**
+     * @param learningRate 学习率 (0, 1], 越大越快适应光线变化, 越小越容易发现缓慢的运动
+     */
+    public BackgroundModel(float learningRate) {
+        if (!(learningRate > 0 && learningRate <= 1)) {
+            throw new IllegalArgumentException("learning rate must be in (0, 1]: " + learningRate);
+        }
+        this.learningRate = Math.max(1, Math.round(learningRate * ONE));
+    }
+
+    /**
+     * 准备指定大小的背景, 大小变化时需要重新初始化
+     * @param size 像素数
+     * @return true/背景可用, false/需要用当前帧初始化
+     */
+    public boolean prepare(int size) {
+        if (background == null || background.length != size) {
+            background = new int[size];
+            primed = false;
+        }
+        return primed;
+    }
+
+    /**
+     * 用一个像素初始化背景
+     * @param index 像素下标
+     * @param luma 亮度 [0, 255]
+     */
+    public void init(int index, int luma) {
+        background[index] = luma << FRACTION_BITS;
+    }
+
+    /**
+     * 与背景对比后更新背景
+     * @param index 像素下标
+     * @param luma 亮度 [0, 255]
+     * @return 与更新前背景的绝对差值
+     */
+    public int diffAndLearn(int index, int luma) {
+        int bg = background[index];
+        int value = luma << FRACTION_BITS;
+        background[index] = bg + (((value - bg) * learningRate) >> FRACTION_BITS);
+        int diff = luma - (bg >> FRACTION_BITS);
+        return diff < 0 ? -diff : diff;
+    }
+
+    /**
+     * 只与背景对比, 不更新
+     * @param index 像素下标
+     * @param luma 亮度 [0, 255]
+     * @return 绝对差值
+     */
+    public int diff(int index, int luma) {
+        int diff = luma - (background[index] >> FRACTION_BITS);
+        return diff < 0 ? -diff : diff;
+    }
+
+    /**
+     * 标记背景已初始化
+     */
+    public void primed() {
+        primed = true;
+    }
+
+    /**
+     * 丢弃背景, 下一帧重新初始化
+     */
+    public void reset() {
+        primed = false;
+    }
+
+}
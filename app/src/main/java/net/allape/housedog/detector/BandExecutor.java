@@ -0,0 +1,160 @@
+package net.allape.housedog.detector;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 把一帧按行分成若干横条, 在固定大小的fork-join线程池中并行处理
+ * 帧较小或并行度为1时直接在调用线程中串行处理
+ * 同一时间只能由一个线程调用{@link #execute}, 多个检测器可以在同一线程中共用
+ */
+public class BandExecutor {
+
+    // 默认每个横条至少多少像素, 更小的帧拆分的开销大于收益
+    public static final int DEFAULT_MIN_BAND_PIXELS = 16 * 1024;
+
+    // 并行度
+    private final int parallelism;
+    // 每个横条至少多少像素
+    private final int minBandPixels;
+    // 线程池, 串行时为null
+    private final ForkJoinPool pool;
+
+    // 复用的任务
+    private BandAction[] actions = new BandAction[0];
+    private final RootAction root = new RootAction();
+
+    /**
+     * @param parallelism 并行度, 不大于1时串行
+     */
+    public BandExecutor(int parallelism) {
+        this(parallelism, DEFAULT_MIN_BAND_PIXELS);
+    }
+
+    /**
+     * @param parallelism 并行度, 不大于1时串行
+     * @param minBandPixels 每个横条至少多少像素
+     */
+    public BandExecutor(int parallelism, int minBandPixels) {
+        this.parallelism = Math.max(1, parallelism);
+        this.minBandPixels = Math.max(1, minBandPixels);
+        this.pool = this.parallelism > 1 ? new ForkJoinPool(this.parallelism) : null;
+    }
+
+    /**
+     * 该尺寸的帧应该分成多少个横条
+     * @param width 宽度
+     * @param height 高度
+     * @return 横条数, 1为串行
+     */
+    public int bandCount(int width, int height) {
+        if (pool == null) {
+            return 1;
+        }
+        long byPixels = (long) width * height / minBandPixels;
+        return (int) Math.max(1, Math.min(Math.min(parallelism, byPixels), height));
+    }
+
+    /**
+     * @param band 横条下标
+     * @param bands 横条数
+     * @param height 高度
+     * @return 该横条的起始行, band为bands时为height
+     */
+    public static int bandStart(int band, int bands, int height) {
+        return (int) ((long) height * band / bands);
+    }
+
+    /**
+     * 并行处理所有横条, 全部完成后返回
+     * @param bands 横条数, 由{@link #bandCount}得到
+     * @param height 高度
+     * @param task 每个横条的处理
+     */
+    public void execute(int bands, int height, BandTask task) {
+        if (bands <= 1 || pool == null) {
+            task.run(0, 0, height);
+            return;
+        }
+        if (actions.length < bands) {
+            BandAction[] grown = new BandAction[bands];
+            System.arraycopy(actions, 0, grown, 0, actions.length);
+            for (int i = actions.length; i < bands; i++) {
+                grown[i] = new BandAction();
+            }
+            actions = grown;
+        }
+        for (int b = 0; b < bands; b++) {
+            BandAction action = actions[b];
+            action.reinitialize();
+            action.task = task;
+            action.band = b;
+            action.startRow = bandStart(b, bands, height);
+            action.endRow = bandStart(b + 1, bands, height);
+        }
+        root.reinitialize();
+        root.bands = bands;
+        pool.invoke(root);
+        for (int b = 0; b < bands; b++) {
+            actions[b].task = null;
+        }
+    }
+
+    /**
+     * @return 并行度
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * 关闭线程池
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    public interface BandTask {
+        /**
+         * 处理一个横条, 在线程池中回调, 只能写入该横条对应的数据
+         * @param band 横条下标
+         * @param startRow 起始行, 包含
+         * @param endRow 结束行, 不包含
+         */
+        void run(int band, int startRow, int endRow);
+    }
+
+    class RootAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        int bands;
+
+        @Override
+        protected void compute() {
+            for (int b = bands - 1; b > 0; b--) {
+                actions[b].fork();
+            }
+            actions[0].invoke();
+            for (int b = 1; b < bands; b++) {
+                actions[b].join();
+            }
+        }
+    }
+
+    static class BandAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        BandTask task;
+        int band;
+        int startRow;
+        int endRow;
+
+        @Override
+        protected void compute() {
+            task.run(band, startRow, endRow);
+        }
+    }
+
+}
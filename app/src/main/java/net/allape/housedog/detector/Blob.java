@@ -0,0 +1,94 @@
+package net.allape.housedog.detector;
+
+/**
+ * 二值图中的一个连通区域, 由{@link ConnectedComponentLabeler}复用
+ */
+public class Blob {
+
+    // 像素数
+    int area;
+    // 外接矩形, 包含边界
+    int left;
+    int top;
+    int right;
+    int bottom;
+    // 坐标之和, 用于计算重心
+    long sumX;
+    long sumY;
+
+    /**
+     * @return 像素数
+     */
+    public int getArea() {
+        return area;
+    }
+
+    /**
+     * @return 外接矩形的左边界, 包含
+     */
+    public int getLeft() {
+        return left;
+    }
+
+    /**
+     * @return 外接矩形的上边界, 包含
+     */
+    public int getTop() {
+        return top;
+    }
+
+    /**
+     * @return 外接矩形的右边界, 包含
+     */
+    public int getRight() {
+        return right;
+    }
+
+    /**
+     * @return 外接矩形的下边界, 包含
+     */
+    public int getBottom() {
+        return bottom;
+    }
+
+    /**
+     * @return 外接矩形的宽度
+     */
+    public int getWidth() {
+        return right - left + 1;
+    }
+
+    /**
+     * @return 外接矩形的高度
+     */
+    public int getHeight() {
+        return bottom - top + 1;
+    }
+
+    /**
+     * @return 重心的x坐标
+     */
+    public float getCentroidX() {
+        return (float) sumX / area;
+    }
+
+    /**
+     * @return 重心的y坐标
+     */
+    public float getCentroidY() {
+        return (float) sumY / area;
+    }
+
+    @Override
+    public String toString() {
+        return "Blob{" +
+                "area=" + area +
+                ", left=" + left +
+                ", top=" + top +
+                ", right=" + right +
+                ", bottom=" + bottom +
+                ", centroid=(" + getCentroidX() + ", " + getCentroidY() + ")" +
+                '}';
+    }
+
+}
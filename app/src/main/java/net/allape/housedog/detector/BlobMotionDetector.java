@@ -0,0 +1,52 @@
+package net.allape.housedog.detector;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+/**
+ * 在其他检测器的二值差异上标记连通区域, 至少有一个足够大的区域才算运动
+ * 检测器本身判定没有运动时不标记
+ */
+public class BlobMotionDetector implements MotionDetector {
+
+    // 产生二值差异的检测器
+    private final MotionDetector delegate;
+    // 连通区域标记
+    private final ConnectedComponentLabeler labeler;
+
+    /**
+     * @param delegate 产生二值差异的检测器
+     * @param minBlobArea 区域至少多少像素才算运动
+     */
+    public BlobMotionDetector(MotionDetector delegate, int minBlobArea) {
+        this(delegate, minBlobArea, null);
+    }
+
+    /**
+     * @param delegate 产生二值差异的检测器
+     * @param minBlobArea 区域至少多少像素才算运动
+     * @param executor 按横条并行标记, null/串行
+     */
+    public BlobMotionDetector(MotionDetector delegate, int minBlobArea, BandExecutor executor) {
+        this.delegate = delegate;
+        this.labeler = new ConnectedComponentLabeler(minBlobArea, executor);
+    }
+
+    @Override
+    public MotionResult detect(int width, int height, int stride, ByteBuffer luma) {
+        MotionResult result = delegate.detect(width, height, stride, luma);
+        if (result.moved) {
+            result.blobs = labeler.label(result.mask, result.width, result.height);
+            result.moved = !result.blobs.isEmpty();
+        } else {
+            result.blobs = Collections.emptyList();
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        delegate.reset();
+    }
+
+}
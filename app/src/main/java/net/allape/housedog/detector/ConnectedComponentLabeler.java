@@ -0,0 +1,260 @@
+package net.allape.housedog.detector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 二值图的连通区域标记 (8邻域, 两遍扫描 + 并查集)
+ * 第一遍给前景像素分配临时标签并合并相邻的标签, 第二遍统计每个区域的面积/外接矩形/重心
+ * 指定{@link BandExecutor}时第一遍按横条并行, 每个横条使用不相交的标签区间, 之后再合并横条边界上相连的标签
+ * 所有数组和{@link Blob}在尺寸不变时复用, 每帧不分配内存
+ * 非线程安全
+ */
+public class ConnectedComponentLabeler {
+
+    // 面积小于该值的区域被忽略
+    private final int minBlobArea;
+    // 并行处理, null/串行
+    private final BandExecutor executor;
+    // 处理一个横条
+    private final BandExecutor.BandTask bandTask = this::labelBand;
+
+    // 每个像素的临时标签, 0为背景
+    private int[] labels;
+    // 并查集, 第二遍之后存放临时标签对应的区域下标+1
+    private int[] parent;
+    // 每个横条的起始标签
+    private int[] bandFirstLabel = new int[2];
+    // 每个横条用到的下一个标签
+    private int[] bandNextLabel = new int[1];
+
+    // 当前帧, 供横条任务读取
+    private byte[] frame;
+    private int frameWidth;
+
+    // 复用的区域
+    private final List<Blob> blobPool = new ArrayList<>();
+    // 本次找到的区域
+    private final List<Blob> blobs = new ArrayList<>();
+    private final List<Blob> readOnlyBlobs = Collections.unmodifiableList(blobs);
+
+    /**
+     * @param minBlobArea 面积小于该值的区域被忽略
+     */
+    public ConnectedComponentLabeler(int minBlobArea) {
+        this(minBlobArea, null);
+    }
+
+    /**
+     * @param minBlobArea 面积小于该值的区域被忽略
+     * @param executor 按横条并行处理, null/串行
+     */
+    public ConnectedComponentLabeler(int minBlobArea, BandExecutor executor) {
+        this.minBlobArea = Math.max(1, minBlobArea);
+        this.executor = executor;
+    }
+
+    /**
+     * 标记连通区域
+     * @param mask 二值图, 非0为前景, 行跨度为width
+     * @param width 宽度
+     * @param height 高度
+     * @return 面积不小于minBlobArea的区域, 下次调用时复用, 不要持有
+     */
+    public List<Blob> label(byte[] mask, int width, int height) {
+        int size = width * height;
+        if (labels == null || labels.length < size) {
+            labels = new int[size];
+        }
+        int bands = executor == null ? 1 : executor.bandCount(width, height);
+        if (bandNextLabel.length < bands) {
+            bandFirstLabel = new int[bands + 1];
+            bandNextLabel = new int[bands];
+        }
+        // 8邻域下 w * h 的区域临时标签最多为 ceil(w/2) * ceil(h/2) 个
+        bandFirstLabel[0] = 1;
+        for (int b = 0; b < bands; b++) {
+            int rows = BandExecutor.bandStart(b + 1, bands, height) - BandExecutor.bandStart(b, bands, height);
+            bandFirstLabel[b + 1] = bandFirstLabel[b] + ((width + 1) / 2) * ((rows + 1) / 2);
+        }
+        if (parent == null || parent.length < bandFirstLabel[bands]) {
+            parent = new int[bandFirstLabel[bands]];
+        }
+        int[] labels = this.labels;
+        int[] parent = this.parent;
+
+        // 第一遍
+        if (bands == 1) {
+            bandNextLabel[0] = labelRows(mask, width, 0, height, 1);
+        } else {
+            frame = mask;
+            frameWidth = width;
+            executor.execute(bands, height, bandTask);
+            frame = null;
+
+            // 合并横条边界上相连的标签
+            for (int b = 1; b < bands; b++) {
+                int y = BandExecutor.bandStart(b, bands, height);
+                for (int x = 0, i = y * width; x < width; x++, i++) {
+                    int label = labels[i];
+                    if (label == 0) {
+                        continue;
+                    }
+                    int above = i - width;
+                    if (x > 0) {
+                        label = merge(parent, label, labels[above - 1]);
+                    }
+                    label = merge(parent, label, labels[above]);
+                    if (x < width - 1) {
+                        merge(parent, label, labels[above + 1]);
+                    }
+                }
+            }
+        }
+
+        // 临时标签映射为区域下标+1
+        // 父标签总是不大于自身, 所以按顺序处理时父标签已经映射过了
+        blobs.clear();
+        for (int b = 0; b < bands; b++) {
+            for (int label = bandFirstLabel[b], next = bandNextLabel[b]; label < next; label++) {
+                int up = parent[label];
+                if (up == label) {
+                    if (blobPool.size() <= blobs.size()) {
+                        blobPool.add(new Blob());
+                    }
+                    Blob blob = blobPool.get(blobs.size());
+                    blob.area = 0;
+                    blob.left = Integer.MAX_VALUE;
+                    blob.top = Integer.MAX_VALUE;
+                    blob.right = -1;
+                    blob.bottom = -1;
+                    blob.sumX = 0;
+                    blob.sumY = 0;
+                    blobs.add(blob);
+                    parent[label] = blobs.size();
+                } else {
+                    parent[label] = parent[up];
+                }
+            }
+        }
+
+        // 第二遍, 统计
+        for (int y = 0, i = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, i++) {
+                int label = labels[i];
+                if (label == 0) {
+                    continue;
+                }
+                Blob blob = blobs.get(parent[label] - 1);
+                blob.area++;
+                blob.sumX += x;
+                blob.sumY += y;
+                if (x < blob.left) blob.left = x;
+                if (x > blob.right) blob.right = x;
+                if (y < blob.top) blob.top = y;
+                if (y > blob.bottom) blob.bottom = y;
+            }
+        }
+
+        // 过滤小区域
+        int kept = 0;
+        for (int i = 0, count = blobs.size(); i < count; i++) {
+            Blob blob = blobs.get(i);
+            if (blob.area >= minBlobArea) {
+                blobs.set(kept++, blob);
+            }
+        }
+        while (blobs.size() > kept) {
+            blobs.remove(blobs.size() - 1);
+        }
+        return readOnlyBlobs;
+    }
+
+    private void labelBand(int band, int startRow, int endRow) {
+        bandNextLabel[band] = labelRows(frame, frameWidth, startRow, endRow, bandFirstLabel[band]);
+    }
+
+    /**
+     * 第一遍, 只需要看 左/左上/上/右上 四个已经扫描过的邻居, 不看起始行的上一行
+     * @param mask 二值图
+     * @param width 宽度
+     * @param startRow 起始行, 包含
+     * @param endRow 结束行, 不包含
+     * @param firstLabel 起始标签
+     * @return 下一个未使用的标签
+     */
+    private int labelRows(byte[] mask, int width, int startRow, int endRow, int firstLabel) {
+        int[] labels = this.labels;
+        int[] parent = this.parent;
+        int next = firstLabel;
+        for (int y = startRow, i = startRow * width; y < endRow; y++) {
+            for (int x = 0; x < width; x++, i++) {
+                if (mask[i] == 0) {
+                    labels[i] = 0;
+                    continue;
+                }
+                int label = 0;
+                if (x > 0) {
+                    label = merge(parent, label, labels[i - 1]);
+                }
+                if (y > startRow) {
+                    int above = i - width;
+                    if (x > 0) {
+                        label = merge(parent, label, labels[above - 1]);
+                    }
+                    label = merge(parent, label, labels[above]);
+                    if (x < width - 1) {
+                        label = merge(parent, label, labels[above + 1]);
+                    }
+                }
+                if (label == 0) {
+                    label = next++;
+                    parent[label] = label;
+                }
+                labels[i] = label;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * 合并两个标签
+     * @param parent 并查集
+     * @param label 当前标签, 0为还没有
+     * @param neighbor 邻居的标签, 0为背景
+     * @return 合并后的根
+     */
+    private static int merge(int[] parent, int label, int neighbor) {
+        if (neighbor == 0) {
+            return label;
+        }
+        int b = find(parent, neighbor);
+        if (label == 0) {
+            return b;
+        }
+        int a = find(parent, label);
+        if (a == b) {
+            return a;
+        }
+        // 较小的标签作为根
+        if (a < b) {
+            parent[b] = a;
+            return a;
+        }
+        parent[a] = b;
+        return b;
+    }
+
+    /**
+     * 查找根并压缩路径, 路径上的标签只会指向更小的标签
+     */
+    private static int find(int[] parent, int label) {
+        while (parent[label] != label) {
+            parent[label] = parent[parent[label]];
+            label = parent[label];
+        }
+        return label;
+    }
+
+}
@@ -0,0 +1,84 @@
+package net.allape.housedog.detector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 与上一帧对比的运动检测, 绝对差值超过阈值的像素视为变化
+ * 所有缓冲在尺寸不变时复用, 每帧不分配内存
+ */
+public class FrameDiffMotionDetector implements MotionDetector {
+
+    // 差异阈值, 大于该值视为变化, 与cvThreshold的CV_THRESH_BINARY一致
+    private final int threshold;
+    // 至少多少像素变化才算运动
+    private final int minChangedPixels;
+
+    // 上一帧
+    private byte[] previous;
+    // 是否已有上一帧
+    private boolean primed = false;
+
+    private final MotionResult result = new MotionResult();
+
+    /**
+     * @param threshold 差异阈值 [0, 255]
+     */
+    public FrameDiffMotionDetector(int threshold) {
+        this(threshold, 1);
+    }
+
+    /**
+     * @param threshold 差异阈值 [0, 255]
+     * @param minChangedPixels 至少多少像素变化才算运动
+     */
+    public FrameDiffMotionDetector(int threshold, int minChangedPixels) {
+        this.threshold = threshold;
+        this.minChangedPixels = Math.max(1, minChangedPixels);
+    }
+
+    @Override
+    public MotionResult detect(int width, int height, int stride, ByteBuffer luma) {
+        int size = width * height;
+        if (previous == null || previous.length != size) {
+            previous = new byte[size];
+            result.mask = new byte[size];
+            primed = false;
+        }
+        byte[] prev = previous;
+        byte[] mask = result.mask;
+        int base = luma.position();
+        int changed = 0;
+
+        for (int y = 0, i = 0; y < height; y++) {
+            int row = base + y * stride;
+            for (int x = 0; x < width; x++, i++) {
+                int curr = luma.get(row + x) & 0xFF;
+                int diff = curr - (prev[i] & 0xFF);
+                if (diff < 0) {
+                    diff = -diff;
+                }
+                if (primed && diff > threshold) {
+                    mask[i] = (byte) 0xFF;
+                    changed++;
+                } else {
+                    mask[i] = 0;
+                }
+                prev[i] = (byte) curr;
+            }
+        }
+
+        result.width = width;
+        result.height = height;
+        result.changedPixels = changed;
+        result.score = (float) changed / size;
+        result.moved = changed >= minChangedPixels;
+        primed = true;
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        primed = false;
+    }
+
+}
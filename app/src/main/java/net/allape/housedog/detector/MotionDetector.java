@@ -0,0 +1,26 @@
+package net.allape.housedog.detector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 运动检测引擎, 只依赖亮度数据, 不依赖Android
+ * 实现不需要是线程安全的, 但同一时间只会在一个线程中调用
+ */
+public interface MotionDetector {
+
+    /**
+     * 检测一帧
+     * @param width 宽度
+     * @param height 高度
+     * @param stride 行跨度, 不小于width
+     * @param luma 单通道亮度数据, 从position开始, 不会改变position
+     * @return 检测结果, 由检测器复用, 仅在下一次调用前有效
+     */
+    MotionResult detect(int width, int height, int stride, ByteBuffer luma);
+
+    /**
+     * 丢弃历史帧, 下一帧重新开始
+     */
+    void reset();
+
+}
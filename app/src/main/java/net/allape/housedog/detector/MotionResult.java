@@ -0,0 +1,116 @@
+package net.allape.housedog.detector;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 运动检测的结果, 由检测器复用
+ */
+public class MotionResult {
+
+    // 宽度
+    int width;
+    // 高度
+    int height;
+    // 变化的像素数
+    int changedPixels;
+    // 变化程度 [0, 1]
+    float score;
+    // 是否有运动
+    boolean moved;
+    // 二值化的差异, 0或255, 长度为 width * height
+    byte[] mask;
+    // 网格的列数, 非网格检测为0
+    int tilesX;
+    // 网格的行数, 非网格检测为0
+    int tilesY;
+    // 每个网格中变化的像素数, 未读取的为{@link TileGridMotionDetector#UNREAD}
+    int[] tileCounts;
+    // 连通区域, 由{@link BlobMotionDetector}填充
+    List<Blob> blobs;
+
+    /**
+     * @return 宽度
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return 高度
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return 超过阈值的像素数
+     */
+    public int getChangedPixels() {
+        return changedPixels;
+    }
+
+    /**
+     * @return 变化程度, 0为无变化, 1为全部变化
+     */
+    public float getScore() {
+        return score;
+    }
+
+    /**
+     * @return 是否有运动
+     */
+    public boolean isMoved() {
+        return moved;
+    }
+
+    /**
+     * @return 二值化的差异, 0/无变化, 255/有变化, 行跨度为width; 检测器复用, 不要修改
+     */
+    public byte[] getMask() {
+        return mask;
+    }
+
+    /**
+     * @return 网格的列数, 非网格检测为0
+     */
+    public int getTilesX() {
+        return tilesX;
+    }
+
+    /**
+     * @return 网格的行数, 非网格检测为0
+     */
+    public int getTilesY() {
+        return tilesY;
+    }
+
+    /**
+     * @return 每个网格中变化的像素数, 按行排列, 长度为 tilesX * tilesY; 非网格检测为null; 检测器复用, 不要修改
+     */
+    public int[] getTileCounts() {
+        return tileCounts;
+    }
+
+    /**
+     * @return 面积足够大的连通区域, 没有标记时为空; 检测器复用, 不要持有
+     */
+    public List<Blob> getBlobs() {
+        return blobs == null ? Collections.<Blob>emptyList() : blobs;
+    }
+
+    @Override
+    public String toString() {
+        return "MotionResult{" +
+                "width=" + width +
+                ", height=" + height +
+                ", changedPixels=" + changedPixels +
+                ", score=" + score +
+                ", moved=" + moved +
+                ", tilesX=" + tilesX +
+                ", tilesY=" + tilesY +
+                ", blobs=" + getBlobs().size() +
+                '}';
+    }
+
+}
@@ -0,0 +1,208 @@
+package net.allape.housedog.detector;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 由粗到细的运动检测
+ * 先把帧按factor分成若干格子, 每个格子取少量采样点的平均亮度与粗背景对比,
+ * 只有变化的格子及其相邻格子才与细背景逐像素对比; 静止的帧只需要读取极少的像素
+ * 没有被检测的格子每隔refreshPeriod帧轮流更新一次细背景, 避免格子长时间不更新后背景过期
+ * 所有缓冲在尺寸不变时复用, 每帧不分配内存
+ */
+public class PyramidMotionDetector implements MotionDetector {
+
+    // 默认格子边长, scale为8时粗检测为原图的1/32
+    public static final int DEFAULT_FACTOR = 4;
+    // 默认每隔多少帧更新一次所有格子的细背景
+    public static final int DEFAULT_REFRESH_PERIOD = 16;
+
+    // 格子边长
+    private final int factor;
+    // 格子内的采样间隔
+    private final int sampleStep;
+    // 细检测的差异阈值
+    private final int threshold;
+    // 粗检测的差异阈值, 平均亮度的变化会被稀释, 所以通常低于threshold
+    private final int coarseThreshold;
+    // 至少多少像素变化才算运动
+    private final int minChangedPixels;
+    // 每隔多少帧更新一次所有格子的细背景
+    private final int refreshPeriod;
+
+    // 粗背景, 每个格子一个值
+    private final BackgroundModel coarse;
+    // 细背景, 每个像素一个值
+    private final BackgroundModel fine;
+
+    // 粗检测变化的格子
+    private boolean[] hot;
+    // 需要细检测的格子
+    private boolean[] active;
+    // 下一个轮流更新的格子
+    private int refreshCursor = 0;
+    // 上一帧细检测的格子数
+    private int activeCells = 0;
+
+    private final MotionResult result = new MotionResult();
+
+    /**
+     * @param threshold 差异阈值 [0, 255]
+     */
+    public PyramidMotionDetector(int threshold) {
+        this(threshold, RunningAverageMotionDetector.DEFAULT_LEARNING_RATE, 1,
+                DEFAULT_FACTOR, threshold / 2, DEFAULT_REFRESH_PERIOD);
+    }
+
+    /**
+     * @param threshold 细检测的差异阈值 [0, 255]
+     * @param learningRate 背景学习率 (0, 1]
+     * @param minChangedPixels 至少多少像素变化才算运动
+     * @param factor 格子边长, 即粗检测相对输入的缩放比例
+     * @param coarseThreshold 粗检测的差异阈值 [0, 255]
+     * @param refreshPeriod 每隔多少帧更新一次所有格子的细背景
+     */
+    public PyramidMotionDetector(int threshold, float learningRate, int minChangedPixels,
+                                 int factor, int coarseThreshold, int refreshPeriod) {
+        if (factor <= 0) {
+            throw new IllegalArgumentException("factor must be positive: " + factor);
+        }
+        this.threshold = threshold;
+        this.coarseThreshold = coarseThreshold;
+        this.minChangedPixels = Math.max(1, minChangedPixels);
+        this.factor = factor;
+        this.sampleStep = Math.max(1, factor / 2);
+        this.refreshPeriod = Math.max(1, refreshPeriod);
+        this.coarse = new BackgroundModel(learningRate);
+        this.fine = new BackgroundModel(learningRate);
+    }
+
+    @Override
+    public MotionResult detect(int width, int height, int stride, ByteBuffer luma) {
+        int cellsX = (width + factor - 1) / factor;
+        int cellsY = (height + factor - 1) / factor;
+        int cells = cellsX * cellsY;
+        int size = width * height;
+        int base = luma.position();
+
+        boolean primed = coarse.prepare(cells) & fine.prepare(size);
+        if (result.mask == null || result.mask.length != size) {
+            result.mask = new byte[size];
+        }
+        if (hot == null || hot.length != cells) {
+            hot = new boolean[cells];
+            active = new boolean[cells];
+            refreshCursor = 0;
+        }
+        byte[] mask = result.mask;
+        Arrays.fill(mask, (byte) 0);
+
+        // 粗检测
+        for (int cy = 0, c = 0; cy < cellsY; cy++) {
+            for (int cx = 0; cx < cellsX; cx++, c++) {
+                int mean = cellMean(luma, base, stride, width, height, cx, cy);
+                if (!primed) {
+                    coarse.init(c, mean);
+                    hot[c] = false;
+                    active[c] = true;
+                } else {
+                    hot[c] = coarse.diffAndLearn(c, mean) > coarseThreshold;
+                }
+            }
+        }
+
+        if (primed) {
+            // 变化的格子向周围扩展一格, 物体的边缘可能落在相邻格子里
+            for (int cy = 0, c = 0; cy < cellsY; cy++) {
+                for (int cx = 0; cx < cellsX; cx++, c++) {
+                    active[c] = false;
+                    for (int ny = Math.max(0, cy - 1); ny <= Math.min(cellsY - 1, cy + 1) && !active[c]; ny++) {
+                        for (int nx = Math.max(0, cx - 1); nx <= Math.min(cellsX - 1, cx + 1); nx++) {
+                            if (hot[ny * cellsX + nx]) {
+                                active[c] = true;
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+            // 轮流更新细背景
+            for (int i = 0, count = (cells + refreshPeriod - 1) / refreshPeriod; i < count; i++) {
+                active[refreshCursor] = true;
+                refreshCursor = refreshCursor + 1 == cells ? 0 : refreshCursor + 1;
+            }
+        }
+
+        // 细检测
+        int changed = 0;
+        int activeCount = 0;
+        for (int c = 0; c < cells; c++) {
+            if (!active[c]) {
+                continue;
+            }
+            activeCount++;
+            int x0 = (c % cellsX) * factor;
+            int y0 = (c / cellsX) * factor;
+            int x1 = Math.min(x0 + factor, width);
+            int y1 = Math.min(y0 + factor, height);
+            for (int y = y0; y < y1; y++) {
+                int row = base + y * stride;
+                int i = y * width + x0;
+                for (int x = x0; x < x1; x++, i++) {
+                    int curr = luma.get(row + x) & 0xFF;
+                    if (!primed) {
+                        fine.init(i, curr);
+                    } else if (fine.diffAndLearn(i, curr) > threshold) {
+                        mask[i] = (byte) 0xFF;
+                        changed++;
+                    }
+                }
+            }
+        }
+        coarse.primed();
+        fine.primed();
+        activeCells = activeCount;
+
+        result.width = width;
+        result.height = height;
+        result.changedPixels = changed;
+        result.score = (float) changed / size;
+        result.moved = changed >= minChangedPixels;
+        return result;
+    }
+
+    /**
+     * 格子内按sampleStep采样的平均亮度
+     */
+    private int cellMean(ByteBuffer luma, int base, int stride, int width, int height, int cx, int cy) {
+        int x0 = cx * factor;
+        int y0 = cy * factor;
+        int x1 = Math.min(x0 + factor, width);
+        int y1 = Math.min(y0 + factor, height);
+        int offset = sampleStep / 2;
+        int sum = 0;
+        int count = 0;
+        for (int y = Math.min(y0 + offset, y1 - 1); y < y1; y += sampleStep) {
+            int row = base + y * stride;
+            for (int x = Math.min(x0 + offset, x1 - 1); x < x1; x += sampleStep) {
+                sum += luma.get(row + x) & 0xFF;
+                count++;
+            }
+        }
+        return sum / count;
+    }
+
+    /**
+     * @return 上一帧进行了细检测的格子数
+     */
+    public int getActiveCells() {
+        return activeCells;
+    }
+
+    @Override
+    public void reset() {
+        coarse.reset();
+        fine.reset();
+    }
+
+}
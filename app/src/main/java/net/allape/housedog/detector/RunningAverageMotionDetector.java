@@ -0,0 +1,139 @@
+package net.allape.housedog.detector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 与滑动平均背景对比的运动检测
+ * 相比与上一帧对比, 缓慢的运动会累积出差异, 单帧的噪声只按学习率少量改变背景, 不会在之后的帧中残留
+ * 不做时间上的过滤, 超过阈值的单帧闪烁本身仍会报警
+ * 背景在对比时原地更新, 每帧不分配内存
+ * 指定{@link BandExecutor}时按横条并行处理
+ */
+public class RunningAverageMotionDetector implements MotionDetector {
+
+    // 默认学习率, 10fps时约2秒适应一次光线变化
+    public static final float DEFAULT_LEARNING_RATE = 0.05f;
+
+    // 差异阈值, 大于该值视为变化
+    private final int threshold;
+    // 至少多少像素变化才算运动
+    private final int minChangedPixels;
+    // 背景
+    private final BackgroundModel background;
+    // 并行处理, null/串行
+    private final BandExecutor executor;
+    // 处理一个横条
+    private final BandExecutor.BandTask bandTask = this::detectBand;
+
+    // 当前帧, 供横条任务读取
+    private ByteBuffer frame;
+    private int frameWidth;
+    private int frameStride;
+    private boolean framePrimed;
+    // 每个横条变化的像素数
+    private int[] bandChanged = new int[1];
+
+    private final MotionResult result = new MotionResult();
+
+    /**
+     * @param threshold 差异阈值 [0, 255]
+     */
+    public RunningAverageMotionDetector(int threshold) {
+        this(threshold, DEFAULT_LEARNING_RATE, 1);
+    }
+
+    /**
+     * @param threshold 差异阈值 [0, 255]
+     * @param learningRate 背景学习率 (0, 1]
+     * @param minChangedPixels 至少多少像素变化才算运动
+     */
+    public RunningAverageMotionDetector(int threshold, float learningRate, int minChangedPixels) {
+        this(threshold, learningRate, minChangedPixels, null);
+    }
+
+    /**
+     * @param threshold 差异阈值 [0, 255]
+     * @param learningRate 背景学习率 (0, 1]
+     * @param minChangedPixels 至少多少像素变化才算运动
+     * @param executor 按横条并行处理, null/串行
+     */
+    public RunningAverageMotionDetector(int threshold, float learningRate, int minChangedPixels, BandExecutor executor) {
+        this.threshold = threshold;
+        this.minChangedPixels = Math.max(1, minChangedPixels);
+        this.background = new BackgroundModel(learningRate);
+        this.executor = executor;
+    }
+
+    @Override
+    public MotionResult detect(int width, int height, int stride, ByteBuffer luma) {
+        int size = width * height;
+        boolean primed = background.prepare(size);
+        if (result.mask == null || result.mask.length != size) {
+            result.mask = new byte[size];
+        }
+
+        int changed;
+        if (executor == null) {
+            changed = detectRows(luma, width, stride, primed, 0, height);
+        } else {
+            int bands = executor.bandCount(width, height);
+            if (bandChanged.length < bands) {
+                bandChanged = new int[bands];
+            }
+            frame = luma;
+            frameWidth = width;
+            frameStride = stride;
+            framePrimed = primed;
+            executor.execute(bands, height, bandTask);
+            frame = null;
+            changed = 0;
+            for (int b = 0; b < bands; b++) {
+                changed += bandChanged[b];
+            }
+        }
+        background.primed();
+
+        result.width = width;
+        result.height = height;
+        result.changedPixels = changed;
+        result.score = (float) changed / size;
+        result.moved = changed >= minChangedPixels;
+        return result;
+    }
+
+    private void detectBand(int band, int startRow, int endRow) {
+        bandChanged[band] = detectRows(frame, frameWidth, frameStride, framePrimed, startRow, endRow);
+    }
+
+    /**
+     * 对比并更新若干行
+     * @return 变化的像素数
+     */
+    private int detectRows(ByteBuffer luma, int width, int stride, boolean primed, int startRow, int endRow) {
+        byte[] mask = result.mask;
+        int base = luma.position();
+        int changed = 0;
+        for (int y = startRow, i = startRow * width; y < endRow; y++) {
+            int row = base + y * stride;
+            for (int x = 0; x < width; x++, i++) {
+                int curr = luma.get(row + x) & 0xFF;
+                if (!primed) {
+                    background.init(i, curr);
+                    mask[i] = 0;
+                } else if (background.diffAndLearn(i, curr) > threshold) {
+                    mask[i] = (byte) 0xFF;
+                    changed++;
+                } else {
+                    mask[i] = 0;
+                }
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public void reset() {
+        background.reset();
+    }
+
+}
@@ -0,0 +1,292 @@
+package net.allape.housedog.detector;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 网格运动检测, 把亮度图分成若干网格, 分别统计与背景相比变化的像素数
+ * 变化像素数达到阈值的网格视为活跃, 活跃网格数达到阈值即为运动, 之后的网格不再读取
+ * 可以屏蔽部分网格 (树木, 电视等), 被屏蔽的网格不会被读取
+ * 提前结束时下一帧从未读取的网格开始, 保证所有网格的背景都会被更新
+ * 不提前结束且指定{@link BandExecutor}时按网格行分成横条并行处理
+ */
+public class TileGridMotionDetector implements MotionDetector {
+
+    // 未读取的网格的计数
+    public static final int UNREAD = -1;
+
+    // 网格边长
+    private final int tileSize;
+    // 差异阈值, 大于该值视为变化
+    private final int threshold;
+    // 网格中至少多少像素变化才算活跃
+    private final int minTilePixels;
+    // 至少多少网格活跃才算运动
+    private final int minActiveTiles;
+    // 达到运动条件后是否停止读取
+    private final boolean earlyExit;
+    // 背景
+    private final BackgroundModel background;
+    // 并行处理, null/串行, 提前结束时不使用
+    private final BandExecutor executor;
+    // 处理一个横条的网格行
+    private final BandExecutor.BandTask bandTask = this::detectBand;
+
+    // 屏蔽的网格, 第i位为1表示屏蔽第i个网格
+    private volatile long[] tileMask;
+    // 屏蔽变化后需要重新初始化背景
+    private volatile boolean tileMaskChanged = false;
+    // 下一帧开始读取的网格
+    private int startTile = 0;
+
+    // 当前帧, 供横条任务读取
+    private ByteBuffer frame;
+    private int frameWidth;
+    private int frameHeight;
+    private int frameStride;
+    private int frameTilesX;
+    private boolean framePrimed;
+    private long[] frameIgnored;
+    // 每个横条变化的像素数和活跃的网格数
+    private int[] bandChanged = new int[1];
+    private int[] bandActive = new int[1];
+
+    private final MotionResult result = new MotionResult();
+
+    // 最近一帧的网格计数, 供其他线程读取
+    private int[] published;
+
+    /**
+     * @param tileSize 网格边长
+     * @param threshold 差异阈值 [0, 255]
+     * @param minTilePixels 网格中至少多少像素变化才算活跃
+     * @param minActiveTiles 至少多少网格活跃才算运动
+     */
+    public TileGridMotionDetector(int tileSize, int threshold, int minTilePixels, int minActiveTiles) {
+        this(tileSize, threshold, RunningAverageMotionDetector.DEFAULT_LEARNING_RATE, minTilePixels, minActiveTiles, true);
+    }
+
+    /**
+     * @param tileSize 网格边长
+     * @param threshold 差异阈值 [0, 255]
+     * @param learningRate 背景学习率 (0, 1]
+     * @param minTilePixels 网格中至少多少像素变化才算活跃
+     * @param minActiveTiles 至少多少网格活跃才算运动
+     * @param earlyExit true/达到运动条件后不再读取剩余网格, false/总是读取全部网格
+     */
+    public TileGridMotionDetector(int tileSize, int threshold, float learningRate,
+                                  int minTilePixels, int minActiveTiles, boolean earlyExit) {
+        this(tileSize, threshold, learningRate, minTilePixels, minActiveTiles, earlyExit, null);
+    }
+
+    /**
+     * @param tileSize 网格边长
+     * @param threshold 差异阈值 [0, 255]
+     * @param learningRate 背景学习率 (0, 1]
+     * @param minTilePixels 网格中至少多少像素变化才算活跃
+     * @param minActiveTiles 至少多少网格活跃才算运动
+     * @param earlyExit true/达到运动条件后不再读取剩余网格, false/总是读取全部网格
+     * @param executor 不提前结束时按网格行并行处理, null/串行
+     */
+    public TileGridMotionDetector(int tileSize, int threshold, float learningRate,
+                                  int minTilePixels, int minActiveTiles, boolean earlyExit, BandExecutor executor) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("tile size must be positive: " + tileSize);
+        }
+        this.tileSize = tileSize;
+        this.threshold = threshold;
+        this.minTilePixels = Math.max(1, minTilePixels);
+        this.minActiveTiles = Math.max(1, minActiveTiles);
+        this.earlyExit = earlyExit;
+        this.background = new BackgroundModel(learningRate);
+        this.executor = executor;
+    }
+
+    /**
+     * 设置屏蔽的网格, 可以在任意线程调用, 下一帧生效并重新初始化背景
+     * @param tileMask 第i位 (tileMask[i / 64] 的第 i % 64 位) 为1表示屏蔽第i个网格, 网格按行排列; null/不屏蔽
+     */
+    public void setTileMask(long[] tileMask) {
+        this.tileMask = tileMask == null ? null : tileMask.clone();
+        this.tileMaskChanged = true;
+    }
+
+    /**
+     * 把字节排列的屏蔽位转为{@link #setTileMask}的格式
+     * @param bits 第j个字节的第i位 (从低位开始) 表示第 j * 8 + i 个网格
+     * @param offset 起始下标
+     * @param length 字节数
+     * @return 屏蔽位
+     */
+    public static long[] packTileMask(byte[] bits, int offset, int length) {
+        long[] mask = new long[(length + 7) / 8];
+        for (int i = 0; i < length; i++) {
+            mask[i >> 3] |= (bits[offset + i] & 0xFFL) << ((i & 7) << 3);
+        }
+        return mask;
+    }
+
+    @Override
+    public MotionResult detect(int width, int height, int stride, ByteBuffer luma) {
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesY = (height + tileSize - 1) / tileSize;
+        int tileCount = tilesX * tilesY;
+        int size = width * height;
+
+        if (tileMaskChanged) {
+            tileMaskChanged = false;
+            background.reset();
+        }
+        long[] ignored = tileMask;
+        boolean primed = background.prepare(size);
+
+        if (result.mask == null || result.mask.length != size) {
+            result.mask = new byte[size];
+        }
+        if (result.tileCounts == null || result.tileCounts.length != tileCount) {
+            result.tileCounts = new int[tileCount];
+            startTile = 0;
+        }
+        int[] counts = result.tileCounts;
+        Arrays.fill(result.mask, (byte) 0);
+        Arrays.fill(counts, UNREAD);
+
+        int changed = 0;
+        int active = 0;
+        boolean moved = false;
+
+        if (!earlyExit && executor != null) {
+            // 横条按网格行划分, 各自写入不相交的网格/掩码/背景
+            int bands = Math.min(executor.bandCount(width, height), tilesY);
+            if (bandChanged.length < bands) {
+                bandChanged = new int[bands];
+                bandActive = new int[bands];
+            }
+            frame = luma;
+            frameWidth = width;
+            frameHeight = height;
+            frameStride = stride;
+            frameTilesX = tilesX;
+            framePrimed = primed;
+            frameIgnored = ignored;
+            executor.execute(bands, tilesY, bandTask);
+            frame = null;
+            frameIgnored = null;
+            for (int b = 0; b < bands; b++) {
+                changed += bandChanged[b];
+                active += bandActive[b];
+            }
+            moved = active >= minActiveTiles;
+        } else {
+            int first = primed ? startTile : 0;
+            for (int n = 0; n < tileCount; n++) {
+                int tile = first + n;
+                if (tile >= tileCount) {
+                    tile -= tileCount;
+                }
+                if (isIgnored(ignored, tile)) {
+                    continue;
+                }
+
+                int count = detectTile(luma, width, height, stride, tilesX, primed, tile);
+                counts[tile] = count;
+                changed += count;
+
+                if (count >= minTilePixels && ++active >= minActiveTiles) {
+                    moved = true;
+                    if (earlyExit) {
+                        startTile = tile + 1 == tileCount ? 0 : tile + 1;
+                        break;
+                    }
+                }
+            }
+        }
+        background.primed();
+
+        result.width = width;
+        result.height = height;
+        result.tilesX = tilesX;
+        result.tilesY = tilesY;
+        result.changedPixels = changed;
+        result.score = (float) changed / size;
+        result.moved = moved;
+
+        publish(tilesX, tilesY, counts);
+        return result;
+    }
+
+    private void detectBand(int band, int startTileRow, int endTileRow) {
+        int[] counts = result.tileCounts;
+        int changed = 0;
+        int active = 0;
+        for (int tile = startTileRow * frameTilesX, end = endTileRow * frameTilesX; tile < end; tile++) {
+            if (isIgnored(frameIgnored, tile)) {
+                continue;
+            }
+            int count = detectTile(frame, frameWidth, frameHeight, frameStride, frameTilesX, framePrimed, tile);
+            counts[tile] = count;
+            changed += count;
+            if (count >= minTilePixels) {
+                active++;
+            }
+        }
+        bandChanged[band] = changed;
+        bandActive[band] = active;
+    }
+
+    private static boolean isIgnored(long[] ignored, int tile) {
+        return ignored != null && (tile >> 6) < ignored.length && ((ignored[tile >> 6] >>> (tile & 63)) & 1L) != 0;
+    }
+
+    /**
+     * 对比并更新一个网格
+     * @return 变化的像素数
+     */
+    private int detectTile(ByteBuffer luma, int width, int height, int stride, int tilesX, boolean primed, int tile) {
+        byte[] mask = result.mask;
+        int base = luma.position();
+        int x0 = (tile % tilesX) * tileSize;
+        int y0 = (tile / tilesX) * tileSize;
+        int x1 = Math.min(x0 + tileSize, width);
+        int y1 = Math.min(y0 + tileSize, height);
+        int count = 0;
+        for (int y = y0; y < y1; y++) {
+            int row = base + y * stride;
+            int i = y * width + x0;
+            for (int x = x0; x < x1; x++, i++) {
+                int curr = luma.get(row + x) & 0xFF;
+                if (!primed) {
+                    background.init(i, curr);
+                } else if (background.diffAndLearn(i, curr) > threshold) {
+                    mask[i] = (byte) 0xFF;
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 复制最近一帧的网格计数, 可以在任意线程调用
+     * @return [0]为列数, [1]为行数, 之后为按行排列的每个网格的计数; 还没有检测过时为null
+     */
+    public synchronized int[] snapshot() {
+        return published == null ? null : published.clone();
+    }
+
+    private synchronized void publish(int tilesX, int tilesY, int[] counts) {
+        if (published == null || published.length != counts.length + 2) {
+            published = new int[counts.length + 2];
+        }
+        published[0] = tilesX;
+        published[1] = tilesY;
+        System.arraycopy(counts, 0, published, 2, counts.length);
+    }
+
+    @Override
+    public void reset() {
+        background.reset();
+        startTile = 0;
+    }
+
+}
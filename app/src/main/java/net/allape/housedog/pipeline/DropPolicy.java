@@ -0,0 +1,24 @@
+package net.allape.housedog.pipeline;
+
+/**
+ * 队列满时的丢弃策略
+ */
+public enum DropPolicy {
+
+    /**
+     * 丢弃队列中最旧的, 保证处理的是最新的帧
+     */
+    DROP_OLDEST,
+
+    /**
+     * 丢弃新来的, 保证已排队的帧被处理
+     */
+    DROP_NEWEST,
+
+    /**
+     * 丢弃队列中最旧的非关键帧, 队列中全是关键帧时, 新来的非关键帧被丢弃, 新来的关键帧挤掉最旧的
+     * 需要{@link FrameQueue.KeyFrameFilter}, 没有时等同于{@link #DROP_OLDEST}
+     */
+    DROP_NON_KEY
+
+}
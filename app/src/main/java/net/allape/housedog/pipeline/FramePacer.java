@@ -0,0 +1,42 @@
+package net.allape.housedog.pipeline;
+
+/**
+ * 按传感器时间戳控制帧率, 按固定间隔排出每一帧的预定时间, 不受回调延迟的影响
+ * 例如30fps的摄像头降到10fps时稳定地每3帧取1帧, 而不会因为抖动变成每4帧取1帧
+ * 非线程安全, 只在摄像头线程中使用
+ */
+public class FramePacer {
+
+    // 下一帧的预定时间, ns, 小于0表示还没有帧
+    private long nextDue = -1L;
+
+    /**
+     * 判断这一帧是否需要处理
+     * @param timestamp 帧的时间戳, ns, 例如{@link android.media.Image#getTimestamp()}
+     * @param frameDuration 单帧时长, ns
+     * @return true/处理, false/跳过
+     */
+    public boolean accept(long timestamp, long frameDuration) {
+        // 第一帧, 或时间戳早于上一次处理的帧 (时间戳倒退) 时重新对齐
+        // 上一帧最多提前了1/8帧, 帧间隔远小于单帧时长时紧随其后的帧不算倒退
+        if (nextDue < 0 || timestamp < nextDue - frameDuration - frameDuration / 8) {
+            nextDue = timestamp + frameDuration;
+            return true;
+        }
+        // 允许提前1/8帧, 抵消传感器时间戳的抖动
+        if (timestamp < nextDue - frameDuration / 8) {
+            return false;
+        }
+        // 落后超过一帧时重新对齐, 不连续补帧
+        nextDue = timestamp - nextDue >= frameDuration ? timestamp + frameDuration : nextDue + frameDuration;
+        return true;
+    }
+
+    /**
+     * 重新开始
+     */
+    public void reset() {
+        nextDue = -1L;
+    }
+
+}
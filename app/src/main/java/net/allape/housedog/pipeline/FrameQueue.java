@@ -0,0 +1,239 @@
+package net.allape.housedog.pipeline;
+
+/**
+ * 有界的帧交接队列, 生产者永不阻塞, 满时按{@link DropPolicy}丢弃
+ * 被丢弃的帧会交给{@link OnDropListener}, 用于关闭/回收
+ * @param <T> 帧类型
+ */
+public class FrameQueue<T> {
+
+    // 环形数组
+    private final Object[] items;
+    // 丢弃策略
+    private final DropPolicy policy;
+    // 丢弃回调
+    private final OnDropListener<T> dropListener;
+    // 关键帧判断, 用于{@link DropPolicy#DROP_NON_KEY}
+    private final KeyFrameFilter<T> keyFrameFilter;
+
+    // 队头下标
+    private int head = 0;
+    // 当前数量
+    private int size = 0;
+    // 是否已关闭
+    private boolean closed = false;
+
+    // 累计丢弃数量
+    private long dropped = 0L;
+
+    /**
+     * @param capacity 容量, 至少为1
+     * @param policy 丢弃策略
+     * @param dropListener 丢弃回调, 可为null
+     */
+    public FrameQueue(int capacity, DropPolicy policy, OnDropListener<T> dropListener) {
+        this(capacity, policy, dropListener, null);
+    }
+
+    /**
+     * @param capacity 容量, 至少为1
+     * @param policy 丢弃策略
+     * @param dropListener 丢弃回调, 可为null
+     * @param keyFrameFilter 关键帧判断, 可为null
+     */
+    public FrameQueue(int capacity, DropPolicy policy, OnDropListener<T> dropListener, KeyFrameFilter<T> keyFrameFilter) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.items = new Object[capacity];
+        this.policy = policy;
+        this.dropListener = dropListener;
+        this.keyFrameFilter = keyFrameFilter;
+    }
+
+    /**
+     * 放入一帧, 不阻塞
+     * @param item 帧
+     * @return false/该帧被丢弃或队列已关闭
+     */
+    public boolean offer(T item) {
+        T droppedItem = null;
+        boolean accepted = true;
+        synchronized (this) {
+            if (closed) {
+                droppedItem = item;
+                accepted = false;
+            } else if (size == items.length) {
+                dropped++;
+                if (policy == DropPolicy.DROP_NEWEST) {
+                    droppedItem = item;
+                    accepted = false;
+                } else if (policy == DropPolicy.DROP_NON_KEY && keyFrameFilter != null) {
+                    int index = oldestNonKey();
+                    if (index >= 0) {
+                        droppedItem = removeAt(index);
+                        enqueue(item);
+                    } else if (!keyFrameFilter.isKey(item)) {
+                        droppedItem = item;
+                        accepted = false;
+                    } else {
+                        droppedItem = removeHead();
+                        enqueue(item);
+                    }
+                } else {
+                    droppedItem = removeHead();
+                    enqueue(item);
+                }
+            } else {
+                enqueue(item);
+                notifyAll();
+            }
+        }
+        if (droppedItem != null && dropListener != null) {
+            dropListener.onDrop(droppedItem);
+        }
+        return accepted;
+    }
+
+    /**
+     * 取出一帧, 队列为空时阻塞
+     * @return 帧, 队列关闭后返回null
+     * @throws InterruptedException 等待时被中断
+     */
+    public synchronized T take() throws InterruptedException {
+        while (size == 0 && !closed) {
+            wait();
+        }
+        return closed ? null : removeHead();
+    }
+
+    /**
+     * 取出一帧, 队列为空时最多等待timeout
+     * @param timeout 最长等待时间, ms, 不大于0时不等待
+     * @return 帧, 超时或队列关闭后返回null
+     * @throws InterruptedException 等待时被中断
+     */
+    public synchronized T poll(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        long left = timeout;
+        while (size == 0 && !closed && left > 0) {
+            wait(left);
+            left = deadline - System.currentTimeMillis();
+        }
+        return closed || size == 0 ? null : removeHead();
+    }
+
+    /**
+     * 取出一帧, 不阻塞
+     * @return 帧, 队列为空时返回null
+     */
+    public synchronized T poll() {
+        return size == 0 ? null : removeHead();
+    }
+
+    /**
+     * 清空队列, 所有排队的帧交给丢弃回调
+     */
+    public void clear() {
+        T item;
+        while ((item = poll()) != null) {
+            if (dropListener != null) {
+                dropListener.onDrop(item);
+            }
+        }
+    }
+
+    /**
+     * 关闭队列, 唤醒等待的消费者, 之后放入的帧都会被丢弃
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        clear();
+    }
+
+    /**
+     * @return 当前排队数量
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return 容量
+     */
+    public int capacity() {
+        return items.length;
+    }
+
+    /**
+     * @return 因队列已满而丢弃的数量
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    private void enqueue(T item) {
+        items[(head + size) % items.length] = item;
+        size++;
+    }
+
+    /**
+     * @return 最旧的非关键帧距队头的偏移, 没有时为-1
+     */
+    @SuppressWarnings("unchecked")
+    private int oldestNonKey() {
+        for (int i = 0; i < size; i++) {
+            if (!keyFrameFilter.isKey((T) items[(head + i) % items.length])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 移除距队头偏移为index的帧, 之后的帧前移
+     */
+    @SuppressWarnings("unchecked")
+    private T removeAt(int index) {
+        if (index == 0) {
+            return removeHead();
+        }
+        int at = (head + index) % items.length;
+        T item = (T) items[at];
+        for (int i = index; i < size - 1; i++) {
+            items[(head + i) % items.length] = items[(head + i + 1) % items.length];
+        }
+        items[(head + size - 1) % items.length] = null;
+        size--;
+        return item;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T removeHead() {
+        T item = (T) items[head];
+        items[head] = null;
+        head = (head + 1) % items.length;
+        size--;
+        return item;
+    }
+
+    public interface OnDropListener<T> {
+        /**
+         * 帧被丢弃
+         * @param item 被丢弃的帧
+         */
+        void onDrop(T item);
+    }
+
+    public interface KeyFrameFilter<T> {
+        /**
+         * @param item 帧
+         * @return true/关键帧, 队列满时优先保留
+         */
+        boolean isKey(T item);
+    }
+
+}
@@ -0,0 +1,142 @@
+package net.allape.housedog.pipeline;
+
+/**
+ * 按运动情况调整的帧率
+ * 持续quietPeriod没有运动后降到空闲帧率, 一旦有运动立即恢复全速帧率
+ * 监测线程调用{@link #update}, 其他线程可以随时读取当前状态
+ */
+public class FrameRateScheduler {
+
+    // 全速帧率
+    private final int fullFrameRate;
+    // 空闲帧率
+    private final int idleFrameRate;
+    // 多久没有运动后降为空闲帧率, ms
+    private final long quietPeriod;
+    // 帧率变化的回调, 可为null
+    private final OnFrameRateChangeListener listener;
+
+    // 是否空闲
+    private volatile boolean idle = false;
+    // 最后一次运动的时间, ms
+    private long lastMotionTime = -1L;
+    // 帧率切换次数
+    private volatile long transitions = 0L;
+    // 最后一次切换的时间, ms
+    private volatile long lastTransitionTime = 0L;
+
+    /**
+     * @param fullFrameRate 全速帧率
+     * @param idleFrameRate 空闲帧率, 不大于全速帧率
+     * @param quietPeriod 多久没有运动后降为空闲帧率, ms
+     * @param listener 帧率变化的回调, 在调用{@link #update}的线程中执行, 可为null
+     */
+    public FrameRateScheduler(int fullFrameRate, int idleFrameRate, long quietPeriod, OnFrameRateChangeListener listener) {
+        if (fullFrameRate < 1 || idleFrameRate < 1) {
+            throw new IllegalArgumentException("frame rates must be positive: " + fullFrameRate + "/" + idleFrameRate);
+        }
+        this.fullFrameRate = fullFrameRate;
+        this.idleFrameRate = Math.min(idleFrameRate, fullFrameRate);
+        this.quietPeriod = quietPeriod;
+        this.listener = listener;
+    }
+
+    /**
+     * 根据一帧的检测结果更新帧率
+     * @param moved 是否有运动
+     * @param now 当前时间, ms
+     * @return true/帧率发生了变化
+     */
+    public boolean update(boolean moved, long now) {
+        if (moved || lastMotionTime < 0) {
+            lastMotionTime = now;
+        }
+        boolean shouldIdle = !moved && now - lastMotionTime >= quietPeriod;
+        if (shouldIdle == idle) {
+            return false;
+        }
+        idle = shouldIdle;
+        lastTransitionTime = now;
+        transitions++;
+        if (listener != null) {
+            listener.onFrameRateChange(getFrameRate(), shouldIdle);
+        }
+        return true;
+    }
+
+    /**
+     * 恢复全速, 用于重新打开摄像头
+     */
+    public void reset() {
+        idle = false;
+        lastMotionTime = -1L;
+    }
+
+    /**
+     * @return 当前帧率
+     */
+    public int getFrameRate() {
+        return idle ? idleFrameRate : fullFrameRate;
+    }
+
+    /**
+     * @return 当前单帧时长, ms
+     */
+    public long getFrameDuration() {
+        return 1000 / getFrameRate();
+    }
+
+    /**
+     * @return 是否处于空闲帧率
+     */
+    public boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * @return 全速帧率
+     */
+    public int getFullFrameRate() {
+        return fullFrameRate;
+    }
+
+    /**
+     * @return 空闲帧率
+     */
+    public int getIdleFrameRate() {
+        return idleFrameRate;
+    }
+
+    /**
+     * @return 帧率切换次数
+     */
+    public long getTransitions() {
+        return transitions;
+    }
+
+    /**
+     * @return 最后一次切换的时间, ms
+     */
+    public long getLastTransitionTime() {
+        return lastTransitionTime;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameRateScheduler{" +
+                "frameRate=" + getFrameRate() +
+                ", idle=" + idle +
+                ", transitions=" + transitions +
+                '}';
+    }
+
+    public interface OnFrameRateChangeListener {
+        /**
+         * 帧率变化
+         * @param frameRate 新的帧率
+         * @param idle 是否进入空闲
+         */
+        void onFrameRateChange(int frameRate, boolean idle);
+    }
+
+}
@@ -0,0 +1,197 @@
+package net.allape.housedog.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 帧的统计, 用于判断设备是否跟得上以及在哪里丢帧
+ * arrived = acquired + droppedByReader
+ * acquired = skipped + droppedByQueue + processed + failed + (队列中/处理中的帧)
+ * 计数可以在任意线程中读取, 间隔和抖动只在摄像头线程中更新
+ */
+public class FrameStats {
+
+    // ImageReader通知有新帧的次数
+    private final AtomicLong arrived = new AtomicLong();
+    // 实际取到的帧
+    private final AtomicLong acquired = new AtomicLong();
+    // 因为帧率控制而跳过的帧
+    private final AtomicLong skipped = new AtomicLong();
+    // 交接队列满时丢弃的帧
+    private final AtomicLong droppedByQueue = new AtomicLong();
+    // 完成处理的帧
+    private final AtomicLong processed = new AtomicLong();
+    // 处理出错的帧
+    private final AtomicLong failed = new AtomicLong();
+
+    // 上一帧的时间戳, ns
+    private long lastTimestamp = -1L;
+    // 上一个帧间隔, ns
+    private long lastInterval = -1L;
+    // 帧间隔的平滑平均值, ns
+    private volatile long meanInterval = 0L;
+    // 帧间隔的平滑抖动, 相邻两个帧间隔之差的平均, ns
+    private volatile long jitter = 0L;
+    // 最大的帧间隔, ns
+    private volatile long maxInterval = 0L;
+
+    /**
+     * ImageReader通知有新帧
+     */
+    public void onArrived() {
+        arrived.incrementAndGet();
+    }
+
+    /**
+     * 取到一帧, 更新间隔和抖动
+     * @param timestamp 帧的时间戳, ns
+     */
+    public void onAcquired(long timestamp) {
+        acquired.incrementAndGet();
+        if (lastTimestamp >= 0 && timestamp > lastTimestamp) {
+            long interval = timestamp - lastTimestamp;
+            if (interval > maxInterval) {
+                maxInterval = interval;
+            }
+            if (lastInterval < 0) {
+                meanInterval = interval;
+            } else {
+                // 与RTP的抖动计算一样使用1/16的平滑
+                meanInterval += (interval - meanInterval) / 16;
+                jitter += (Math.abs(interval - lastInterval) - jitter) / 16;
+            }
+            lastInterval = interval;
+        }
+        lastTimestamp = timestamp;
+    }
+
+    /**
+     * 因为帧率控制而跳过一帧
+     */
+    public void onSkipped() {
+        skipped.incrementAndGet();
+    }
+
+    /**
+     * 交接队列丢弃了一帧
+     */
+    public void onDroppedByQueue() {
+        droppedByQueue.incrementAndGet();
+    }
+
+    /**
+     * 完成处理一帧
+     */
+    public void onProcessed() {
+        processed.incrementAndGet();
+    }
+
+    /**
+     * 处理一帧时出错
+     */
+    public void onFailed() {
+        failed.incrementAndGet();
+    }
+
+    /**
+     * 清零, 用于重新打开摄像头
+     */
+    public void reset() {
+        arrived.set(0);
+        acquired.set(0);
+        skipped.set(0);
+        droppedByQueue.set(0);
+        processed.set(0);
+        failed.set(0);
+        lastTimestamp = -1L;
+        lastInterval = -1L;
+        meanInterval = 0L;
+        jitter = 0L;
+        maxInterval = 0L;
+    }
+
+    /**
+     * @return ImageReader通知有新帧的次数
+     */
+    public long getArrived() {
+        return arrived.get();
+    }
+
+    /**
+     * @return 实际取到的帧数
+     */
+    public long getAcquired() {
+        return acquired.get();
+    }
+
+    /**
+     * @return 被acquireLatestImage跳过的旧帧数
+     */
+    public long getDroppedByReader() {
+        return Math.max(0, arrived.get() - acquired.get());
+    }
+
+    /**
+     * @return 因为帧率控制而跳过的帧数
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return 交接队列丢弃的帧数
+     */
+    public long getDroppedByQueue() {
+        return droppedByQueue.get();
+    }
+
+    /**
+     * @return 完成处理的帧数
+     */
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * @return 处理出错的帧数
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return 平均帧间隔, us
+     */
+    public long getMeanIntervalMicros() {
+        return meanInterval / 1000;
+    }
+
+    /**
+     * @return 帧间隔抖动, us
+     */
+    public long getJitterMicros() {
+        return jitter / 1000;
+    }
+
+    /**
+     * @return 最大帧间隔, us
+     */
+    public long getMaxIntervalMicros() {
+        return maxInterval / 1000;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameStats{" +
+                "arrived=" + getArrived() +
+                ", droppedByReader=" + getDroppedByReader() +
+                ", skipped=" + getSkipped() +
+                ", droppedByQueue=" + getDroppedByQueue() +
+                ", processed=" + getProcessed() +
+                ", failed=" + getFailed() +
+                ", meanInterval=" + getMeanIntervalMicros() + "us" +
+                ", jitter=" + getJitterMicros() + "us" +
+                ", maxInterval=" + getMaxIntervalMicros() + "us" +
+                '}';
+    }
+
+}
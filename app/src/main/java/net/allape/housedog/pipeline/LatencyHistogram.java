@@ -0,0 +1,151 @@
+package net.allape.housedog.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定分桶的耗时直方图, 单位为us
+ * 每个2的幂区间再分为8个桶, 相对误差不超过12.5%, 覆盖 0us ~ 2^31us
+ * 记录不分配内存也不加锁, 可以在任意线程记录和读取, 读取到的是近似一致的快照
+ */
+public class LatencyHistogram {
+
+    // 每个2的幂区间的子桶数的位数
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 最大可记录的值, us, 更大的值记入最后一个桶
+    private static final long MAX_VALUE = (1L << 31) - 1;
+    // 桶数
+    static final int BUCKETS = bucketOf(MAX_VALUE) + 1;
+
+    // 阶段名称
+    private final String name;
+    // 每个桶的次数
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    // 总次数
+    private final AtomicLong count = new AtomicLong();
+    // 最大值, us
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param name 阶段名称
+     */
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 记录一次耗时
+     * @param nanos 耗时, ns, 例如两次{@link System#nanoTime()}之差
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(bucketOf(Math.min(micros, MAX_VALUE)));
+        count.incrementAndGet();
+        long current;
+        while (micros > (current = max.get())) {
+            if (max.compareAndSet(current, micros)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 记录从start到现在的耗时
+     * @param start {@link System#nanoTime()}
+     */
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    /**
+     * 百分位数
+     * @param percentile 百分位 (0, 100]
+     * @return 该百分位所在桶的上限, us, 不超过最大值; 没有记录时为0
+     */
+    public long percentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return 阶段名称
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return 记录次数
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return 最大值, us
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * 清空
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return name + "{count=" + getCount() +
+                ", p50=" + percentile(50) +
+                "us, p95=" + percentile(95) +
+                "us, p99=" + percentile(99) +
+                "us, max=" + getMax() + "us}";
+    }
+
+    /**
+     * @param micros 值, us, 不小于0
+     * @return 桶的下标
+     */
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((micros >> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @param bucket 桶的下标
+     * @return 桶能容纳的最大值, us
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+
+}
@@ -0,0 +1,47 @@
+package net.allape.housedog.pipeline;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 所有阶段的耗时直方图, 按注册顺序排列
+ * 各阶段在类加载时用{@link #stage}注册并保存为常量, 记录时不再查找
+ */
+public final class LatencyRegistry {
+
+    private static final List<LatencyHistogram> STAGES = new CopyOnWriteArrayList<>();
+
+    /**
+     * 获取或注册一个阶段
+     * @param name 阶段名称, ASCII, 不超过255个字符
+     * @return 直方图
+     */
+    public static synchronized LatencyHistogram stage(String name) {
+        for (LatencyHistogram stage : STAGES) {
+            if (stage.getName().equals(name)) {
+                return stage;
+            }
+        }
+        LatencyHistogram stage = new LatencyHistogram(name);
+        STAGES.add(stage);
+        return stage;
+    }
+
+    /**
+     * @return 所有阶段的只读视图, 之后注册的阶段也会出现, 需要多次遍历时先复制一份
+     */
+    public static List<LatencyHistogram> stages() {
+        return Collections.unmodifiableList(STAGES);
+    }
+
+    /**
+     * 清空所有阶段的记录
+     */
+    public static void reset() {
+        for (LatencyHistogram stage : STAGES) {
+            stage.reset();
+        }
+    }
+
+}
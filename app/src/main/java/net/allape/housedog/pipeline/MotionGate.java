@@ -0,0 +1,101 @@
+package net.allape.housedog.pipeline;
+
+/**
+ * 按运动控制推流的帧率: 有运动时全帧率, 运动停止一段时间后降到保活帧率, 再次运动时立即恢复
+ * 保活帧让直播保持连接, 也让编码器按GOP的帧数继续产生关键帧
+ * 非线程安全, 只在监测线程中使用
+ */
+public class MotionGate {
+
+    // 保活的单帧时长, ns
+    private final long keepAliveInterval;
+    // 运动停止后保持全帧率的时长, ns
+    private final long hold;
+    // 保活帧的节奏
+    private final FramePacer keepAlive = new FramePacer();
+
+    // 最后一次运动的时间, ns, 小于0表示还没有运动
+    private long lastMotion = -1L;
+    // 是否处于保活帧率
+    private volatile boolean idle = false;
+
+    // 放行的帧数
+    private long accepted = 0L;
+    // 拦下的帧数
+    private long gated = 0L;
+
+    /**
+     * @param keepAliveInterval 保活的单帧时长, ns
+     * @param hold 运动停止后保持全帧率的时长, ns
+     */
+    public MotionGate(long keepAliveInterval, long hold) {
+        this.keepAliveInterval = keepAliveInterval;
+        this.hold = hold;
+    }
+
+    /**
+     * 按GOP推算保活帧率, 使静止时关键帧的间隔不超过上限
+     * @param gopSize GOP的帧数
+     * @param maxKeyFrameInterval 关键帧的最大间隔, ns
+     * @return 保活的单帧时长, ns
+     */
+    public static long keepAliveInterval(int gopSize, long maxKeyFrameInterval) {
+        return maxKeyFrameInterval / Math.max(1, gopSize);
+    }
+
+    /**
+     * 判断这一帧是否需要推流, 在转换/缩放之前调用
+     * @param timestamp 帧的时间戳, ns
+     * @param moved 这一帧是否有运动
+     * @return true/推流, false/跳过
+     */
+    public boolean accept(long timestamp, boolean moved) {
+        if (moved) {
+            lastMotion = timestamp;
+        }
+        boolean active = lastMotion >= 0 && timestamp - lastMotion < hold;
+        idle = !active;
+        if (active) {
+            // 恢复保活时重新对齐
+            keepAlive.reset();
+            accepted++;
+            return true;
+        }
+        if (keepAlive.accept(timestamp, keepAliveInterval)) {
+            accepted++;
+            return true;
+        }
+        gated++;
+        return false;
+    }
+
+    /**
+     * @return 是否处于保活帧率
+     */
+    public boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * @return 放行的帧数
+     */
+    public long getAccepted() {
+        return accepted;
+    }
+
+    /**
+     * @return 拦下的帧数
+     */
+    public long getGated() {
+        return gated;
+    }
+
+    @Override
+    public String toString() {
+        return "MotionGate{idle=" + idle +
+                ", accepted=" + accepted +
+                ", gated=" + gated +
+                '}';
+    }
+
+}
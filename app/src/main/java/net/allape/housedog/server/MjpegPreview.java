@@ -0,0 +1,80 @@
+package net.allape.housedog.server;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.Image;
+
+import net.allape.housedog.util.YuvUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 按低帧率把摄像头的帧压缩为JPEG交给{@link ViewerServer}
+ * 没有预览客户端时不做任何处理
+ * 只在监测线程中使用
+ */
+public class MjpegPreview {
+
+    // 服务
+    private final ViewerServer server;
+    // 缩小倍数
+    private final int factor;
+    // 两帧的最小间隔 ns
+    private final long interval;
+    // JPEG质量
+    private final int quality;
+
+    // 复用的NV21
+    private byte[] nv21;
+    // 复用的输出
+    private final ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+    // 上一帧的时间 ns
+    private long last = 0L;
+
+    /**
+     * @param server 服务
+     * @param factor 缩小倍数
+     * @param frameRate 帧率
+     * @param quality JPEG质量, 0~100
+     */
+    public MjpegPreview(ViewerServer server, int factor, int frameRate, int quality) {
+        this.server = server;
+        this.factor = factor;
+        this.interval = 1_000_000_000L / frameRate;
+        this.quality = quality;
+    }
+
+    /**
+     * 提供一帧, 按帧率和有无客户端决定是否压缩
+     * @param image 摄像头的YUV_420_888帧, 由调用方关闭
+     */
+    public void offer(Image image) {
+        long now = System.nanoTime();
+        if (now - last < interval || !server.hasPreviewClients()) {
+            return;
+        }
+        last = now;
+        // YUV420要求宽高为偶数
+        int width = (image.getWidth() / factor) & ~1;
+        int height = (image.getHeight() / factor) & ~1;
+        int size = YuvUtils.yuv420Size(width, height);
+        if (nv21 == null || nv21.length != size) {
+            nv21 = new byte[size];
+        }
+        Image.Plane[] planes = image.getPlanes();
+        YuvUtils.downscaleToNV21(
+                width * factor, height * factor, factor,
+                planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride(),
+                planes[1].getBuffer(), planes[2].getBuffer(), planes[2].getRowStride(), planes[2].getPixelStride(),
+                ByteBuffer.wrap(nv21)
+        );
+        jpeg.reset();
+        new YuvImage(nv21, ImageFormat.NV21, width, height, null)
+                .compressToJpeg(new Rect(0, 0, width, height), quality, jpeg);
+        // 客户端共享这份字节, 每帧一份新的数组
+        server.publishJpeg(jpeg.toByteArray());
+    }
+
+}
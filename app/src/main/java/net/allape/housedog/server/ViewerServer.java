@@ -0,0 +1,518 @@
+package net.allape.housedog.server;
+
+import net.allape.housedog.stream.FlvTag;
+import net.allape.housedog.stream.TagSink;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 局域网内直接观看的HTTP服务, 单线程NIO
+ * {@link #PATH_FLV}: 已编码的直播流(HTTP-FLV), 由{@link #newFlvSink}接入编码结果
+ * {@link #PATH_MJPEG}: 低帧率的MJPEG预览, 由{@link #publishJpeg}推入
+ * 所有客户端共享同一份tag/JPEG的字节, 每个客户端只持有各自的读取位置
+ * 积压超过上限的直播客户端会被断开, 预览客户端跳过还没发完时的新帧
+ * 监听所有网卡且没有加密, 设置了口令时请求需带上 ?token=口令, 否则同一网络内的任何人都可以观看
+ */
+public class ViewerServer implements Runnable {
+
+    /**
+     * HTTP-FLV的路径
+     */
+    public static final String PATH_FLV = "/live.flv";
+    /**
+     * MJPEG预览的路径
+     */
+    public static final String PATH_MJPEG = "/preview.mjpg";
+
+    /**
+     * 口令的查询参数名
+     */
+    public static final String PARAM_TOKEN = "token";
+
+    private static final String BOUNDARY = "housedogframe";
+    // 请求头的上限
+    private static final int MAX_REQUEST = 8 * 1024;
+    // 关闭时等待线程结束的时间 ms
+    private static final long JOIN_TIMEOUT = 2000L;
+
+    private static final ByteBuffer CRLF = ByteBuffer.wrap(new byte[] { '\r', '\n' }).asReadOnlyBuffer();
+
+    // 端口, 0为随机
+    private final int port;
+    // 单个客户端积压的字节上限
+    private final long maxBacklog;
+    // 访问口令, null/不校验
+    private final byte[] token;
+
+    // 客户端
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    // 实际监听的端口
+    private volatile int boundPort = -1;
+    // 线程
+    private volatile Thread thread;
+    // 是否已要求停止
+    private volatile boolean closed = false;
+
+    // 接受的请求数
+    private final AtomicLong served = new AtomicLong();
+    // 因积压断开的客户端数
+    private final AtomicLong shed = new AtomicLong();
+    // 预览客户端跳过的帧数
+    private final AtomicLong skippedFrames = new AtomicLong();
+
+    /**
+     * @param port 端口, 0为随机, 见{@link #getPort()}
+     * @param maxBacklog 单个直播客户端积压的字节上限, 超过时断开
+     */
+    public ViewerServer(int port, long maxBacklog) {
+        this(port, maxBacklog, null);
+    }
+
+    /**
+     * @param port 端口, 0为随机, 见{@link #getPort()}
+     * @param maxBacklog 单个直播客户端积压的字节上限, 超过时断开
+     * @param token 访问口令, 请求需带上查询参数{@link #PARAM_TOKEN}, 只能使用URL中不需要转义的字符, null/不校验
+     */
+    public ViewerServer(int port, long maxBacklog, String token) {
+        this.port = port;
+        this.maxBacklog = maxBacklog;
+        this.token = token != null ? token.getBytes(StandardCharsets.US_ASCII) : null;
+    }
+
+    /**
+     * 监听端口并启动线程
+     * @throws IOException 监听失败
+     */
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(port));
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        boundPort = serverChannel.socket().getLocalPort();
+        Thread thread = new Thread(this, "viewer.server");
+        this.thread = thread;
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                for (Client client : clients) {
+                    if (client.closing) {
+                        closeClient(client);
+                    } else if (!client.pending.isEmpty() && client.key.isValid()) {
+                        client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    } else if (client.closeAfterWrite) {
+                        closeClient(client);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Client client = (Client) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(client);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(client);
+                        }
+                    } catch (IOException e) {
+                        closeClient(client);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            for (Client client : clients) {
+                closeClient(client);
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException ignored) {
+                // 已关闭
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Client client = new Client(channel);
+        client.key = channel.register(selector, SelectionKey.OP_READ, client);
+        clients.add(client);
+    }
+
+    private void read(Client client) throws IOException {
+        ByteBuffer request = client.request;
+        if (client.type != Client.TYPE_NONE) {
+            // 已开始响应, 只用来发现断开
+            request.clear();
+        }
+        int n = client.channel.read(request);
+        if (n < 0) {
+            closeClient(client);
+            return;
+        }
+        if (client.type != Client.TYPE_NONE) {
+            return;
+        }
+        String head = new String(request.array(), 0, request.position(), StandardCharsets.ISO_8859_1);
+        int end = head.indexOf("\r\n\r\n");
+        if (end < 0) {
+            if (!request.hasRemaining()) {
+                respond(client, "431 Request Header Fields Too Large");
+            }
+            return;
+        }
+        String[] line = head.substring(0, head.indexOf("\r\n")).split(" ");
+        String path = line.length > 1 ? line[1] : "";
+        String query = "";
+        int queryStart = path.indexOf('?');
+        if (queryStart >= 0) {
+            query = path.substring(queryStart + 1);
+            path = path.substring(0, queryStart);
+        }
+        if (!"GET".equals(line[0])) {
+            respond(client, "405 Method Not Allowed");
+        } else if (!authorized(query)) {
+            respond(client, "403 Forbidden");
+        } else if (PATH_FLV.equals(path)) {
+            enqueue(client, ascii("HTTP/1.1 200 OK\r\n" +
+                    "Content-Type: video/x-flv\r\n" +
+                    "Cache-Control: no-cache\r\n" +
+                    "Access-Control-Allow-Origin: *\r\n" +
+                    "Connection: close\r\n\r\n"));
+            client.type = Client.TYPE_FLV;
+        } else if (PATH_MJPEG.equals(path)) {
+            enqueue(client, ascii("HTTP/1.1 200 OK\r\n" +
+                    "Content-Type: multipart/x-mixed-replace; boundary=" + BOUNDARY + "\r\n" +
+                    "Cache-Control: no-cache\r\n" +
+                    "Connection: close\r\n\r\n"));
+            client.type = Client.TYPE_MJPEG;
+        } else {
+            respond(client, "404 Not Found");
+        }
+        client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        // 确定响应类型之后再计数, 其他线程看到计数变化时客户端已可以接收数据
+        served.incrementAndGet();
+    }
+
+    /**
+     * 校验查询参数中的口令
+     * @param query 查询字符串, 不含?
+     * @return true/未设置口令或口令一致
+     */
+    private boolean authorized(String query) {
+        if (token == null) {
+            return true;
+        }
+        String prefix = PARAM_TOKEN + "=";
+        for (String param : query.split("&")) {
+            if (param.startsWith(prefix)) {
+                // 按固定时间比较, 不从耗时泄露口令
+                return MessageDigest.isEqual(token, param.substring(prefix.length()).getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        return false;
+    }
+
+    private void respond(Client client, String status) {
+        client.type = Client.TYPE_CLOSE;
+        client.closeAfterWrite = true;
+        enqueue(client, ascii("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"));
+        client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void write(Client client) throws IOException {
+        Queue<ByteBuffer> pending = client.pending;
+        ByteBuffer head;
+        while ((head = pending.peek()) != null) {
+            int n = client.channel.write(head);
+            client.pendingBytes.addAndGet(-n);
+            if (head.hasRemaining()) {
+                // 发送缓冲已满, 等下次可写
+                return;
+            }
+            pending.poll();
+        }
+        if (client.closeAfterWrite) {
+            closeClient(client);
+        } else {
+            client.key.interestOps(SelectionKey.OP_READ);
+            // 与enqueue竞争, 清除兴趣后可能刚有新数据
+            if (!pending.isEmpty()) {
+                client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    private void enqueue(Client client, ByteBuffer buffer) {
+        client.pending.add(buffer);
+        if (client.pendingBytes.addAndGet(buffer.remaining()) > maxBacklog && client.type == Client.TYPE_FLV) {
+            client.closing = true;
+        }
+    }
+
+    private void closeClient(Client client) {
+        if (!clients.remove(client)) {
+            return;
+        }
+        if (client.closing) {
+            shed.incrementAndGet();
+        }
+        if (client.key != null) {
+            client.key.cancel();
+        }
+        try {
+            client.channel.close();
+        } catch (IOException ignored) {
+            // 已断开
+        }
+    }
+
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private void wakeup() {
+        Selector selector = this.selector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * 交给直播客户端一个tag, 在编码结果的输出线程中调用
+     * 新客户端从下一个关键帧开始, 先收到文件头和解码配置
+     * @param tag tag, 所有客户端共享
+     * @param preamble 当前流的文件头和解码配置
+     */
+    void broadcast(FlvTag tag, List<FlvTag> preamble) {
+        boolean queued = false;
+        for (Client client : clients) {
+            if (client.type != Client.TYPE_FLV || client.closing) {
+                continue;
+            }
+            if (client.awaitingKeyFrame) {
+                if (!tag.isKeyFrame()) {
+                    continue;
+                }
+                for (FlvTag header : preamble) {
+                    enqueue(client, header.getData());
+                }
+                client.awaitingKeyFrame = false;
+            }
+            enqueue(client, tag.getData());
+            queued = true;
+        }
+        if (queued) {
+            wakeup();
+        }
+    }
+
+    /**
+     * 一路新的流开始, 已在观看的客户端无法接续, 断开后由播放器重连
+     */
+    void restartFlv() {
+        for (Client client : clients) {
+            if (client.type == Client.TYPE_FLV && !client.awaitingKeyFrame) {
+                client.type = Client.TYPE_CLOSE;
+                client.closeAfterWrite = true;
+            }
+        }
+        wakeup();
+    }
+
+    /**
+     * 创建接入编码结果的输出, 每次开始编码时创建一个, 交给{@link net.allape.housedog.stream.TagFanout}
+     * @param capacity 队列容量, tag数
+     * @return 输出, 由调用方启动和关闭, 关闭不影响服务
+     */
+    public TagSink newFlvSink(int capacity) {
+        return new TagSink("viewer.flv", capacity) {
+            @Override
+            protected void onStreamStart() {
+                restartFlv();
+            }
+
+            @Override
+            protected void write(FlvTag tag) {
+                broadcast(tag, preamble());
+            }
+        };
+    }
+
+    /**
+     * 推送一帧预览给所有预览客户端, 还没发完上一帧的客户端跳过这一帧
+     * @param jpeg JPEG字节, 之后不要再修改
+     */
+    public void publishJpeg(byte[] jpeg) {
+        ByteBuffer part = null;
+        ByteBuffer body = ByteBuffer.wrap(jpeg).asReadOnlyBuffer();
+        boolean queued = false;
+        for (Client client : clients) {
+            if (client.type != Client.TYPE_MJPEG || client.closing) {
+                continue;
+            }
+            if (client.pendingBytes.get() > 0) {
+                skippedFrames.incrementAndGet();
+                continue;
+            }
+            if (part == null) {
+                part = ascii("--" + BOUNDARY + "\r\n" +
+                        "Content-Type: image/jpeg\r\n" +
+                        "Content-Length: " + jpeg.length + "\r\n\r\n").asReadOnlyBuffer();
+            }
+            enqueue(client, part.duplicate());
+            enqueue(client, body.duplicate());
+            enqueue(client, CRLF.duplicate());
+            queued = true;
+        }
+        if (queued) {
+            wakeup();
+        }
+    }
+
+    /**
+     * @return 是否有预览客户端, 没有时不需要压缩JPEG
+     */
+    public boolean hasPreviewClients() {
+        for (Client client : clients) {
+            if (client.type == Client.TYPE_MJPEG) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 停止服务, 断开所有客户端
+     */
+    public void close() {
+        closed = true;
+        wakeup();
+        Thread thread = this.thread;
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join(JOIN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.thread = null;
+    }
+
+    /**
+     * @return 实际监听的端口, 未启动时为-1
+     */
+    public int getPort() {
+        return boundPort;
+    }
+
+    /**
+     * @return 当前的客户端数
+     */
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * @return 接受的请求数
+     */
+    public long getServed() {
+        return served.get();
+    }
+
+    /**
+     * @return 因积压断开的客户端数
+     */
+    public long getShed() {
+        return shed.get();
+    }
+
+    /**
+     * @return 预览客户端跳过的帧数
+     */
+    public long getSkippedFrames() {
+        return skippedFrames.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ViewerServer{port=" + boundPort +
+                ", clients=" + getClientCount() +
+                ", served=" + getServed() +
+                ", shed=" + getShed() +
+                ", skippedFrames=" + getSkippedFrames() +
+                '}';
+    }
+
+    private static final class Client {
+
+        static final int TYPE_NONE = 0;
+        static final int TYPE_FLV = 1;
+        static final int TYPE_MJPEG = 2;
+        static final int TYPE_CLOSE = 3;
+
+        final SocketChannel channel;
+        // 请求头
+        final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST);
+        // 待发送的数据, 共享的字节各自的读取位置
+        final Queue<ByteBuffer> pending = new ConcurrentLinkedQueue<>();
+        // 待发送的字节数
+        final AtomicLong pendingBytes = new AtomicLong();
+
+        SelectionKey key;
+        // 响应类型
+        volatile int type = TYPE_NONE;
+        // 是否还在等待第一个关键帧, 只在输出线程中使用
+        boolean awaitingKeyFrame = true;
+        // 积压过多, 由服务线程断开
+        volatile boolean closing = false;
+        // 发送完后断开
+        volatile boolean closeAfterWrite = false;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+    }
+
+}
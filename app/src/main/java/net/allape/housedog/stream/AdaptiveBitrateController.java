@@ -0,0 +1,193 @@
+package net.allape.housedog.stream;
+
+/**
+ * 根据编码队列的积压和写入耗时逐级调整码率/分辨率/帧率
+ * 持续拥塞{@link #downHold}后降一级, 持续空闲{@link #upHold}后升一级, 两次调整之间至少间隔{@link #cooldown}
+ * 升级比降级慢, 避免在临界带宽上来回切换
+ * 合流线程调用{@link #update}, 其他线程可以随时读取当前等级
+ */
+public class AdaptiveBitrateController {
+
+    // 写入耗时的平滑系数, 1/8
+    private static final int SMOOTHING_SHIFT = 3;
+
+    // 等级, 0为最高
+    private final Level[] levels;
+    // 持续拥塞多久后降级, ms
+    private final long downHold;
+    // 持续空闲多久后升级, ms
+    private final long upHold;
+    // 两次调整的最小间隔, ms
+    private final long cooldown;
+    // 等级变化的回调, 可为null
+    private final OnLevelChangeListener listener;
+
+    // 当前等级
+    private volatile int index = 0;
+    // 平滑后的写入耗时, us
+    private long smoothedLatency = -1L;
+    // 开始拥塞的时间, ms, 小于0表示没有拥塞
+    private long congestedSince = -1L;
+    // 开始空闲的时间, ms, 小于0表示不空闲
+    private long calmSince = -1L;
+    // 最后一次调整的时间, ms
+    private long lastChange = Long.MIN_VALUE / 2;
+
+    /**
+     * @param levels 等级, 从高到低, 至少一个
+     * @param downHold 持续拥塞多久后降级, ms
+     * @param upHold 持续空闲多久后升级, ms
+     * @param cooldown 两次调整的最小间隔, ms
+     * @param listener 等级变化的回调, 在调用{@link #update}的线程中执行, 可为null
+     */
+    public AdaptiveBitrateController(Level[] levels, long downHold, long upHold, long cooldown, OnLevelChangeListener listener) {
+        if (levels.length == 0) {
+            throw new IllegalArgumentException("at least one level is required");
+        }
+        this.levels = levels.clone();
+        this.downHold = downHold;
+        this.upHold = upHold;
+        this.cooldown = cooldown;
+        this.listener = listener;
+    }
+
+    /**
+     * 默认的等级: 满码率, 六成码率, 四成码率并减半分辨率, 四分之一码率并减半分辨率和帧率
+     * @param maxBitrate 最高码率, bps
+     * @param frameRate 最高帧率
+     * @return 从高到低的等级
+     */
+    public static Level[] defaultLevels(int maxBitrate, int frameRate) {
+        return new Level[] {
+                new Level(maxBitrate, 1, frameRate),
+                new Level(maxBitrate * 3 / 5, 1, frameRate),
+                new Level(maxBitrate * 2 / 5, 2, frameRate),
+                new Level(maxBitrate / 4, 2, Math.max(1, frameRate / 2)),
+        };
+    }
+
+    /**
+     * 每写入一帧后调用
+     * @param queued 编码队列中排队的帧数
+     * @param capacity 编码队列的容量
+     * @param writeLatency 这一帧的编码和写入耗时, us
+     * @param now 当前时间, ms
+     * @return true/等级发生了变化
+     */
+    public boolean update(int queued, int capacity, long writeLatency, long now) {
+        smoothedLatency = smoothedLatency < 0
+                ? writeLatency
+                : smoothedLatency + ((writeLatency - smoothedLatency) >> SMOOTHING_SHIFT);
+        long frameInterval = 1_000_000L / getLevel().frameRate;
+
+        boolean congested = queued * 2 >= capacity || smoothedLatency > frameInterval;
+        boolean calm = queued == 0 && smoothedLatency * 2 < frameInterval;
+        if (congested) {
+            calmSince = -1L;
+            if (congestedSince < 0) {
+                congestedSince = now;
+            }
+            if (index < levels.length - 1 && now - congestedSince >= downHold && now - lastChange >= cooldown) {
+                return change(index + 1, now);
+            }
+        } else if (calm) {
+            congestedSince = -1L;
+            if (calmSince < 0) {
+                calmSince = now;
+            }
+            if (index > 0 && now - calmSince >= upHold && now - lastChange >= cooldown) {
+                return change(index - 1, now);
+            }
+        } else {
+            congestedSince = -1L;
+            calmSince = -1L;
+        }
+        return false;
+    }
+
+    private boolean change(int index, long now) {
+        this.index = index;
+        lastChange = now;
+        congestedSince = -1L;
+        calmSince = -1L;
+        // 切换后编码器重新开始, 旧的耗时不再有参考价值
+        smoothedLatency = -1L;
+        if (listener != null) {
+            listener.onLevelChange(levels[index], index);
+        }
+        return true;
+    }
+
+    /**
+     * @return 当前等级
+     */
+    public Level getLevel() {
+        return levels[index];
+    }
+
+    /**
+     * @return 当前等级的下标, 0为最高
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public static class Level {
+        // 峰值码率, bps
+        final int bitrate;
+        // 在配置的分辨率上再缩小的倍数
+        final int scale;
+        // 帧率
+        final int frameRate;
+
+        /**
+         * @param bitrate 峰值码率, bps
+         * @param scale 在配置的分辨率上再缩小的倍数
+         * @param frameRate 帧率
+         */
+        public Level(int bitrate, int scale, int frameRate) {
+            if (bitrate <= 0 || scale < 1 || frameRate < 1) {
+                throw new IllegalArgumentException("invalid level: " + bitrate + "/" + scale + "/" + frameRate);
+            }
+            this.bitrate = bitrate;
+            this.scale = scale;
+            this.frameRate = frameRate;
+        }
+
+        /**
+         * @return 峰值码率, bps
+         */
+        public int getBitrate() {
+            return bitrate;
+        }
+
+        /**
+         * @return 在配置的分辨率上再缩小的倍数
+         */
+        public int getScale() {
+            return scale;
+        }
+
+        /**
+         * @return 帧率
+         */
+        public int getFrameRate() {
+            return frameRate;
+        }
+
+        @Override
+        public String toString() {
+            return "Level{bitrate=" + bitrate + ", scale=" + scale + ", frameRate=" + frameRate + '}';
+        }
+    }
+
+    public interface OnLevelChangeListener {
+        /**
+         * 等级发生变化
+         * @param level 新的等级
+         * @param index 新的等级下标, 0为最高
+         */
+        void onLevelChange(Level level, int index);
+    }
+
+}
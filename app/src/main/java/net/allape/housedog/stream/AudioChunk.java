@@ -0,0 +1,50 @@
+package net.allape.housedog.stream;
+
+/**
+ * 可复用的一段单声道16位PCM采样
+ */
+public class AudioChunk {
+
+    // 采样, 容量固定
+    final short[] samples;
+    // 有效的采样数
+    int length;
+    // 第一个采样的时间戳, us, 由{@link StreamMuxer#now()}给出
+    long timestamp;
+
+    /**
+     * @param capacity 容量, 采样数
+     */
+    public AudioChunk(int capacity) {
+        this.samples = new short[capacity];
+    }
+
+    /**
+     * @return 采样, 录音时直接写入
+     */
+    public short[] getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return 有效的采样数
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @param length 有效的采样数
+     */
+    public void setLength(int length) {
+        this.length = length;
+    }
+
+    /**
+     * @return 第一个采样的时间戳, us
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+}
@@ -0,0 +1,74 @@
+package net.allape.housedog.stream;
+
+import java.util.ArrayDeque;
+
+/**
+ * 固定容量的{@link AudioChunk}池
+ * 录音线程获取, 合流线程归还, 所以是线程安全的
+ */
+public class AudioChunkPool {
+
+    // 每段的容量, 采样数
+    private final int chunkCapacity;
+    // 空闲的
+    private final ArrayDeque<AudioChunk> free = new ArrayDeque<>();
+
+    // 命中次数
+    private long hits = 0L;
+    // 未命中次数
+    private long misses = 0L;
+
+    /**
+     * @param chunkCapacity 每段的容量, 采样数
+     */
+    public AudioChunkPool(int chunkCapacity) {
+        this.chunkCapacity = chunkCapacity;
+    }
+
+    /**
+     * 获取一段, 池中没有时新建
+     * @return 长度为0的一段
+     */
+    public synchronized AudioChunk acquire() {
+        AudioChunk chunk = free.pollLast();
+        if (chunk != null) {
+            hits++;
+        } else {
+            misses++;
+            chunk = new AudioChunk(chunkCapacity);
+        }
+        chunk.length = 0;
+        return chunk;
+    }
+
+    /**
+     * 归还一段
+     * @param chunk 由{@link #acquire}获取的一段, 可为null
+     */
+    public synchronized void release(AudioChunk chunk) {
+        if (chunk == null || chunk.samples.length != chunkCapacity) {
+            return;
+        }
+        free.addLast(chunk);
+    }
+
+    /**
+     * 丢弃池中所有空闲的
+     */
+    public synchronized void clear() {
+        free.clear();
+    }
+
+    /**
+     * @return 每段的容量, 采样数
+     */
+    public int getChunkCapacity() {
+        return chunkCapacity;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AudioChunkPool{hits=" + hits + ", misses=" + misses + "}";
+    }
+
+}
@@ -0,0 +1,75 @@
+package net.allape.housedog.stream;
+
+/**
+ * 以采样数计的音频时钟, 与视频共用{@link StreamMuxer#now()}的时间轴
+ * 录制器按写入的采样数推算音频时间, 麦克风的时钟和系统时钟有偏差, 录音也可能中断
+ * 这里比较每段的时间戳和已写入的采样数: 落后时补静音, 超前时丢弃该段, 避免音画逐渐不同步
+ */
+public class AudioClock {
+
+    // 采样率
+    private final int sampleRate;
+    // 允许的偏差, 采样数
+    private final long toleranceSamples;
+    // 一次最多补的静音, 采样数
+    private final long maxPaddingSamples;
+
+    // 已写入的采样数
+    private long written = 0L;
+
+    /**
+     * @param sampleRate 采样率
+     * @param toleranceUs 允许的偏差, us
+     * @param maxPaddingUs 一次最多补的静音, us
+     */
+    public AudioClock(int sampleRate, long toleranceUs, long maxPaddingUs) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("sample rate must be positive: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+        this.toleranceSamples = toSamples(toleranceUs);
+        this.maxPaddingSamples = toSamples(maxPaddingUs);
+    }
+
+    /**
+     * 写入一段之前调用
+     * @param timestamp 该段第一个采样的时间戳, us
+     * @return 大于0: 需要先补的静音采样数; 0: 直接写入; -1: 超前, 丢弃该段
+     */
+    public long correction(long timestamp) {
+        long drift = toSamples(timestamp) - written;
+        if (drift > toleranceSamples) {
+            return Math.min(drift, maxPaddingSamples);
+        } else if (-drift > toleranceSamples) {
+            return -1;
+        }
+        return 0;
+    }
+
+    /**
+     * 记录已写入的采样, 包括静音
+     * @param samples 采样数
+     */
+    public void advance(long samples) {
+        written += samples;
+    }
+
+    /**
+     * @return 已写入的采样数
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return 已写入的采样对应的时间, us
+     */
+    public long getTime() {
+        return written * 1_000_000L / sampleRate;
+    }
+
+    private long toSamples(long us) {
+        return us * sampleRate / 1_000_000L;
+    }
+
+}
@@ -0,0 +1,88 @@
+package net.allape.housedog.stream;
+
+import org.bytedeco.ffmpeg.avformat.AVIOContext;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.global.avformat;
+import org.bytedeco.ffmpeg.global.avutil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 通过FFmpeg的avio直接写出字节, 例如把已封装好的FLV写到rtmp://
+ * 不经过录制器, 所以断线重连不需要重新编码
+ */
+public class AvioOutput extends OutputStream {
+
+    // 是否已初始化网络
+    private static boolean networkInitialized = false;
+
+    // avio上下文
+    private AVIOContext context;
+
+    /**
+     * @param url 地址
+     * @param timeout 连接/读写的超时, µs
+     * @throws IOException 打开失败
+     */
+    public AvioOutput(String url, long timeout) throws IOException {
+        initNetwork();
+        AVDictionary options = new AVDictionary(null);
+        avutil.av_dict_set(options, "rw_timeout", String.valueOf(timeout), 0);
+        AVIOContext context = new AVIOContext(null);
+        int ret = avformat.avio_open2(context, url, avformat.AVIO_FLAG_WRITE, null, options);
+        avutil.av_dict_free(options);
+        if (ret < 0) {
+            throw new IOException("avio_open2 failed: " + ret + ", " + url);
+        }
+        this.context = context;
+    }
+
+    private static synchronized void initNetwork() {
+        if (!networkInitialized) {
+            avformat.avformat_network_init();
+            networkInitialized = true;
+        }
+    }
+
+    /**
+     * @param url 地址
+     * @param timeout 连接/读写的超时, µs
+     * @return 每次打开一个新连接的工厂
+     */
+    public static OutputFactory factory(String url, long timeout) {
+        return () -> new AvioOutput(url, timeout);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (context == null) {
+            throw new IOException("avio closed");
+        }
+        if (off == 0) {
+            avformat.avio_write(context, b, len);
+        } else {
+            byte[] copy = new byte[len];
+            System.arraycopy(b, off, copy, 0, len);
+            avformat.avio_write(context, copy, len);
+        }
+        avformat.avio_flush(context);
+        if (context.error() < 0) {
+            throw new IOException("avio_write failed: " + context.error());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (context != null) {
+            avformat.avio_closep(context);
+            context = null;
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+package net.allape.housedog.stream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 连接恢复后补传{@link SpoolStore}中暂存的段, 从最旧的开始
+ * 每段都是独立的FLV, 原样写到补传地址, 按字节限速以免挤占直播的带宽
+ * 直播断开时立即中止, 当前段保留到下次
+ */
+public class BackfillUploader implements Runnable {
+
+    // 每次读取的字节数
+    private static final int CHUNK = 16 * 1024;
+    // 无事可做时的等待, ms
+    private static final long IDLE_WAIT = 500L;
+
+    // 打开补传的连接
+    private final OutputFactory factory;
+    // 暂存
+    private final SpoolStore spool;
+    // 直播
+    private final UplinkSink uplink;
+    // 限速, 字节/秒
+    private final long bytesPerSecond;
+    // 失败退避
+    private final Backoff backoff;
+
+    // 线程
+    private volatile Thread thread;
+    // 是否已要求停止
+    private volatile boolean closed = false;
+
+    // 补传完成的段数
+    private volatile long uploaded = 0L;
+    // 补传的字节数
+    private volatile long uploadedBytes = 0L;
+    // 失败的次数
+    private volatile long failed = 0L;
+
+    /**
+     * @param factory 打开补传的连接
+     * @param spool 暂存
+     * @param uplink 直播, 只在其连接时补传
+     * @param bytesPerSecond 限速, 字节/秒
+     * @param backoff 失败退避
+     */
+    public BackfillUploader(OutputFactory factory, SpoolStore spool, UplinkSink uplink, long bytesPerSecond, Backoff backoff) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("invalid rate: " + bytesPerSecond);
+        }
+        this.factory = factory;
+        this.spool = spool;
+        this.uplink = uplink;
+        this.bytesPerSecond = bytesPerSecond;
+        this.backoff = backoff;
+    }
+
+    /**
+     * 启动线程
+     */
+    public void start() {
+        Thread thread = new Thread(this, "rtmp.backfill");
+        this.thread = thread;
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                File file = uplink.isConnected() ? spool.oldest() : null;
+                if (file == null) {
+                    Thread.sleep(IDLE_WAIT);
+                    continue;
+                }
+                try {
+                    if (upload(file)) {
+                        spool.remove(file);
+                        uploaded++;
+                        backoff.reset();
+                    }
+                } catch (IOException e) {
+                    failed++;
+                    Thread.sleep(backoff.nextDelay());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 限速写出一段
+     * @param file 段
+     * @return false/被中止
+     * @throws IOException 读写失败
+     * @throws InterruptedException 被中断
+     */
+    private boolean upload(File file) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        long sent = 0L;
+        byte[] buffer = new byte[CHUNK];
+        try (InputStream in = new FileInputStream(file); OutputStream out = factory.open()) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                if (closed || !uplink.isConnected()) {
+                    return false;
+                }
+                out.write(buffer, 0, n);
+                sent += n;
+                uploadedBytes += n;
+                long ahead = sent * 1000L / bytesPerSecond - (System.currentTimeMillis() - start);
+                if (ahead > 0) {
+                    Thread.sleep(ahead);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 停止线程, 正在补传的段保留到下次
+     * @param timeout 等待线程结束的时间, ms
+     */
+    public void close(long timeout) {
+        closed = true;
+        Thread thread = this.thread;
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        try {
+            thread.join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.thread = null;
+    }
+
+    /**
+     * @return 补传完成的段数
+     */
+    public long getUploaded() {
+        return uploaded;
+    }
+
+    /**
+     * @return 补传的字节数
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    /**
+     * @return 失败的次数
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return "BackfillUploader{uploaded=" + uploaded +
+                ", bytes=" + uploadedBytes +
+                ", failed=" + failed +
+                '}';
+    }
+
+}
@@ -0,0 +1,72 @@
+package net.allape.housedog.stream;
+
+/**
+ * 指数退避, 每次失败后的等待时间翻倍, 直到上限
+ * 带 ±1/4 的抖动, 避免多个连接同时重试
+ * 非线程安全
+ */
+public class Backoff {
+
+    // 第一次失败后的等待时间, ms
+    private final long initialDelay;
+    // 等待时间的上限, ms
+    private final long maxDelay;
+
+    // 连续失败的次数
+    private int attempts = 0;
+    // 抖动的种子
+    private long seed = System.nanoTime();
+
+    /**
+     * @param initialDelay 第一次失败后的等待时间, ms
+     * @param maxDelay 等待时间的上限, ms
+     */
+    public Backoff(long initialDelay, long maxDelay) {
+        if (initialDelay <= 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("invalid backoff: " + initialDelay + "/" + maxDelay);
+        }
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * 记录一次失败
+     * @return 下次重试前的等待时间, ms
+     */
+    public long nextDelay() {
+        long delay = baseDelay(attempts);
+        attempts++;
+        // xorshift
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        long jitter = delay / 4;
+        return jitter == 0 ? delay : delay - jitter + Math.floorMod(seed, 2 * jitter + 1);
+    }
+
+    /**
+     * 成功后重置
+     */
+    public void reset() {
+        attempts = 0;
+    }
+
+    /**
+     * @return 连续失败的次数
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @param attempts 已失败的次数
+     * @return 不含抖动的等待时间, ms
+     */
+    long baseDelay(int attempts) {
+        if (attempts >= 62 || initialDelay > maxDelay >> attempts) {
+            return maxDelay;
+        }
+        return initialDelay << attempts;
+    }
+
+}
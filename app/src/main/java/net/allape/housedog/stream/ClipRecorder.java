@@ -0,0 +1,229 @@
+package net.allape.housedog.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 运动触发的片段录制
+ * 平时在内存中按GOP缓存最近一段时间的tag, 有运动时写出缓存并继续录制, 运动停止一段时间后结束片段
+ * 片段从关键帧开始, 包含触发前的画面, 不需要一直写盘
+ */
+public class ClipRecorder extends TagSink {
+
+    // 片段目录
+    private final ClipStore store;
+    // 打开片段的输出
+    private final ClipOutputFactory factory;
+    // 触发前缓存的时长, ms
+    private final long preEvent;
+    // 运动停止后继续录制的时长, ms
+    private final long tail;
+    // 缓存的字节上限
+    private final long maxBufferBytes;
+
+    // 缓存, 每个元素是从关键帧开始的一组tag, 只在输出线程中访问
+    private final ArrayDeque<List<FlvTag>> gops = new ArrayDeque<>();
+    // 缓存的字节数
+    private long bufferedBytes = 0L;
+
+    // 最后一次运动的时间, ms
+    private volatile long lastMotion = 0L;
+    // 当前片段的输出
+    private OutputStream output;
+    // 当前片段的文件
+    private volatile File clip;
+
+    // 完成的片段数
+    private volatile long clips = 0L;
+
+    /**
+     * @param capacity 队列容量, tag数
+     * @param store 片段目录
+     * @param factory 打开片段的输出
+     * @param preEvent 触发前缓存的时长, ms, 按GOP对齐, 实际会多出不到一个GOP
+     * @param tail 运动停止后继续录制的时长, ms
+     * @param maxBufferBytes 缓存的字节上限, 超过时丢弃最旧的GOP
+     */
+    public ClipRecorder(int capacity, ClipStore store, ClipOutputFactory factory,
+                        long preEvent, long tail, long maxBufferBytes) {
+        super("clip.recorder", capacity);
+        this.store = store;
+        this.factory = factory;
+        this.preEvent = preEvent;
+        this.tail = tail;
+        this.maxBufferBytes = maxBufferBytes;
+    }
+
+    /**
+     * 检测到运动, 可在任意线程调用
+     */
+    public void onMotion() {
+        lastMotion = System.currentTimeMillis();
+    }
+
+    @Override
+    protected void onStreamStart() {
+        // 编码参数可能已变化, 旧的缓存和片段不能与新的流拼接
+        finishClip();
+        gops.clear();
+        bufferedBytes = 0L;
+    }
+
+    @Override
+    protected void write(FlvTag tag) throws IOException {
+        if (tag.isSequenceHeader()) {
+            // 已包含在preamble中
+            return;
+        }
+        if (output != null && tag.isKeyFrame() && !isTriggered()) {
+            // 在关键帧处结束, 这个关键帧作为下一次的缓存开头
+            finishClip();
+        }
+        if (output == null) {
+            buffer(tag);
+            if (isTriggered()) {
+                startClip();
+            }
+            return;
+        }
+        try {
+            tag.writeTo(output);
+        } catch (IOException e) {
+            finishClip();
+            // 等下一次运动再重试
+            lastMotion = 0L;
+            throw e;
+        }
+    }
+
+    @Override
+    protected void onIdle() {
+        if (output != null && !isTriggered()) {
+            finishClip();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        finishClip();
+    }
+
+    private boolean isTriggered() {
+        long motion = lastMotion;
+        return motion != 0L && System.currentTimeMillis() - motion <= tail;
+    }
+
+    private void buffer(FlvTag tag) {
+        if (tag.isKeyFrame()) {
+            gops.addLast(new ArrayList<>());
+        } else if (gops.isEmpty()) {
+            // 第一个关键帧之前的音频
+            return;
+        }
+        gops.getLast().add(tag);
+        bufferedBytes += tag.getSize();
+        // 下一个GOP已能覆盖缓存时长时丢弃最旧的
+        while (gops.size() > 1) {
+            Iterator<List<FlvTag>> iterator = gops.iterator();
+            iterator.next();
+            List<FlvTag> second = iterator.next();
+            boolean covered = tag.timestamp - second.get(0).timestamp >= preEvent;
+            if (!covered && bufferedBytes <= maxBufferBytes) {
+                break;
+            }
+            for (FlvTag dropped : gops.removeFirst()) {
+                bufferedBytes -= dropped.getSize();
+            }
+        }
+    }
+
+    private void startClip() throws IOException {
+        if (gops.isEmpty()) {
+            return;
+        }
+        File file = store.create(System.currentTimeMillis());
+        store.begin(file);
+        try {
+            output = factory.open(file, () -> store.finish(file, System.currentTimeMillis()));
+        } catch (IOException e) {
+            store.finish(file, System.currentTimeMillis());
+            throw e;
+        }
+        clip = file;
+        try {
+            for (FlvTag header : preamble()) {
+                header.writeTo(output);
+            }
+            for (List<FlvTag> gop : gops) {
+                for (FlvTag tag : gop) {
+                    tag.writeTo(output);
+                }
+            }
+        } catch (IOException e) {
+            finishClip();
+            lastMotion = 0L;
+            throw e;
+        } finally {
+            gops.clear();
+            bufferedBytes = 0L;
+        }
+    }
+
+    private void finishClip() {
+        if (output == null) {
+            return;
+        }
+        try {
+            output.close();
+        } catch (IOException e) {
+            onError(e);
+        }
+        output = null;
+        clip = null;
+        clips++;
+    }
+
+    /**
+     * @return 是否正在录制片段
+     */
+    public boolean isRecording() {
+        return clip != null;
+    }
+
+    /**
+     * @return 正在录制的片段, 没有时为null
+     */
+    public File getClip() {
+        return clip;
+    }
+
+    /**
+     * @return 完成的片段数
+     */
+    public long getClips() {
+        return clips;
+    }
+
+    /**
+     * @return 片段目录
+     */
+    public ClipStore getStore() {
+        return store;
+    }
+
+    public interface ClipOutputFactory {
+        /**
+         * @param clip 片段的文件
+         * @param finished 片段完全写完后调用一次, 之后才执行保留策略, 可能晚于输出关闭, 可在任意线程调用
+         * @return 输出, 关闭时片段结束
+         * @throws IOException 打开失败, 此时不调用finished
+         */
+        OutputStream open(File clip, Runnable finished) throws IOException;
+    }
+
+}
@@ -0,0 +1,139 @@
+package net.allape.housedog.stream;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 运动片段的目录, 按总大小和保留时长删除最旧的片段
+ * 文件名由时间生成, 按文件名排序即按时间排序
+ */
+public class ClipStore {
+
+    private static final String PREFIX = "clip_";
+
+    // 目录
+    private final File dir;
+    // 文件后缀, 例如.mp4
+    private final String suffix;
+    // 所有片段的总大小上限
+    private final long maxBytes;
+    // 片段的保留时长, ms
+    private final long maxAge;
+
+    // 正在写入的片段, 不参与删除
+    private final Set<File> writing = new HashSet<>();
+    // 已删除的片段数
+    private long deleted = 0L;
+
+    /**
+     * @param dir 目录, 不存在时创建
+     * @param suffix 文件后缀, 例如.mp4
+     * @param maxBytes 所有片段的总大小上限
+     * @param maxAge 片段的保留时长, ms
+     */
+    public ClipStore(File dir, String suffix, long maxBytes, long maxAge) {
+        if (maxBytes <= 0 || maxAge <= 0) {
+            throw new IllegalArgumentException("invalid retention: " + maxBytes + "/" + maxAge);
+        }
+        this.dir = dir;
+        this.suffix = suffix;
+        this.maxBytes = maxBytes;
+        this.maxAge = maxAge;
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+    }
+
+    /**
+     * 新片段的文件
+     * @param time 开始时间, ms
+     * @return 文件, 尚未创建
+     */
+    public File create(long time) {
+        String name = PREFIX + new SimpleDateFormat("yyyyMMdd_HHmmss_SSS", Locale.ROOT).format(new Date(time));
+        File file = new File(dir, name + suffix);
+        for (int i = 1; file.exists(); i++) {
+            file = new File(dir, name + "_" + i + suffix);
+        }
+        return file;
+    }
+
+    /**
+     * 片段开始写入, 在{@link #finish}之前不会被删除
+     * @param clip 由{@link #create}得到的文件
+     */
+    public synchronized void begin(File clip) {
+        writing.add(clip);
+    }
+
+    /**
+     * 片段已完全写完, 之后执行一次保留策略
+     * @param clip 片段的文件
+     * @param now 当前时间, ms
+     * @return 删除的片段数
+     */
+    public synchronized int finish(File clip, long now) {
+        writing.remove(clip);
+        return enforce(now);
+    }
+
+    /**
+     * @return 所有片段, 从旧到新
+     */
+    public File[] list() {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(PREFIX) && name.endsWith(suffix));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * 删除超过保留时长的片段, 以及超过总大小时最旧的片段, 正在写入的片段跳过
+     * @param now 当前时间, ms
+     * @return 删除的片段数
+     */
+    public synchronized int enforce(long now) {
+        File[] files = list();
+        long total = 0L;
+        for (File file : files) {
+            total += file.length();
+        }
+        int count = 0;
+        // 保留最新的一个, 即使它本身超过上限
+        for (int i = 0; i < files.length - 1; i++) {
+            File file = files[i];
+            if (total <= maxBytes && now - file.lastModified() <= maxAge) {
+                break;
+            }
+            if (writing.contains(file)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                count++;
+            }
+        }
+        deleted += count;
+        return count;
+    }
+
+    /**
+     * @return 已删除的片段数
+     */
+    public synchronized long getDeleted() {
+        return deleted;
+    }
+
+    @Override
+    public String toString() {
+        return "ClipStore{" + dir + ", deleted=" + getDeleted() + '}';
+    }
+
+}
@@ -0,0 +1,128 @@
+package net.allape.housedog.stream;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 命名的x264编码参数
+ * 手机上行带宽小且不稳定, 默认参数太慢且码率波动大, 这里固定使用低延迟调优, 用CRF控制画质并用VBV限制峰值码率
+ */
+public class EncoderProfile {
+
+    /**
+     * 最省CPU和带宽, 适合蜂窝网络
+     */
+    public static final EncoderProfile LOW_LATENCY = new EncoderProfile(
+            "low-latency", "ultrafast", "zerolatency", 2, 30, 600_000, 2);
+
+    /**
+     * 默认
+     */
+    public static final EncoderProfile BALANCED = new EncoderProfile(
+            "balanced", "superfast", "zerolatency", 2, 26, 1_200_000, 2);
+
+    /**
+     * 画质优先, 适合Wi-Fi
+     */
+    public static final EncoderProfile QUALITY = new EncoderProfile(
+            "quality", "veryfast", "zerolatency", 4, 23, 2_500_000, 4);
+
+    // 名称
+    private final String name;
+    // x264 preset
+    private final String preset;
+    // x264 tune
+    private final String tune;
+    // 关键帧间隔, 秒
+    private final int gopSeconds;
+    // 恒定质量因子, 越大画质越差
+    private final int crf;
+    // 峰值码率上限, bps
+    private final int maxBitrate;
+    // 编码线程数
+    private final int threads;
+
+    /**
+     * @param name 名称
+     * @param preset x264 preset, 例如ultrafast
+     * @param tune x264 tune, 例如zerolatency
+     * @param gopSeconds 关键帧间隔, 秒
+     * @param crf 恒定质量因子 [0, 51]
+     * @param maxBitrate 峰值码率上限, bps
+     * @param threads 编码线程数
+     */
+    public EncoderProfile(String name, String preset, String tune, int gopSeconds, int crf, int maxBitrate, int threads) {
+        if (gopSeconds < 1 || maxBitrate <= 0 || threads < 1 || crf < 0 || crf > 51) {
+            throw new IllegalArgumentException("invalid encoder profile: " + name);
+        }
+        this.name = name;
+        this.preset = preset;
+        this.tune = tune;
+        this.gopSeconds = gopSeconds;
+        this.crf = crf;
+        this.maxBitrate = maxBitrate;
+        this.threads = threads;
+    }
+
+    /**
+     * 按名称查找内置的参数
+     * @param name 名称
+     * @return 参数, 没有时为{@link #BALANCED}
+     */
+    public static EncoderProfile forName(String name) {
+        for (EncoderProfile profile : new EncoderProfile[] { LOW_LATENCY, BALANCED, QUALITY }) {
+            if (profile.name.equals(name)) {
+                return profile;
+            }
+        }
+        return BALANCED;
+    }
+
+    /**
+     * @param frameRate 帧率
+     * @return 关键帧间隔, 帧数
+     */
+    public int gopSize(int frameRate) {
+        return Math.max(1, gopSeconds * frameRate);
+    }
+
+    /**
+     * 交给录制器的编码选项
+     * @param bitrate 峰值码率, bps, 不超过{@link #getMaxBitrate()}
+     * @return x264的选项, 按设置的顺序
+     */
+    public Map<String, String> videoOptions(int bitrate) {
+        int maxrate = Math.min(bitrate, maxBitrate);
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("preset", preset);
+        options.put("tune", tune);
+        options.put("crf", String.valueOf(crf));
+        options.put("maxrate", String.valueOf(maxrate));
+        // 半秒的缓冲, 限制突发
+        options.put("bufsize", String.valueOf(maxrate / 2));
+        options.put("threads", String.valueOf(threads));
+        return options;
+    }
+
+    /**
+     * @return 名称
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return 峰值码率上限, bps
+     */
+    public int getMaxBitrate() {
+        return maxBitrate;
+    }
+
+    @Override
+    public String toString() {
+        return "EncoderProfile{" + name + ", preset=" + preset + ", tune=" + tune +
+                ", gop=" + gopSeconds + "s, crf=" + crf + ", maxBitrate=" + maxBitrate +
+                ", threads=" + threads + '}';
+    }
+
+}
@@ -0,0 +1,186 @@
+package net.allape.housedog.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 一个完整的FLV tag, 包括11字节的tag头, 数据, 以及之后4字节的PreviousTagSize
+ * 按顺序写出 文件头 + 各个tag 即为合法的FLV流
+ * 内容不可变, 多个输出可以共享同一个实例而不需要复制
+ */
+public final class FlvTag {
+
+    /**
+     * 文件头, 不是真正的tag, 表示一路新的流开始
+     */
+    public static final int TYPE_HEADER = -1;
+    /**
+     * 音频
+     */
+    public static final int TYPE_AUDIO = 8;
+    /**
+     * 视频
+     */
+    public static final int TYPE_VIDEO = 9;
+    /**
+     * 脚本, 例如onMetaData
+     */
+    public static final int TYPE_SCRIPT = 18;
+
+    // 文件头加PreviousTagSize0的长度
+    public static final int HEADER_SIZE = 13;
+    // tag头的长度
+    public static final int TAG_HEADER_SIZE = 11;
+
+    // 类型
+    final int type;
+    // 时间戳, ms
+    final int timestamp;
+    // 完整的字节
+    final byte[] bytes;
+    // 是否是视频关键帧, 不包括解码配置
+    final boolean keyFrame;
+    // 是否是解码配置 (AVC/AAC sequence header) 或元数据
+    final boolean sequenceHeader;
+
+    FlvTag(int type, int timestamp, byte[] bytes) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.bytes = bytes;
+        if (type == TYPE_VIDEO && bytes.length > TAG_HEADER_SIZE + 1) {
+            int flags = bytes[TAG_HEADER_SIZE] & 0xFF;
+            // AVC的AVCPacketType为0时是AVCDecoderConfigurationRecord, 其帧类型也是1, 但不算关键帧
+            this.sequenceHeader = (flags & 0x0F) == 7 && bytes[TAG_HEADER_SIZE + 1] == 0;
+            this.keyFrame = (flags >> 4) == 1 && !sequenceHeader;
+        } else if (type == TYPE_AUDIO && bytes.length > TAG_HEADER_SIZE + 1) {
+            this.keyFrame = false;
+            // AAC的AACPacketType为0时是AudioSpecificConfig
+            this.sequenceHeader = ((bytes[TAG_HEADER_SIZE] & 0xFF) >> 4) == 10 && bytes[TAG_HEADER_SIZE + 1] == 0;
+        } else {
+            this.keyFrame = false;
+            this.sequenceHeader = type == TYPE_SCRIPT;
+        }
+    }
+
+    /**
+     * 构造文件头
+     * @param audio 是否有音频
+     * @param video 是否有视频
+     * @return 文件头
+     */
+    public static FlvTag header(boolean audio, boolean video) {
+        byte flags = (byte) ((audio ? 0x04 : 0) | (video ? 0x01 : 0));
+        return new FlvTag(TYPE_HEADER, 0, new byte[] { 'F', 'L', 'V', 1, flags, 0, 0, 0, 9, 0, 0, 0, 0 });
+    }
+
+    /**
+     * 构造一个tag
+     * @param type 类型
+     * @param timestamp 时间戳, ms
+     * @param body 数据
+     * @return tag, 复制了数据
+     */
+    public static FlvTag of(int type, int timestamp, byte[] body) {
+        int size = body.length;
+        byte[] bytes = new byte[TAG_HEADER_SIZE + size + 4];
+        bytes[0] = (byte) type;
+        bytes[1] = (byte) (size >> 16);
+        bytes[2] = (byte) (size >> 8);
+        bytes[3] = (byte) size;
+        bytes[4] = (byte) (timestamp >> 16);
+        bytes[5] = (byte) (timestamp >> 8);
+        bytes[6] = (byte) timestamp;
+        bytes[7] = (byte) (timestamp >> 24);
+        System.arraycopy(body, 0, bytes, TAG_HEADER_SIZE, size);
+        int previous = TAG_HEADER_SIZE + size;
+        bytes[previous] = (byte) (previous >> 24);
+        bytes[previous + 1] = (byte) (previous >> 16);
+        bytes[previous + 2] = (byte) (previous >> 8);
+        bytes[previous + 3] = (byte) previous;
+        return new FlvTag(type, timestamp, bytes);
+    }
+
+    /**
+     * 写出完整的字节
+     * @param out 输出
+     * @throws IOException 写入失败
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @return 类型, {@link #TYPE_HEADER}/{@link #TYPE_AUDIO}/{@link #TYPE_VIDEO}/{@link #TYPE_SCRIPT}
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return 时间戳, ms
+     */
+    public int getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return 完整字节的只读视图, 共享内存
+     */
+    public ByteBuffer getData() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return 完整的字节数
+     */
+    public int getSize() {
+        return bytes.length;
+    }
+
+    /**
+     * @return 是否是文件头
+     */
+    public boolean isHeader() {
+        return type == TYPE_HEADER;
+    }
+
+    /**
+     * @return 是否是视频
+     */
+    public boolean isVideo() {
+        return type == TYPE_VIDEO;
+    }
+
+    /**
+     * @return 是否是视频关键帧, 不包括解码配置
+     */
+    public boolean isKeyFrame() {
+        return keyFrame;
+    }
+
+    /**
+     * @return 是否是解码配置或元数据, 中途加入的输出需要先写入这些
+     */
+    public boolean isSequenceHeader() {
+        return sequenceHeader;
+    }
+
+    /**
+     * @return 队列满时是否需要保留: 文件头, 解码配置, 视频关键帧
+     */
+    public boolean isEssential() {
+        return type == TYPE_HEADER || sequenceHeader || keyFrame;
+    }
+
+    @Override
+    public String toString() {
+        return "FlvTag{type=" + type +
+                ", timestamp=" + timestamp +
+                ", size=" + bytes.length +
+                (keyFrame ? ", key" : "") +
+                (sequenceHeader ? ", sequenceHeader" : "") +
+                '}';
+    }
+
+}
@@ -0,0 +1,121 @@
+package net.allape.housedog.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 把写入的FLV字节流切分为{@link FlvTag}
+ * 作为录制器的输出, 编码一次后交给多个输出, 写入可以在任意位置分段
+ * 第一个交出的是{@link FlvTag#TYPE_HEADER}, 之后是各个tag
+ * 非线程安全, 只在写入的线程中使用
+ */
+public class FlvTagParser extends OutputStream {
+
+    // 单个tag的上限, 超过时认为流已损坏
+    private static final int MAX_TAG_SIZE = 16 * 1024 * 1024;
+
+    // 交出tag的回调
+    private final OnTagListener listener;
+
+    // 正在拼接的字节, 文件头或tag头阶段时为固定长度的头
+    private byte[] pending = new byte[FlvTag.HEADER_SIZE];
+    // 已拼接的字节数
+    private int filled = 0;
+    // 是否已读完文件头
+    private boolean headerDone = false;
+    // 是否已读完当前tag的头, 此时pending为完整tag的长度
+    private boolean tagHeaderDone = false;
+
+    // 交出的tag数
+    private long tags = 0L;
+    // 交出的字节数
+    private long bytes = 0L;
+
+    /**
+     * @param listener 交出tag的回调, 在写入的线程中执行
+     */
+    public FlvTagParser(OnTagListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, pending.length - filled);
+            System.arraycopy(b, off, pending, filled, n);
+            filled += n;
+            off += n;
+            len -= n;
+            if (filled == pending.length) {
+                complete();
+            }
+        }
+    }
+
+    private void complete() throws IOException {
+        if (!headerDone) {
+            if (pending[0] != 'F' || pending[1] != 'L' || pending[2] != 'V') {
+                throw new IOException("not a flv stream");
+            }
+            headerDone = true;
+            emit(new FlvTag(FlvTag.TYPE_HEADER, 0, pending));
+            next(new byte[FlvTag.TAG_HEADER_SIZE]);
+        } else if (!tagHeaderDone) {
+            int dataSize = ((pending[1] & 0xFF) << 16) | ((pending[2] & 0xFF) << 8) | (pending[3] & 0xFF);
+            if (dataSize > MAX_TAG_SIZE) {
+                throw new IOException("flv tag too large: " + dataSize);
+            }
+            byte[] tag = new byte[FlvTag.TAG_HEADER_SIZE + dataSize + 4];
+            System.arraycopy(pending, 0, tag, 0, FlvTag.TAG_HEADER_SIZE);
+            pending = tag;
+            filled = FlvTag.TAG_HEADER_SIZE;
+            tagHeaderDone = true;
+        } else {
+            int type = pending[0] & 0x1F;
+            int timestamp = ((pending[7] & 0xFF) << 24) | ((pending[4] & 0xFF) << 16)
+                    | ((pending[5] & 0xFF) << 8) | (pending[6] & 0xFF);
+            emit(new FlvTag(type, timestamp, pending));
+            next(new byte[FlvTag.TAG_HEADER_SIZE]);
+            tagHeaderDone = false;
+        }
+    }
+
+    private void next(byte[] buffer) {
+        pending = buffer;
+        filled = 0;
+    }
+
+    private void emit(FlvTag tag) {
+        tags++;
+        bytes += tag.bytes.length;
+        listener.onTag(tag);
+    }
+
+    /**
+     * @return 交出的tag数, 包括文件头
+     */
+    public long getTags() {
+        return tags;
+    }
+
+    /**
+     * @return 交出的字节数
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public interface OnTagListener {
+        /**
+         * 一个完整的tag
+         * @param tag tag, 可以长期持有
+         */
+        void onTag(FlvTag tag);
+    }
+
+}
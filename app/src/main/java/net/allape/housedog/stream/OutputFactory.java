@@ -0,0 +1,17 @@
+package net.allape.housedog.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 打开一个输出, 例如RTMP连接, 每次重连调用一次
+ */
+public interface OutputFactory {
+
+    /**
+     * @return 新的输出, 由调用方关闭
+     * @throws IOException 打开失败
+     */
+    OutputStream open() throws IOException;
+
+}
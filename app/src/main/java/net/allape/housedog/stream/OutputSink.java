@@ -0,0 +1,97 @@
+package net.allape.housedog.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 把tag原样写到{@link OutputFactory}打开的输出, 例如第二个直播地址/本地文件/{@link RemuxOutput}
+ * 失败后关闭输出, 按{@link Backoff}重新打开, 期间的tag被丢弃, 重新打开后从关键帧开始
+ * 一路新的流开始时重新打开输出
+ */
+public class OutputSink extends TagSink {
+
+    // 打开输出
+    private final OutputFactory factory;
+    // 重新打开的退避
+    private final Backoff backoff;
+
+    // 当前输出, 只在输出线程中访问
+    private OutputStream output;
+    // 下次打开的时间, ms
+    private long nextAttempt = 0L;
+
+    // 是否已打开
+    private volatile boolean opened = false;
+
+    /**
+     * @param name 名称
+     * @param capacity 队列容量, tag数
+     * @param factory 打开输出
+     * @param backoff 重新打开的退避
+     */
+    public OutputSink(String name, int capacity, OutputFactory factory, Backoff backoff) {
+        super(name, capacity);
+        this.factory = factory;
+        this.backoff = backoff;
+    }
+
+    @Override
+    protected void onStreamStart() {
+        closeOutput();
+        nextAttempt = 0L;
+    }
+
+    @Override
+    protected void write(FlvTag tag) throws IOException {
+        try {
+            if (output == null) {
+                if (System.currentTimeMillis() < nextAttempt || preamble().isEmpty()) {
+                    return;
+                }
+                output = factory.open();
+                opened = true;
+                for (FlvTag header : preamble()) {
+                    header.writeTo(output);
+                }
+                if (tag.isSequenceHeader()) {
+                    // 已包含在preamble中
+                    return;
+                } else if (tag.isVideo() && !tag.isKeyFrame()) {
+                    requireKeyFrame();
+                    return;
+                }
+            }
+            tag.writeTo(output);
+            backoff.reset();
+        } catch (IOException e) {
+            closeOutput();
+            nextAttempt = System.currentTimeMillis() + backoff.nextDelay();
+            throw e;
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        closeOutput();
+    }
+
+    private void closeOutput() {
+        opened = false;
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException ignored) {
+                // 已断开
+            }
+            output = null;
+        }
+    }
+
+    /**
+     * @return 输出是否已打开
+     */
+    public boolean isOpened() {
+        return opened;
+    }
+
+}
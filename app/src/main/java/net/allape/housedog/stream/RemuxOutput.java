@@ -0,0 +1,181 @@
+package net.allape.housedog.stream;
+
+import android.util.Log;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 把写入的FLV不经解码重新封装为其他格式, 例如分段的MP4或HLS
+ * 每次打开启动一个封装线程, 从管道读取FLV, 按包写入新的录制器
+ * 封装线程失败时管道被关闭, 下次写入会抛出异常, 由{@link OutputSink}重新打开
+ */
+public class RemuxOutput implements OutputFactory {
+
+    private static final String LOG_TAG = "RemuxOutput";
+
+    // 管道的缓冲大小
+    private static final int PIPE_SIZE = 1024 * 1024;
+    // 关闭时等待封装线程结束的时间 ms
+    private static final long JOIN_TIMEOUT = 2000L;
+
+    // 输出的路径或URL
+    private final String output;
+    // 输出的格式
+    private final String format;
+    // 封装器的参数
+    private final Map<String, String> options;
+
+    /**
+     * @param output 输出的路径或URL
+     * @param format 输出的格式, 例如mp4/segment/hls
+     * @param options 封装器的参数
+     */
+    public RemuxOutput(String output, String format, Map<String, String> options) {
+        this.output = output;
+        this.format = format;
+        this.options = options;
+    }
+
+    /**
+     * 单个MP4文件
+     * @param path 文件路径
+     * @return 工厂
+     */
+    public static RemuxOutput mp4(String path) {
+        return new RemuxOutput(path, "mp4", new LinkedHashMap<>());
+    }
+
+    /**
+     * 循环覆盖的分段MP4
+     * @param pattern 文件路径, 包含一个序号的格式, 例如record_%03d.mp4
+     * @param segmentSeconds 每段的时长, s, 在关键帧处切分
+     * @param segments 保留的段数, 之后从第一段开始覆盖
+     * @return 工厂
+     */
+    public static RemuxOutput rollingMp4(String pattern, int segmentSeconds, int segments) {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("segment_format", "mp4");
+        options.put("segment_time", String.valueOf(segmentSeconds));
+        options.put("segment_wrap", String.valueOf(segments));
+        options.put("reset_timestamps", "1");
+        return new RemuxOutput(pattern, "segment", options);
+    }
+
+    /**
+     * HLS, 只保留最近的段
+     * @param playlist m3u8文件的路径, 段文件写在同一目录
+     * @param segmentSeconds 每段的时长, s, 在关键帧处切分
+     * @param listSize 播放列表中的段数
+     * @return 工厂
+     */
+    public static RemuxOutput hls(String playlist, int segmentSeconds, int listSize) {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("hls_time", String.valueOf(segmentSeconds));
+        options.put("hls_list_size", String.valueOf(listSize));
+        options.put("hls_flags", "delete_segments");
+        return new RemuxOutput(playlist, "hls", options);
+    }
+
+    @Override
+    public OutputStream open() throws IOException {
+        return open(null);
+    }
+
+    /**
+     * 打开并启动封装线程
+     * 关闭返回的输出时最多等待{@link #JOIN_TIMEOUT}, 之后封装线程可能仍在写入, 写完的时机以finished为准
+     * @param finished 封装线程结束, 输出已关闭后在封装线程中调用, 可为null
+     * @return 输出
+     * @throws IOException 打开失败
+     */
+    public OutputStream open(Runnable finished) throws IOException {
+        PipedInputStream in = new PipedInputStream(PIPE_SIZE);
+        PipedOutputStream out = new PipedOutputStream(in);
+        Thread thread = new Thread(() -> remux(in, finished), "remux." + format);
+        thread.start();
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                // 封装线程读到结尾后关闭录制器, 写完文件尾
+                out.close();
+                try {
+                    thread.join(JOIN_TIMEOUT);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private void remux(PipedInputStream in, Runnable finished) {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(in, 0);
+        grabber.setFormat("flv");
+        FFmpegFrameRecorder recorder = null;
+        try {
+            grabber.start();
+            recorder = new FFmpegFrameRecorder(output,
+                    grabber.getImageWidth(), grabber.getImageHeight(), grabber.getAudioChannels());
+            recorder.setFormat(format);
+            recorder.setVideoCodec(grabber.getVideoCodec());
+            recorder.setAudioCodec(grabber.getAudioCodec());
+            recorder.setFrameRate(grabber.getFrameRate());
+            recorder.setSampleRate(grabber.getSampleRate());
+            for (Map.Entry<String, String> option : options.entrySet()) {
+                recorder.setOption(option.getKey(), option.getValue());
+            }
+            recorder.start(grabber.getFormatContext());
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null) {
+                recorder.recordPacket(packet);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.e(LOG_TAG, e.getMessage());
+        } finally {
+            try {
+                if (recorder != null) {
+                    recorder.close();
+                }
+                grabber.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+                Log.e(LOG_TAG, e.getMessage());
+            }
+            try {
+                // 让写入端得到异常
+                in.close();
+            } catch (IOException ignored) {
+                // 已关闭
+            }
+        }
+        Log.v(LOG_TAG, "remux finished: " + output);
+        if (finished != null) {
+            finished.run();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RemuxOutput{" + format + ": " + output + '}';
+    }
+
+}
@@ -0,0 +1,219 @@
+package net.allape.housedog.stream;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 断网时暂存已编码tag的本地分段文件, 每段都是从关键帧开始的独立FLV
+ * 正在写入的段以.part结尾, 完成后改为.flv才会被上传
+ * 总大小超过上限时删除最旧的完成段
+ * 写入线程和上传线程共用, 所以是线程安全的
+ */
+public class SpoolStore {
+
+    private static final String PART = ".part";
+    private static final String COMPLETE = ".flv";
+
+    // 目录
+    private final File dir;
+    // 单段的目标大小, 超过后在下一个关键帧切分
+    private final long segmentBytes;
+    // 所有段的总大小上限
+    private final long maxBytes;
+
+    // 正在写入的段
+    private File currentFile;
+    // 正在写入的段的输出
+    private OutputStream current;
+    // 正在写入的段的大小
+    private long currentBytes = 0L;
+    // 已完成的段, 从旧到新
+    private final List<File> completed = new ArrayList<>();
+    // 已完成的段的总大小
+    private long completedBytes = 0L;
+    // 下一段的序号
+    private long sequence = 0L;
+
+    // 因超过上限删除的段数
+    private long evicted = 0L;
+
+    /**
+     * @param dir 目录, 不存在时创建, 已有的段(包括上次未完成的)会被保留
+     * @param segmentBytes 单段的目标大小
+     * @param maxBytes 所有段的总大小上限
+     */
+    public SpoolStore(File dir, long segmentBytes, long maxBytes) {
+        if (segmentBytes <= 0 || maxBytes < segmentBytes) {
+            throw new IllegalArgumentException("invalid spool size: " + segmentBytes + "/" + maxBytes);
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        recover();
+    }
+
+    /**
+     * 扫描目录, 上次未完成的段也是合法的FLV前缀, 直接视为完成
+     */
+    private void recover() {
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(PART)) {
+                File complete = new File(dir, name.substring(0, name.length() - PART.length()) + COMPLETE);
+                if (!file.renameTo(complete)) {
+                    continue;
+                }
+                file = complete;
+                name = complete.getName();
+            }
+            if (!name.endsWith(COMPLETE)) {
+                continue;
+            }
+            try {
+                sequence = Math.max(sequence, Long.parseLong(name.substring(0, name.length() - COMPLETE.length())) + 1);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            completed.add(file);
+            completedBytes += file.length();
+        }
+        evict();
+    }
+
+    /**
+     * 写入一个tag, 没有正在写入的段时从视频关键帧开始新的一段
+     * @param tag tag
+     * @param preamble 新的一段开头需要的文件头和解码配置
+     * @return false/没有写入, 等待关键帧
+     * @throws IOException 写入失败
+     */
+    public synchronized boolean append(FlvTag tag, List<FlvTag> preamble) throws IOException {
+        boolean key = tag.isKeyFrame();
+        if (current != null && key && currentBytes >= segmentBytes) {
+            finish();
+        }
+        if (current == null) {
+            if (!key || preamble.isEmpty()) {
+                return false;
+            }
+            currentFile = new File(dir, String.format(Locale.ROOT, "%012d", sequence++) + PART);
+            current = new BufferedOutputStream(new FileOutputStream(currentFile));
+            currentBytes = 0L;
+            for (FlvTag header : preamble) {
+                header.writeTo(current);
+                currentBytes += header.getSize();
+            }
+        }
+        tag.writeTo(current);
+        currentBytes += tag.getSize();
+        return true;
+    }
+
+    /**
+     * 结束正在写入的段, 之后可以被上传
+     */
+    public synchronized void finish() {
+        if (current == null) {
+            return;
+        }
+        try {
+            current.close();
+        } catch (IOException ignored) {
+            // 已写入的部分仍然是合法的FLV前缀
+        }
+        current = null;
+        String name = currentFile.getName();
+        File complete = new File(dir, name.substring(0, name.length() - PART.length()) + COMPLETE);
+        if (currentFile.renameTo(complete)) {
+            completed.add(complete);
+            completedBytes += complete.length();
+        }
+        currentFile = null;
+        currentBytes = 0L;
+        evict();
+    }
+
+    private void evict() {
+        while (!completed.isEmpty() && completedBytes + currentBytes > maxBytes) {
+            File oldest = completed.remove(0);
+            completedBytes -= oldest.length();
+            //noinspection ResultOfMethodCallIgnored
+            oldest.delete();
+            evicted++;
+        }
+    }
+
+    /**
+     * @return 最旧的完成段, 没有时为null
+     */
+    public synchronized File oldest() {
+        return completed.isEmpty() ? null : completed.get(0);
+    }
+
+    /**
+     * 删除一个完成段, 例如已上传
+     * @param file 由{@link #oldest()}返回的段
+     * @return false/已不存在, 例如已因超过上限被删除
+     */
+    public synchronized boolean remove(File file) {
+        if (!completed.remove(file)) {
+            return false;
+        }
+        completedBytes -= file.length();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        return true;
+    }
+
+    /**
+     * @return 完成段的数量
+     */
+    public synchronized int getCompletedCount() {
+        return completed.size();
+    }
+
+    /**
+     * @return 所有段的总大小, 包括正在写入的
+     */
+    public synchronized long getTotalBytes() {
+        return completedBytes + currentBytes;
+    }
+
+    /**
+     * @return 是否正在写入
+     */
+    public synchronized boolean isWriting() {
+        return current != null;
+    }
+
+    /**
+     * @return 因超过上限删除的段数
+     */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SpoolStore{segments=" + completed.size() +
+                ", bytes=" + getTotalBytes() +
+                ", writing=" + (current != null) +
+                ", evicted=" + evicted +
+                '}';
+    }
+
+}
@@ -0,0 +1,340 @@
+package net.allape.housedog.stream;
+
+import android.util.Log;
+
+import net.allape.housedog.pipeline.DropPolicy;
+import net.allape.housedog.pipeline.FrameQueue;
+import net.allape.housedog.pipeline.LatencyHistogram;
+import net.allape.housedog.pipeline.LatencyRegistry;
+
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.FrameRecorder;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 唯一操作{@link FFmpegFrameRecorder}的合流线程, 负责启动/编码/发送/关闭
+ * 视频和音频分别通过有界队列交接, 时间戳都来自{@link #now()}这一个单调时钟, 按时间戳交错写入
+ * 生产线程(检测线程/录音线程)永不阻塞, 上行慢时按{@link DropPolicy}丢帧
+ * 写入或被丢弃的帧都会归还到各自的池
+ */
+public class StreamMuxer implements Runnable {
+
+    private static final String LOG_TAG = "StreamMuxer";
+
+    // 视频在队列中等待的耗时
+    private static final LatencyHistogram STAGE_QUEUE = LatencyRegistry.stage("rtmp.queue");
+    // 编码并发送一帧视频的耗时
+    private static final LatencyHistogram STAGE_PUSH = LatencyRegistry.stage("rtmp.push");
+    // 编码并发送一段音频的耗时
+    private static final LatencyHistogram STAGE_AUDIO = LatencyRegistry.stage("rtmp.audio");
+
+    // 关闭时等待线程结束的时间 ms
+    private static final long JOIN_TIMEOUT = 2000L;
+    // 队列都为空时的最长等待, 有新数据时会被提前唤醒
+    private static final long IDLE_PARK = TimeUnit.MILLISECONDS.toNanos(50);
+    // 音频允许的偏差 us
+    private static final long AUDIO_TOLERANCE = 60_000L;
+    // 一次最多补的静音 us
+    private static final long AUDIO_MAX_PADDING = 1_000_000L;
+
+    // 录制器, 只在合流线程中使用
+    private final FFmpegFrameRecorder recorder;
+    // 视频帧池
+    private final VideoFramePool videoPool;
+    // 音频池
+    private final AudioChunkPool audioPool;
+    // 视频队列
+    private final FrameQueue<VideoFrame> videoQueue;
+    // 音频队列
+    private final FrameQueue<AudioChunk> audioQueue;
+    // 音频时钟
+    private final AudioClock audioClock;
+    // 静音, 按音频段的容量分配
+    private final short[] silence;
+    // 每帧视频写入后的回调, 在合流线程中执行
+    private final OnEncodeListener listener;
+
+    // 时间轴的起点, System.nanoTime()
+    private final long origin = System.nanoTime();
+
+    // 合流线程
+    private volatile Thread thread;
+    // 是否已要求停止
+    private volatile boolean closed = false;
+
+    // 编码成功的视频帧数
+    private final AtomicLong encoded = new AtomicLong();
+    // 编码失败的视频帧数
+    private final AtomicLong failed = new AtomicLong();
+    // 写入的音频段数
+    private final AtomicLong audioChunks = new AtomicLong();
+    // 因超前丢弃的音频段数
+    private final AtomicLong audioSkipped = new AtomicLong();
+    // 补的静音采样数
+    private final AtomicLong audioPadded = new AtomicLong();
+    // 最近一帧视频的编码和写入耗时, us
+    private volatile long lastWriteLatency = 0L;
+
+    /**
+     * @param recorder 已配置未启动的录制器, 之后由合流线程独占
+     * @param videoPool 视频帧池
+     * @param videoCapacity 视频队列容量
+     * @param videoPolicy 视频队列满时的丢弃策略, {@link DropPolicy#DROP_NON_KEY}时按{@link VideoFrame#isKey()}判断
+     * @param audioPool 音频池
+     * @param audioCapacity 音频队列容量, 满时丢弃最旧的, 缺口由静音补上
+     * @param sampleRate 音频采样率
+     * @param listener 视频写入后的回调, 可为null
+     */
+    public StreamMuxer(FFmpegFrameRecorder recorder,
+                       VideoFramePool videoPool, int videoCapacity, DropPolicy videoPolicy,
+                       AudioChunkPool audioPool, int audioCapacity, int sampleRate,
+                       OnEncodeListener listener) {
+        this.recorder = recorder;
+        this.videoPool = videoPool;
+        this.audioPool = audioPool;
+        this.listener = listener;
+        this.videoQueue = new FrameQueue<>(videoCapacity, videoPolicy, videoPool::release, VideoFrame::isKey);
+        this.audioQueue = new FrameQueue<>(audioCapacity, DropPolicy.DROP_OLDEST, audioPool::release);
+        this.audioClock = new AudioClock(sampleRate, AUDIO_TOLERANCE, AUDIO_MAX_PADDING);
+        this.silence = new short[audioPool.getChunkCapacity()];
+    }
+
+    /**
+     * 启动合流线程, 录制器在该线程中启动
+     */
+    public void start() {
+        Thread thread = new Thread(this, LOG_TAG);
+        this.thread = thread;
+        thread.start();
+    }
+
+    /**
+     * @return 时间轴上的当前时间, us, 从创建时开始
+     */
+    public long now() {
+        return (System.nanoTime() - origin) / 1000L;
+    }
+
+    /**
+     * 放入一帧视频, 不阻塞, 时间戳取{@link #now()}
+     * @param frame 由同一个{@link VideoFramePool}获取的帧, 之后不要再使用
+     * @return false/该帧被丢弃
+     */
+    public boolean offerVideo(VideoFrame frame) {
+        frame.queuedAt = System.nanoTime();
+        frame.timestamp = (frame.queuedAt - origin) / 1000L;
+        return signal(videoQueue.offer(frame));
+    }
+
+    /**
+     * 放入一段音频, 不阻塞
+     * @param chunk 由同一个{@link AudioChunkPool}获取的一段, 之后不要再使用
+     * @param timestamp 第一个采样的时间戳, us, 基于{@link #now()}
+     * @return false/该段被丢弃
+     */
+    public boolean offerAudio(AudioChunk chunk, long timestamp) {
+        chunk.timestamp = timestamp;
+        return signal(audioQueue.offer(chunk));
+    }
+
+    private boolean signal(boolean accepted) {
+        Thread thread = this.thread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        return accepted;
+    }
+
+    @Override
+    public void run() {
+        try {
+            recorder.start();
+        } catch (FFmpegFrameRecorder.Exception e) {
+            e.printStackTrace();
+            Log.e(LOG_TAG, e.getMessage());
+            closed = true;
+        }
+
+        VideoFrame video = null;
+        AudioChunk audio = null;
+        while (!closed) {
+            if (video == null) {
+                video = videoQueue.poll();
+            }
+            if (audio == null) {
+                audio = audioQueue.poll();
+            }
+            if (video == null && audio == null) {
+                LockSupport.parkNanos(this, IDLE_PARK);
+                continue;
+            }
+            // 按时间戳交错, 先写较早的
+            if (audio == null || (video != null && video.timestamp <= audio.timestamp)) {
+                writeVideo(video);
+                video = null;
+            } else {
+                writeAudio(audio);
+                audio = null;
+            }
+        }
+        videoPool.release(video);
+        audioPool.release(audio);
+        videoQueue.close();
+        audioQueue.close();
+
+        try {
+            recorder.close();
+        } catch (FrameRecorder.Exception e) {
+            e.printStackTrace();
+            Log.e(LOG_TAG, e.getMessage());
+        }
+        Log.v(LOG_TAG, "muxer finished, " + this);
+    }
+
+    private void writeVideo(VideoFrame frame) {
+        long start = System.nanoTime();
+        STAGE_QUEUE.record(start - frame.queuedAt);
+        try {
+            // 录制器按时间戳推算帧序号, 时间戳不前进时沿用上一个序号之后的
+            if (frame.timestamp > recorder.getTimestamp()) {
+                recorder.setTimestamp(frame.timestamp);
+            }
+            recorder.record(frame.getFrame(), frame.pixelFormat);
+            encoded.incrementAndGet();
+        } catch (FFmpegFrameRecorder.Exception e) {
+            failed.incrementAndGet();
+            e.printStackTrace();
+            Log.e(LOG_TAG, e.getMessage());
+        } finally {
+            long latency = System.nanoTime() - start;
+            STAGE_PUSH.record(latency);
+            lastWriteLatency = latency / 1000L;
+            videoPool.release(frame);
+        }
+        if (listener != null) {
+            listener.onEncode(this);
+        }
+    }
+
+    private void writeAudio(AudioChunk chunk) {
+        long start = System.nanoTime();
+        try {
+            long correction = audioClock.correction(chunk.timestamp);
+            if (correction < 0) {
+                audioSkipped.incrementAndGet();
+                return;
+            }
+            for (long left = correction; left > 0; ) {
+                int length = (int) Math.min(left, silence.length);
+                recorder.recordSamples(ShortBuffer.wrap(silence, 0, length));
+                audioClock.advance(length);
+                left -= length;
+            }
+            audioPadded.addAndGet(correction);
+            recorder.recordSamples(ShortBuffer.wrap(chunk.samples, 0, chunk.length));
+            audioClock.advance(chunk.length);
+            audioChunks.incrementAndGet();
+        } catch (FFmpegFrameRecorder.Exception e) {
+            e.printStackTrace();
+            Log.e(LOG_TAG, e.getMessage());
+        } finally {
+            STAGE_AUDIO.recordSince(start);
+            audioPool.release(chunk);
+        }
+    }
+
+    /**
+     * 停止合流线程, 丢弃排队的帧, 并等待录制器关闭
+     */
+    public void close() {
+        closed = true;
+        Thread thread = this.thread;
+        if (thread == null) {
+            return;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join(JOIN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            Log.w(LOG_TAG, "muxer did not finish in " + JOIN_TIMEOUT + "ms");
+        }
+        this.thread = null;
+    }
+
+    /**
+     * @return 编码成功的视频帧数
+     */
+    public long getEncoded() {
+        return encoded.get();
+    }
+
+    /**
+     * @return 编码失败的视频帧数
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return 因队列已满而丢弃的视频帧数
+     */
+    public long getDropped() {
+        return videoQueue.getDropped();
+    }
+
+    /**
+     * @return 当前排队的视频帧数
+     */
+    public int getQueued() {
+        return videoQueue.size();
+    }
+
+    /**
+     * @return 视频队列的容量
+     */
+    public int getCapacity() {
+        return videoQueue.capacity();
+    }
+
+    /**
+     * @return 最近一帧视频的编码和写入耗时, us
+     */
+    public long getLastWriteLatency() {
+        return lastWriteLatency;
+    }
+
+    /**
+     * @return 因队列已满或超前而丢弃的音频段数
+     */
+    public long getAudioDropped() {
+        return audioQueue.getDropped() + audioSkipped.get();
+    }
+
+    @Override
+    public String toString() {
+        return "StreamMuxer{encoded=" + getEncoded() +
+                ", failed=" + getFailed() +
+                ", dropped=" + getDropped() +
+                ", queued=" + getQueued() +
+                ", audioChunks=" + audioChunks.get() +
+                ", audioDropped=" + getAudioDropped() +
+                ", audioPadded=" + audioPadded.get() +
+                '}';
+    }
+
+    public interface OnEncodeListener {
+        /**
+         * 一帧视频写入完成(包括失败), 在合流线程中执行, 不要做耗时操作
+         * @param muxer 合流器
+         */
+        void onEncode(StreamMuxer muxer);
+    }
+
+}
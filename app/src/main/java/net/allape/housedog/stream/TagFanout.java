@@ -0,0 +1,92 @@
+package net.allape.housedog.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 把编码一次的tag分发给多个输出, 每个输出有自己的队列和线程, 慢的输出不会阻塞其他输出
+ * tag不可变, 所有输出共享同一个实例
+ * 中途加入的输出会先收到当前流的文件头和解码配置
+ */
+public class TagFanout implements FlvTagParser.OnTagListener {
+
+    // 输出
+    private final List<TagSink> sinks = new CopyOnWriteArrayList<>();
+
+    // 当前流的文件头
+    private FlvTag header;
+    // 当前流的元数据
+    private FlvTag metadata;
+    // 当前流的视频解码配置
+    private FlvTag videoConfig;
+    // 当前流的音频解码配置
+    private FlvTag audioConfig;
+
+    // 分发的tag数
+    private long tags = 0L;
+
+    /**
+     * 加入一个输出
+     * @param sink 输出, 由调用方启动和关闭
+     */
+    public synchronized void add(TagSink sink) {
+        for (FlvTag tag : new FlvTag[] { header, metadata, videoConfig, audioConfig }) {
+            if (tag != null) {
+                sink.offer(tag);
+            }
+        }
+        sinks.add(sink);
+    }
+
+    /**
+     * 移除一个输出
+     * @param sink 输出, 由调用方关闭
+     * @return false/不存在
+     */
+    public boolean remove(TagSink sink) {
+        return sinks.remove(sink);
+    }
+
+    @Override
+    public synchronized void onTag(FlvTag tag) {
+        if (tag.isHeader()) {
+            header = tag;
+            metadata = null;
+            videoConfig = null;
+            audioConfig = null;
+        } else if (tag.isSequenceHeader()) {
+            if (tag.type == FlvTag.TYPE_SCRIPT) {
+                metadata = tag;
+            } else if (tag.isVideo()) {
+                videoConfig = tag;
+            } else {
+                audioConfig = tag;
+            }
+        }
+        tags++;
+        for (TagSink sink : sinks) {
+            sink.offer(tag);
+        }
+    }
+
+    /**
+     * @return 当前的输出
+     */
+    public List<TagSink> getSinks() {
+        return new ArrayList<>(sinks);
+    }
+
+    /**
+     * @return 分发的tag数
+     */
+    public synchronized long getTags() {
+        return tags;
+    }
+
+    @Override
+    public String toString() {
+        return "TagFanout{tags=" + getTags() + ", sinks=" + sinks + '}';
+    }
+
+}
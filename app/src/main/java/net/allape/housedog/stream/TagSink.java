@@ -0,0 +1,303 @@
+package net.allape.housedog.stream;
+
+import net.allape.housedog.pipeline.DropPolicy;
+import net.allape.housedog.pipeline.FrameQueue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 已编码tag的一个输出, 有自己的线程和有界队列, 慢的输出只会丢自己的帧
+ * 队列满时优先保留文件头/解码配置/关键帧, 丢了视频帧之后跳到下一个关键帧, 保证输出始终可解码
+ * 记录当前流的文件头和解码配置, 子类在(重新)打开输出时先写入{@link #preamble()}
+ */
+public abstract class TagSink implements Runnable {
+
+    // 队列为空时的最长等待, ms
+    protected static final long IDLE_WAIT = 200L;
+
+    // 名称, 用作线程名
+    private final String name;
+    // tag队列
+    private final FrameQueue<FlvTag> queue;
+
+    // 线程
+    private volatile Thread thread;
+    // 是否已要求停止
+    private volatile boolean closed = false;
+    // 丢了视频帧, 需要等下一个关键帧, 由队列的丢弃回调设置
+    private volatile boolean resync = false;
+
+    // 当前流的文件头
+    private FlvTag header;
+    // 当前流的元数据
+    private FlvTag metadata;
+    // 当前流的视频解码配置
+    private FlvTag videoConfig;
+    // 当前流的音频解码配置
+    private FlvTag audioConfig;
+    // 是否在等待视频关键帧, 新的流开始或丢帧后为true
+    private boolean awaitingKeyFrame = true;
+
+    // 写入的tag数
+    private final AtomicLong written = new AtomicLong();
+    // 因丢帧跳过的tag数
+    private final AtomicLong skipped = new AtomicLong();
+    // 写入失败的次数
+    private final AtomicLong errors = new AtomicLong();
+    // 最后一次失败
+    private volatile IOException lastError;
+
+    /**
+     * @param name 名称
+     * @param capacity 队列容量, tag数
+     */
+    protected TagSink(String name, int capacity) {
+        this.name = name;
+        this.queue = new FrameQueue<>(capacity, DropPolicy.DROP_NON_KEY, tag -> {
+            if (tag.isVideo()) {
+                resync = true;
+            }
+        }, FlvTag::isEssential);
+    }
+
+    /**
+     * 启动线程
+     */
+    public void start() {
+        Thread thread = new Thread(this, name);
+        this.thread = thread;
+        thread.start();
+    }
+
+    /**
+     * 放入一个tag, 不阻塞
+     * @param tag tag
+     * @return false/被丢弃
+     */
+    public boolean offer(FlvTag tag) {
+        return queue.offer(tag);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                FlvTag tag = queue.poll(IDLE_WAIT);
+                if (tag == null) {
+                    onIdle();
+                } else {
+                    handle(tag);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            onStop();
+        }
+    }
+
+    /**
+     * 处理一个tag, 在输出线程中执行
+     * @param tag tag
+     */
+    void handle(FlvTag tag) {
+        if (tag.isHeader()) {
+            header = tag;
+            metadata = null;
+            videoConfig = null;
+            audioConfig = null;
+            awaitingKeyFrame = true;
+            resync = false;
+            try {
+                onStreamStart();
+            } catch (IOException e) {
+                onError(e);
+            }
+            return;
+        }
+        if (tag.isSequenceHeader()) {
+            if (tag.type == FlvTag.TYPE_SCRIPT) {
+                metadata = tag;
+            } else if (tag.isVideo()) {
+                videoConfig = tag;
+            } else {
+                audioConfig = tag;
+            }
+        }
+        if (resync) {
+            resync = false;
+            awaitingKeyFrame = true;
+        }
+        if (tag.isVideo() && !tag.isSequenceHeader()) {
+            if (tag.isKeyFrame()) {
+                awaitingKeyFrame = false;
+            } else if (awaitingKeyFrame) {
+                skipped.incrementAndGet();
+                return;
+            }
+        }
+        try {
+            write(tag);
+            written.incrementAndGet();
+        } catch (IOException e) {
+            onError(e);
+        }
+    }
+
+    /**
+     * 当前流的文件头和解码配置, (重新)打开输出后先写入这些, 之后的第一个视频tag一定是关键帧
+     * @return 没有文件头时为空
+     */
+    protected List<FlvTag> preamble() {
+        List<FlvTag> tags = new ArrayList<>(4);
+        if (header == null) {
+            return tags;
+        }
+        tags.add(header);
+        if (metadata != null) {
+            tags.add(metadata);
+        }
+        if (videoConfig != null) {
+            tags.add(videoConfig);
+        }
+        if (audioConfig != null) {
+            tags.add(audioConfig);
+        }
+        return tags;
+    }
+
+    /**
+     * 之后的视频从下一个关键帧开始, 例如重新打开输出后
+     */
+    protected void requireKeyFrame() {
+        awaitingKeyFrame = true;
+    }
+
+    /**
+     * 一路新的流开始, 例如录制器重启, 文件头和解码配置已重置
+     * @throws IOException 处理失败
+     */
+    protected void onStreamStart() throws IOException { }
+
+    /**
+     * 写入一个tag, 在输出线程中执行
+     * @param tag 按顺序的tag, 视频总是从关键帧开始
+     * @throws IOException 写入失败
+     */
+    protected abstract void write(FlvTag tag) throws IOException;
+
+    /**
+     * 队列空闲时调用, 例如重连
+     */
+    protected void onIdle() { }
+
+    /**
+     * 线程结束前调用, 关闭输出
+     */
+    protected void onStop() { }
+
+    /**
+     * 记录一次失败
+     * @param e 异常
+     */
+    protected void onError(IOException e) {
+        errors.incrementAndGet();
+        lastError = e;
+    }
+
+    /**
+     * 停止线程, 丢弃排队的tag
+     * @param timeout 等待线程结束的时间, ms
+     */
+    public void close(long timeout) {
+        closed = true;
+        queue.close();
+        Thread thread = this.thread;
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.thread = null;
+    }
+
+    /**
+     * @return 是否已要求停止
+     */
+    protected boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return 名称
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return 当前排队的tag数
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * @return 队列容量
+     */
+    public int getCapacity() {
+        return queue.capacity();
+    }
+
+    /**
+     * @return 因队列已满丢弃的tag数
+     */
+    public long getDropped() {
+        return queue.getDropped();
+    }
+
+    /**
+     * @return 写入的tag数
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return 因等待关键帧跳过的tag数
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return 写入失败的次数
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * @return 最后一次失败, 没有时为null
+     */
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" + name +
+                ", written=" + getWritten() +
+                ", dropped=" + getDropped() +
+                ", skipped=" + getSkipped() +
+                ", errors=" + getErrors() +
+                '}';
+    }
+
+}
@@ -0,0 +1,206 @@
+package net.allape.housedog.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 推流的主输出, 连接断开时把tag暂存到{@link SpoolStore}, 按{@link Backoff}重连
+ * 在视频关键帧处重连, 先写入文件头和解码配置再从该关键帧开始直播, 在此之前的tag仍然进入暂存
+ * 暂存的段由{@link BackfillUploader}在连接恢复后补传
+ */
+public class UplinkSink extends TagSink {
+
+    // 打开连接
+    private final OutputFactory factory;
+    // 暂存
+    private final SpoolStore spool;
+    // 重连退避
+    private final Backoff backoff;
+
+    // 当前连接, 只在输出线程中访问
+    private OutputStream output;
+    // 下次重连的时间, ms
+    private long nextAttempt = 0L;
+
+    // 是否已连接并在直播
+    private volatile boolean connected = false;
+    // 网络是否可用
+    private volatile boolean networkAvailable = true;
+    // 网络断开, 需要在输出线程中关闭连接
+    private volatile boolean networkLost = false;
+    // 网络恢复, 立即重连
+    private volatile boolean retryNow = false;
+
+    // 连接成功的次数
+    private final AtomicLong connects = new AtomicLong();
+    // 写入暂存的tag数
+    private final AtomicLong spooled = new AtomicLong();
+
+    /**
+     * @param factory 打开连接
+     * @param spool 暂存
+     * @param backoff 重连退避
+     * @param capacity 队列容量, tag数
+     */
+    public UplinkSink(OutputFactory factory, SpoolStore spool, Backoff backoff, int capacity) {
+        super("rtmp.uplink", capacity);
+        this.factory = factory;
+        this.spool = spool;
+        this.backoff = backoff;
+    }
+
+    /**
+     * 网络状态变化, 可在任意线程调用
+     * @param available 是否可用
+     */
+    public void setNetworkAvailable(boolean available) {
+        networkAvailable = available;
+        if (available) {
+            retryNow = true;
+        } else {
+            networkLost = true;
+        }
+    }
+
+    @Override
+    protected void onStreamStart() {
+        // 录制器重启后参数可能已变化, 旧的连接和暂存段都不能继续使用
+        disconnect();
+        spool.finish();
+        nextAttempt = 0L;
+    }
+
+    @Override
+    protected void write(FlvTag tag) throws IOException {
+        checkConnection();
+        if (output == null && tag.isKeyFrame()) {
+            // 只在关键帧处连接, 此时文件头和解码配置都已收到
+            connect();
+        }
+        if (output != null) {
+            try {
+                tag.writeTo(output);
+                return;
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        if (spool.append(tag, preamble())) {
+            spooled.incrementAndGet();
+        }
+    }
+
+    @Override
+    protected void onIdle() {
+        checkConnection();
+    }
+
+    @Override
+    protected void onStop() {
+        disconnect();
+        spool.finish();
+    }
+
+    /**
+     * 处理网络状态变化
+     */
+    private void checkConnection() {
+        if (networkLost) {
+            networkLost = false;
+            disconnect();
+        }
+        if (retryNow) {
+            retryNow = false;
+            backoff.reset();
+            nextAttempt = 0L;
+        }
+    }
+
+    /**
+     * 到时间后重连, 写入文件头和解码配置, 之后从当前的关键帧开始直播, 暂存的段在此结束
+     */
+    private void connect() {
+        if (!networkAvailable || System.currentTimeMillis() < nextAttempt || preamble().isEmpty()) {
+            return;
+        }
+        try {
+            output = factory.open();
+            for (FlvTag header : preamble()) {
+                header.writeTo(output);
+            }
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        spool.finish();
+        backoff.reset();
+        connects.incrementAndGet();
+        connected = true;
+    }
+
+    private void fail(IOException e) {
+        onError(e);
+        disconnect();
+        nextAttempt = System.currentTimeMillis() + backoff.nextDelay();
+    }
+
+    private void disconnect() {
+        connected = false;
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException ignored) {
+                // 已断开
+            }
+            output = null;
+        }
+    }
+
+    /**
+     * @return 是否已连接并在直播, 可以开始补传
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return 网络是否可用
+     */
+    public boolean isNetworkAvailable() {
+        return networkAvailable;
+    }
+
+    /**
+     * @return 连接成功的次数
+     */
+    public long getConnects() {
+        return connects.get();
+    }
+
+    /**
+     * @return 写入暂存的tag数
+     */
+    public long getSpooled() {
+        return spooled.get();
+    }
+
+    /**
+     * @return 暂存
+     */
+    public SpoolStore getSpool() {
+        return spool;
+    }
+
+    @Override
+    public String toString() {
+        return "UplinkSink{connected=" + connected +
+                ", connects=" + getConnects() +
+                ", spooled=" + getSpooled() +
+                ", dropped=" + getDropped() +
+                ", errors=" + getErrors() +
+                ", " + spool +
+                '}';
+    }
+
+}
@@ -0,0 +1,155 @@
+package net.allape.housedog.stream;
+
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.opencv.opencv_core.IplImage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 可复用的直播帧, {@link Frame}的数据为直接内存
+ * 1/3/4通道时同时提供指向同一块内存的{@link IplImage}, OpenCV可以直接写入而不需要再复制
+ * 2通道为NV21排列, {@link avutil#AV_PIX_FMT_YUV420P}为紧密排列的I420, 都没有对应的IplImage
+ */
+public class VideoFrame {
+
+    // 宽度
+    final int width;
+    // 高度
+    final int height;
+    // 通道数
+    final int channels;
+    // 交给录制器的像素格式, {@link avutil#AV_PIX_FMT_NONE}时由录制器按通道数推断
+    final int pixelFormat;
+
+    // 交给录制器的帧
+    private final Frame frame;
+    // 共享frame内存的图片, NV21时为null
+    private final IplImage image;
+    // 持有转换器, 避免图片头被回收
+    private final OpenCVFrameConverter.ToIplImage converter;
+
+    // 帧的时间戳, us
+    long timestamp;
+    // 进入编码队列的时间, System.nanoTime()
+    long queuedAt;
+    // 是否是关键帧, 编码队列满时优先保留
+    boolean key;
+
+    /**
+     * @param width 宽度
+     * @param height 高度
+     * @param channels 通道数, 2为NV21
+     */
+    public VideoFrame(int width, int height, int channels) {
+        this(width, height, channels, avutil.AV_PIX_FMT_NONE);
+    }
+
+    /**
+     * @param width 宽度
+     * @param height 高度
+     * @param channels 通道数, 2为NV21, YUV420P时为1
+     * @param pixelFormat 像素格式, 目前只支持{@link avutil#AV_PIX_FMT_NONE}和{@link avutil#AV_PIX_FMT_YUV420P}
+     */
+    public VideoFrame(int width, int height, int channels, int pixelFormat) {
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.pixelFormat = pixelFormat;
+        if (pixelFormat == avutil.AV_PIX_FMT_YUV420P) {
+            // 多分配半高存放U/V平面, 行跨度固定为宽度, 与录制器按紧密排列解析的方式一致
+            this.frame = new Frame(width, height * 3 / 2, Frame.DEPTH_UBYTE, 1);
+            this.frame.imageHeight = height;
+            this.frame.imageStride = width;
+        } else {
+            this.frame = new Frame(width, height, Frame.DEPTH_UBYTE, channels);
+        }
+        if (channels == 2 || pixelFormat == avutil.AV_PIX_FMT_YUV420P) {
+            this.converter = null;
+            this.image = null;
+        } else {
+            this.converter = new OpenCVFrameConverter.ToIplImage();
+            this.image = converter.convertToIplImage(frame);
+        }
+    }
+
+    /**
+     * @return 交给录制器的帧
+     */
+    public Frame getFrame() {
+        return frame;
+    }
+
+    /**
+     * @return 共享同一块内存的图片, NV21时为null
+     */
+    public IplImage getImage() {
+        return image;
+    }
+
+    /**
+     * @return 帧的数据, position为0
+     */
+    public ByteBuffer getBuffer() {
+        return (ByteBuffer) frame.image[0].position(0);
+    }
+
+    /**
+     * @return 宽度
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return 高度
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return 通道数, 2为NV21
+     */
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return 交给录制器的像素格式
+     */
+    public int getPixelFormat() {
+        return pixelFormat;
+    }
+
+    /**
+     * @return 帧的时间戳, us
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return 是否是关键帧
+     */
+    public boolean isKey() {
+        return key;
+    }
+
+    /**
+     * 标记为关键帧, 例如有运动的帧; 编码队列满时优先丢弃非关键帧, 每次从池中获取后重置为false
+     * @param key 是否是关键帧
+     */
+    public void setKey(boolean key) {
+        this.key = key;
+    }
+
+    /**
+     * 释放内存
+     */
+    void close() {
+        frame.close();
+    }
+
+}
@@ -0,0 +1,110 @@
+package net.allape.housedog.stream;
+
+import org.bytedeco.ffmpeg.global.avutil;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按尺寸复用的{@link VideoFrame}池
+ * 生产线程获取, 录制线程归还, 所以是线程安全的
+ */
+public class VideoFramePool {
+
+    // 按 宽/高/通道数/像素格式 区分
+    private final List<Slot> slots = new ArrayList<>();
+
+    // 命中次数
+    private long hits = 0L;
+    // 未命中次数
+    private long misses = 0L;
+
+    /**
+     * 获取一帧, 池中没有时新建
+     * @param width 宽度
+     * @param height 高度
+     * @param channels 通道数, 2为NV21
+     * @return 帧, 内容未初始化
+     */
+    public VideoFrame acquire(int width, int height, int channels) {
+        return acquire(width, height, channels, avutil.AV_PIX_FMT_NONE);
+    }
+
+    /**
+     * 获取一帧, 池中没有时新建
+     * @param width 宽度
+     * @param height 高度
+     * @param channels 通道数, 2为NV21, YUV420P时为1
+     * @param pixelFormat 像素格式, 见{@link VideoFrame#VideoFrame(int, int, int, int)}
+     * @return 帧, 内容未初始化
+     */
+    public synchronized VideoFrame acquire(int width, int height, int channels, int pixelFormat) {
+        VideoFrame frame = slot(width, height, channels, pixelFormat).free.pollLast();
+        if (frame != null) {
+            hits++;
+            frame.key = false;
+            return frame;
+        }
+        misses++;
+        return new VideoFrame(width, height, channels, pixelFormat);
+    }
+
+    /**
+     * 归还一帧
+     * @param frame 由{@link #acquire}获取的帧, 可为null
+     */
+    public synchronized void release(VideoFrame frame) {
+        if (frame == null) {
+            return;
+        }
+        slot(frame.width, frame.height, frame.channels, frame.pixelFormat).free.addLast(frame);
+    }
+
+    /**
+     * 释放池中所有空闲的帧, 已被获取的需要先归还
+     */
+    public synchronized void clear() {
+        for (Slot slot : slots) {
+            VideoFrame frame;
+            while ((frame = slot.free.pollLast()) != null) {
+                frame.close();
+            }
+        }
+        slots.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "VideoFramePool{hits=" + hits + ", misses=" + misses + "}";
+    }
+
+    private Slot slot(int width, int height, int channels, int pixelFormat) {
+        for (int i = 0, size = slots.size(); i < size; i++) {
+            Slot slot = slots.get(i);
+            if (slot.width == width && slot.height == height
+                    && slot.channels == channels && slot.pixelFormat == pixelFormat) {
+                return slot;
+            }
+        }
+        Slot slot = new Slot(width, height, channels, pixelFormat);
+        slots.add(slot);
+        return slot;
+    }
+
+    static class Slot {
+        final int width;
+        final int height;
+        final int channels;
+        final int pixelFormat;
+        final ArrayDeque<VideoFrame> free = new ArrayDeque<>();
+
+        Slot(int width, int height, int channels, int pixelFormat) {
+            this.width = width;
+            this.height = height;
+            this.channels = channels;
+            this.pixelFormat = pixelFormat;
+        }
+    }
+
+}
@@ -19,4 +19,11 @@ public class CanvasUtils {
         STROKE_GREEN.setStrokeWidth(10);
     }
 
+    public static final Paint STROKE_THIN_RED = new Paint();
+    static {
+        STROKE_THIN_RED.setColor(Color.RED);
+        STROKE_THIN_RED.setStyle(Paint.Style.STROKE);
+        STROKE_THIN_RED.setStrokeWidth(1);
+    }
+
 }
@@ -0,0 +1,73 @@
+package net.allape.housedog.util;
+
+import org.bytedeco.opencv.opencv_core.IplImage;
+
+import static org.bytedeco.opencv.global.opencv_core.cvReleaseImage;
+
+/**
+ * 按尺寸复用的{@link IplImage}池, 查找和计数见{@link SizedPool}
+ * 稳定后获取/归还都不会再分配内存, 尺寸变化后应重新创建
+ * 非线程安全
+ */
+public class FramePool {
+
+    // 图片池, 按 宽/高/深度/通道数 区分
+    private final SizedPool<IplImage> images = new SizedPool<>();
+
+    /**
+     * 获取一个图片, 池中没有时新建
+     * @param width 宽度
+     * @param height 高度
+     * @param depth 深度, 例如{@link org.bytedeco.opencv.global.opencv_core#IPL_DEPTH_8U}
+     * @param channels 通道数
+     * @return 图片, 内容未初始化
+     */
+    public IplImage acquireImage(int width, int height, int depth, int channels) {
+        IplImage image = images.poll(width, height, depth, channels);
+        if (image != null) {
+            return image;
+        }
+        return IplImage.create(width, height, depth, channels);
+    }
+
+    /**
+     * 归还图片
+     * @param image 由{@link #acquireImage}获取的图片, 可为null
+     */
+    public void releaseImage(IplImage image) {
+        if (image == null) {
+            return;
+        }
+        images.offer(image, image.width(), image.height(), image.depth(), image.nChannels());
+    }
+
+    /**
+     * 释放池中所有空闲的图片, 已被获取的需要先归还
+     */
+    public void clear() {
+        images.clear(image -> {
+            image.close();
+            cvReleaseImage(image);
+        });
+    }
+
+    /**
+     * @return 命中次数
+     */
+    public long getHits() {
+        return images.getHits();
+    }
+
+    /**
+     * @return 未命中(新建)次数
+     */
+    public long getMisses() {
+        return images.getMisses();
+    }
+
+    @Override
+    public String toString() {
+        return "FramePool{hits=" + getHits() + ", misses=" + getMisses() + "}";
+    }
+
+}
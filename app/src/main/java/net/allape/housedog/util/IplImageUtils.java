@@ -8,6 +8,8 @@ import android.renderscript.ScriptIntrinsicYuvToRGB;
 
 import org.bytedeco.opencv.opencv_core.IplImage;
 
+import java.nio.ByteBuffer;
+
 import static org.bytedeco.opencv.global.opencv_core.IPL_DEPTH_8U;
 
 public class IplImageUtils {
@@ -18,13 +20,57 @@ public class IplImageUtils {
         return bitmap;
     }
 
+    /**
+     * 将图片内容复制到已有的bitmap中, 尺寸需一致
+     * @param iplImage 图片
+     * @param bitmap 目标bitmap
+     */
+    public static void copyToBitmap(IplImage iplImage, Bitmap bitmap) {
+        bitmap.copyPixelsFromBuffer(iplImage.createBuffer());
+    }
+
+    /**
+     * 将紧密排列的单通道数据按行复制到图片中
+     * @param bytes 数据, 行跨度为width
+     * @param width 宽度
+     * @param dst 单通道的目标图片
+     */
+    public static void copyFromBytes(byte[] bytes, int width, IplImage dst) {
+        ByteBuffer buffer = dst.createBuffer();
+        int widthStep = dst.widthStep();
+        for (int y = 0, height = dst.height(); y < height; y++) {
+            buffer.position(y * widthStep);
+            buffer.put(bytes, y * width, width);
+        }
+    }
+
     public static IplImage bitmapToIplImage(Bitmap bitmap, int type, int channels) {
         IplImage iplImage = IplImage.create(bitmap.getWidth(), bitmap.getHeight(), type, channels);
         bitmap.copyPixelsToBuffer(iplImage.createBuffer());
         return iplImage;
     }
 
+    /**
+     * @deprecated 每次调用都会创建脚本/内存/bitmap, 连续的帧请使用{@link YuvToRgbConverter}
+     */
+    @Deprecated
     public static IplImage fromYUVBytes(RenderScript renderScript, int width, int height, byte[] bytes) {
+        IplImage iplImage = IplImage.create(width, height, IPL_DEPTH_8U, 4);
+        fromYUVBytes(renderScript, width, height, bytes, iplImage);
+        return iplImage;
+    }
+
+    /**
+     * YUV转为RGBA, 写入已有的图片中
+     * @deprecated 每次调用都会创建脚本/内存/bitmap, 连续的帧请使用{@link YuvToRgbConverter}
+     * @param renderScript 脚本器
+     * @param width 宽度
+     * @param height 高度
+     * @param bytes YUV数据
+     * @param dst 4通道的目标图片, 尺寸需一致
+     */
+    @Deprecated
+    public static void fromYUVBytes(RenderScript renderScript, int width, int height, byte[] bytes, IplImage dst) {
         final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
         final Allocation allocationRgb = Allocation.createFromBitmap(renderScript, bitmap);
         final Allocation allocationYuv = Allocation.createSized(renderScript, Element.U8(renderScript), bytes.length);
@@ -36,7 +82,7 @@ public class IplImageUtils {
         allocationRgb.copyTo(bitmap);
 
         try {
-            return bitmapToIplImage(bitmap, IPL_DEPTH_8U, 4);
+            bitmap.copyPixelsToBuffer(dst.createBuffer());
         } finally {
             allocationYuv.destroy();
             allocationRgb.destroy();
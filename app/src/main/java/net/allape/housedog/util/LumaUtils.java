@@ -0,0 +1,40 @@
+package net.allape.housedog.util;
+
+import java.nio.ByteBuffer;
+
+public final class LumaUtils {
+
+    /**
+     * 从YUV_420_888的Y平面直接按比例采样出亮度图, 并顺时针旋转90度 (与RGB流程中的 transpose + flip 结果一致)
+     * 输出图像的宽为 height / scale, 高为 width / scale
+     * @param plane Y平面
+     * @param rowStride Y平面的行跨度
+     * @param pixelStride Y平面的像素跨度
+     * @param width 原图宽度
+     * @param height 原图高度
+     * @param scale 缩放比例
+     * @param dst 输出的单通道缓冲, 只写不改position
+     * @param dstStride 输出的行跨度, 不小于 height / scale
+     */
+    public static void downsampleRotated(ByteBuffer plane, int rowStride, int pixelStride,
+                                         int width, int height, int scale,
+                                         ByteBuffer dst, int dstStride) {
+        int base = plane.position();
+        int dstBase = dst.position();
+        // 采样后的尺寸
+        int sampledWidth = width / scale;
+        int sampledHeight = height / scale;
+        int columnStep = scale * pixelStride;
+        int rowStep = scale * rowStride;
+        // 输出的第r行对应采样图的第r列, 第c列对应采样图的第(sampledHeight - 1 - c)行
+        int lastRow = base + (sampledHeight - 1) * rowStep;
+        for (int r = 0; r < sampledWidth; r++) {
+            int src = lastRow + r * columnStep;
+            int out = dstBase + r * dstStride;
+            for (int c = 0; c < sampledHeight; c++, src -= rowStep) {
+                dst.put(out + c, plane.get(src));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package net.allape.housedog.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按 宽/高/深度/通道数 区分的空闲对象池, 只负责查找和计数, 对象的创建和释放由调用方负责
+ * 尺寸种类很少, 所以使用线性查找, 稳定后获取/归还都不会再分配内存
+ * 非线程安全
+ * @param <T> 对象类型
+ */
+class SizedPool<T> {
+
+    // 按尺寸区分的空闲对象
+    private final List<Slot<T>> slots = new ArrayList<>();
+
+    // 命中次数
+    private long hits = 0L;
+    // 未命中次数
+    private long misses = 0L;
+
+    /**
+     * 取出一个该尺寸的空闲对象, 最后归还的优先
+     * @return 没有时为null, 记为一次未命中, 由调用方新建
+     */
+    T poll(int width, int height, int depth, int channels) {
+        T item = slot(width, height, depth, channels).free.pollLast();
+        if (item != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return item;
+    }
+
+    /**
+     * 归还一个对象
+     * @param item 对象
+     */
+    void offer(T item, int width, int height, int depth, int channels) {
+        slot(width, height, depth, channels).free.addLast(item);
+    }
+
+    /**
+     * 取出所有空闲对象交给调用方释放, 已被获取的不受影响
+     * @param releaser 释放
+     */
+    void clear(Releaser<T> releaser) {
+        for (Slot<T> slot : slots) {
+            T item;
+            while ((item = slot.free.pollLast()) != null) {
+                releaser.release(item);
+            }
+        }
+        slots.clear();
+    }
+
+    /**
+     * @return 命中次数
+     */
+    long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return 未命中次数
+     */
+    long getMisses() {
+        return misses;
+    }
+
+    private Slot<T> slot(int width, int height, int depth, int channels) {
+        for (int i = 0, size = slots.size(); i < size; i++) {
+            Slot<T> slot = slots.get(i);
+            if (slot.width == width && slot.height == height && slot.depth == depth && slot.channels == channels) {
+                return slot;
+            }
+        }
+        Slot<T> slot = new Slot<>(width, height, depth, channels);
+        slots.add(slot);
+        return slot;
+    }
+
+    interface Releaser<T> {
+        /**
+         * 释放一个空闲对象
+         * @param item 对象
+         */
+        void release(T item);
+    }
+
+    static class Slot<T> {
+        final int width;
+        final int height;
+        final int depth;
+        final int channels;
+        final ArrayDeque<T> free = new ArrayDeque<>();
+
+        Slot(int width, int height, int depth, int channels) {
+            this.width = width;
+            this.height = height;
+            this.depth = depth;
+            this.channels = channels;
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+package net.allape.housedog.util;
+
+import android.os.Build;
+import android.renderscript.Allocation;
+import android.renderscript.Element;
+import android.renderscript.RenderScript;
+import android.renderscript.ScriptIntrinsicYuvToRGB;
+import android.renderscript.Type;
+
+import org.bytedeco.opencv.opencv_core.IplImage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 有状态的YUV转RGBA转换器, 脚本和内存只在创建时分配一次, 之后每帧复用
+ * 同一尺寸/格式只需创建一个, 尺寸或格式变化时用{@link #matches}判断后重新创建
+ * 非线程安全
+ */
+public class YuvToRgbConverter {
+
+    // 宽度
+    private final int width;
+    // 高度
+    private final int height;
+    // 输入格式, 例如{@link android.graphics.ImageFormat#NV21}
+    private final int format;
+
+    // 脚本器
+    private final RenderScript renderScript;
+    // 转换脚本
+    private final ScriptIntrinsicYuvToRGB script;
+    // 输入, 按 width * height * 3 / 2 分配
+    private final Allocation input;
+    // 输出, width * height 个RGBA
+    private final Allocation output;
+    // 输出的内存, API 23起可以直接读取, 否则为null
+    private final ByteBuffer outputBuffer;
+    // 输出的行跨度, 字节
+    private final int outputStride;
+    // 不能直接读取输出时的中转
+    private byte[] rgba;
+
+    /**
+     * @param renderScript 脚本器
+     * @param width 宽度
+     * @param height 高度
+     * @param format 输入格式, ScriptIntrinsicYuvToRGB只支持NV21排列
+     */
+    public YuvToRgbConverter(RenderScript renderScript, int width, int height, int format) {
+        this.width = width;
+        this.height = height;
+        this.format = format;
+
+        this.renderScript = renderScript;
+        this.script = ScriptIntrinsicYuvToRGB.create(renderScript, Element.U8_4(renderScript));
+        this.input = Allocation.createSized(renderScript, Element.U8(renderScript), width * height * 3 / 2);
+        Type rgbaType = new Type.Builder(renderScript, Element.RGBA_8888(renderScript))
+                .setX(width)
+                .setY(height)
+                .create();
+        this.output = Allocation.createTyped(renderScript, rgbaType, Allocation.USAGE_SCRIPT | Allocation.USAGE_SHARED);
+        this.script.setInput(input);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            this.outputBuffer = output.getByteBuffer();
+            this.outputStride = (int) output.getStride();
+        } else {
+            this.outputBuffer = null;
+            this.outputStride = width * 4;
+        }
+    }
+
+    /**
+     * 是否可以用于该尺寸和格式
+     * @param width 宽度
+     * @param height 高度
+     * @param format 格式
+     * @return true/可以复用
+     */
+    public boolean matches(int width, int height, int format) {
+        return this.width == width && this.height == height && this.format == format;
+    }
+
+    /**
+     * 转换并写入调用方提供的数组
+     * @param yuv YUV数据
+     * @param length 有效长度, 不超过 width * height * 3 / 2, 不足部分沿用上一帧的数据
+     * @param dst RGBA输出, 长度至少为 width * height * 4
+     */
+    public void convert(byte[] yuv, int length, byte[] dst) {
+        input.copy1DRangeFrom(0, Math.min(length, input.getBytesSize()), yuv);
+        script.forEach(output);
+        output.copyTo(dst);
+    }
+
+    /**
+     * 转换并写入调用方提供的4通道图片
+     * 可以直接读取输出的内存时逐行复制到图片中, 只复制一次; 否则经过数组中转
+     * @param yuv YUV数据
+     * @param length 有效长度
+     * @param dst 4通道图片, 尺寸需一致
+     */
+    public void convert(byte[] yuv, int length, IplImage dst) {
+        ByteBuffer buffer = dst.createBuffer();
+        int rowBytes = width * 4;
+        int widthStep = dst.widthStep();
+
+        if (outputBuffer != null) {
+            input.copy1DRangeFrom(0, Math.min(length, input.getBytesSize()), yuv);
+            script.forEach(output);
+            // forEach是异步的, 直接读取共享内存前需要等脚本执行完
+            renderScript.finish();
+            if (widthStep == rowBytes && outputStride == rowBytes) {
+                outputBuffer.limit(rowBytes * height).position(0);
+                buffer.put(outputBuffer);
+                outputBuffer.clear();
+            } else {
+                for (int y = 0; y < height; y++) {
+                    outputBuffer.limit(y * outputStride + rowBytes).position(y * outputStride);
+                    buffer.position(y * widthStep);
+                    buffer.put(outputBuffer);
+                }
+                outputBuffer.clear();
+            }
+            return;
+        }
+
+        if (rgba == null) {
+            rgba = new byte[width * height * 4];
+        }
+        convert(yuv, length, rgba);
+        if (widthStep == rowBytes) {
+            buffer.put(rgba, 0, rgba.length);
+        } else {
+            for (int y = 0; y < height; y++) {
+                buffer.position(y * widthStep);
+                buffer.put(rgba, y * rowBytes, rowBytes);
+            }
+        }
+    }
+
+    /**
+     * 释放脚本和内存
+     */
+    public void destroy() {
+        script.destroy();
+        input.destroy();
+        output.destroy();
+        rgba = null;
+    }
+
+}
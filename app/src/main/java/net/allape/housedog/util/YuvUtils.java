@@ -0,0 +1,257 @@
+package net.allape.housedog.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * YUV_420_888 的平面打包为紧密排列的 NV21 (YYYY...VUVU) 或 I420 (YYYY...UU...VV)
+ * 支持任意的 rowStride/pixelStride, 平面本身已是所需排列时整块复制
+ * 所有方法都从各缓冲的position开始读写, 不改变position, 也不分配内存
+ * 宽高需为偶数
+ */
+public final class YuvUtils {
+
+    /**
+     * @param width 宽度
+     * @param height 高度
+     * @return 打包后的NV21/I420字节数
+     */
+    public static int yuv420Size(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    /**
+     * 打包为NV21, 只能对堆内缓冲判断V平面和U平面是否是同一块内存, 见{@link #isInterleavedVU(ByteBuffer, ByteBuffer, int)}
+     * @param width 宽度
+     * @param height 高度
+     * @param y Y平面
+     * @param yRowStride Y平面行跨度
+     * @param yPixelStride Y平面像素跨度
+     * @param u U平面
+     * @param v V平面
+     * @param uvRowStride U/V平面行跨度
+     * @param uvPixelStride U/V平面像素跨度
+     * @param dst 输出, 剩余空间至少为{@link #yuv420Size}
+     */
+    public static void toNV21(int width, int height,
+                              ByteBuffer y, int yRowStride, int yPixelStride,
+                              ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride,
+                              ByteBuffer dst) {
+        toNV21(width, height, y, yRowStride, yPixelStride, u, v, uvRowStride, uvPixelStride,
+                isInterleavedVU(u, v, width * height / 2), dst);
+    }
+
+    /**
+     * 打包为NV21
+     * @param width 宽度
+     * @param height 高度
+     * @param y Y平面
+     * @param yRowStride Y平面行跨度
+     * @param yPixelStride Y平面像素跨度
+     * @param u U平面
+     * @param v V平面
+     * @param uvRowStride U/V平面行跨度
+     * @param uvPixelStride U/V平面像素跨度
+     * @param interleavedVU V平面和U平面是否是同一块VUVU...内存, 直接缓冲由调用方比较地址判断, 见{@link #isInterleavedVU(long, long)}
+     * @param dst 输出, 剩余空间至少为{@link #yuv420Size}
+     */
+    public static void toNV21(int width, int height,
+                              ByteBuffer y, int yRowStride, int yPixelStride,
+                              ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride,
+                              boolean interleavedVU, ByteBuffer dst) {
+        int dstBase = dst.position();
+        copyPlane(y, yRowStride, yPixelStride, width, height, dst, dstBase, width, 1);
+
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        int chromaBase = dstBase + width * height;
+        int chromaSize = chromaWidth * chromaHeight * 2;
+
+        if (interleavedVU && uvPixelStride == 2 && uvRowStride == width
+                && v.remaining() >= chromaSize - 1 && u.remaining() >= chromaSize - 1) {
+            // V平面本身就是VUVU..., 只差最后一个U
+            copyRange(v, v.position(), dst, chromaBase, chromaSize - 1);
+            dst.put(chromaBase + chromaSize - 1, u.get(u.position() + chromaSize - 2));
+            return;
+        }
+
+        copyPlane(v, uvRowStride, uvPixelStride, chromaWidth, chromaHeight, dst, chromaBase, width, 2);
+        copyPlane(u, uvRowStride, uvPixelStride, chromaWidth, chromaHeight, dst, chromaBase + 1, width, 2);
+    }
+
+    /**
+     * 打包为I420 (YUV420P)
+     * @param width 宽度
+     * @param height 高度
+     * @param y Y平面
+     * @param yRowStride Y平面行跨度
+     * @param yPixelStride Y平面像素跨度
+     * @param u U平面
+     * @param v V平面
+     * @param uvRowStride U/V平面行跨度
+     * @param uvPixelStride U/V平面像素跨度
+     * @param dst 输出, 剩余空间至少为{@link #yuv420Size}
+     */
+    public static void toI420(int width, int height,
+                              ByteBuffer y, int yRowStride, int yPixelStride,
+                              ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride,
+                              ByteBuffer dst) {
+        int dstBase = dst.position();
+        copyPlane(y, yRowStride, yPixelStride, width, height, dst, dstBase, width, 1);
+
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        int uBase = dstBase + width * height;
+        int vBase = uBase + chromaWidth * chromaHeight;
+        copyPlane(u, uvRowStride, uvPixelStride, chromaWidth, chromaHeight, dst, uBase, chromaWidth, 1);
+        copyPlane(v, uvRowStride, uvPixelStride, chromaWidth, chromaHeight, dst, vBase, chromaWidth, 1);
+    }
+
+    /**
+     * 按整数倍隔点采样缩小并打包为NV21, 输出尺寸为 width / factor * height / factor
+     * @param width 原图宽度
+     * @param height 原图高度
+     * @param factor 缩小倍数, 输出的宽高需为偶数
+     * @param y Y平面
+     * @param yRowStride Y平面行跨度
+     * @param yPixelStride Y平面像素跨度
+     * @param u U平面
+     * @param v V平面
+     * @param uvRowStride U/V平面行跨度
+     * @param uvPixelStride U/V平面像素跨度
+     * @param dst 输出, 剩余空间至少为缩小后的{@link #yuv420Size}
+     */
+    public static void downscaleToNV21(int width, int height, int factor,
+                                       ByteBuffer y, int yRowStride, int yPixelStride,
+                                       ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride,
+                                       ByteBuffer dst) {
+        if (factor == 1) {
+            toNV21(width, height, y, yRowStride, yPixelStride, u, v, uvRowStride, uvPixelStride, dst);
+            return;
+        }
+        int dstWidth = width / factor;
+        int dstHeight = height / factor;
+        int dstBase = dst.position();
+        copyPlane(y, yRowStride * factor, yPixelStride * factor, dstWidth, dstHeight, dst, dstBase, dstWidth, 1);
+
+        int chromaBase = dstBase + dstWidth * dstHeight;
+        int chromaWidth = dstWidth / 2;
+        int chromaHeight = dstHeight / 2;
+        copyPlane(v, uvRowStride * factor, uvPixelStride * factor, chromaWidth, chromaHeight, dst, chromaBase, dstWidth, 2);
+        copyPlane(u, uvRowStride * factor, uvPixelStride * factor, chromaWidth, chromaHeight, dst, chromaBase + 1, dstWidth, 2);
+    }
+
+    /**
+     * 按整数倍隔点采样缩小并打包为I420 (YUV420P), 输出尺寸为 width / factor * height / factor
+     * @param width 原图宽度
+     * @param height 原图高度
+     * @param factor 缩小倍数, 输出的宽高需为偶数
+     * @param y Y平面
+     * @param yRowStride Y平面行跨度
+     * @param yPixelStride Y平面像素跨度
+     * @param u U平面
+     * @param v V平面
+     * @param uvRowStride U/V平面行跨度
+     * @param uvPixelStride U/V平面像素跨度
+     * @param dst 输出, 剩余空间至少为缩小后的{@link #yuv420Size}
+     */
+    public static void downscaleToI420(int width, int height, int factor,
+                                       ByteBuffer y, int yRowStride, int yPixelStride,
+                                       ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride,
+                                       ByteBuffer dst) {
+        if (factor == 1) {
+            toI420(width, height, y, yRowStride, yPixelStride, u, v, uvRowStride, uvPixelStride, dst);
+            return;
+        }
+        int dstWidth = width / factor;
+        int dstHeight = height / factor;
+        int dstBase = dst.position();
+        copyPlane(y, yRowStride * factor, yPixelStride * factor, dstWidth, dstHeight, dst, dstBase, dstWidth, 1);
+
+        int chromaWidth = dstWidth / 2;
+        int chromaHeight = dstHeight / 2;
+        int uBase = dstBase + dstWidth * dstHeight;
+        int vBase = uBase + chromaWidth * chromaHeight;
+        copyPlane(u, uvRowStride * factor, uvPixelStride * factor, chromaWidth, chromaHeight, dst, uBase, chromaWidth, 1);
+        copyPlane(v, uvRowStride * factor, uvPixelStride * factor, chromaWidth, chromaHeight, dst, vBase, chromaWidth, 1);
+    }
+
+    /**
+     * 判断V平面和U平面是否是同一块VUVU...内存, 只读取缓冲的属性, 不读写内容
+     * 只能判断堆内缓冲, 直接缓冲(例如Image.Plane)视为否, 由调用方比较地址, 见{@link #isInterleavedVU(long, long)}
+     * @param u U平面
+     * @param v V平面
+     * @param chromaSize 交错后的色度字节数
+     * @return true/可以直接整块复制V平面
+     */
+    static boolean isInterleavedVU(ByteBuffer u, ByteBuffer v, int chromaSize) {
+        if (v.remaining() < chromaSize - 1 || u.remaining() < chromaSize - 1) {
+            return false;
+        }
+        if (!u.hasArray() || !v.hasArray() || u.array() != v.array()) {
+            return false;
+        }
+        return u.arrayOffset() + u.position() == v.arrayOffset() + v.position() + 1;
+    }
+
+    /**
+     * 根据两个平面当前position处的地址判断V平面和U平面是否是同一块VUVU...内存
+     * @param uAddress U平面的地址
+     * @param vAddress V平面的地址
+     * @return true/U平面从V平面的第二个字节开始
+     */
+    public static boolean isInterleavedVU(long uAddress, long vAddress) {
+        return uAddress != 0 && uAddress == vAddress + 1;
+    }
+
+    /**
+     * 复制一个平面
+     * @param src 源平面
+     * @param rowStride 源行跨度
+     * @param pixelStride 源像素跨度
+     * @param width 一行的像素数
+     * @param height 行数
+     * @param dst 输出
+     * @param dstOffset 输出的绝对起始下标
+     * @param dstRowStride 输出的行跨度
+     * @param dstPixelStride 输出的像素跨度
+     */
+    private static void copyPlane(ByteBuffer src, int rowStride, int pixelStride,
+                                  int width, int height,
+                                  ByteBuffer dst, int dstOffset, int dstRowStride, int dstPixelStride) {
+        int srcBase = src.position();
+        if (pixelStride == 1 && dstPixelStride == 1) {
+            if (rowStride == width && dstRowStride == width) {
+                copyRange(src, srcBase, dst, dstOffset, width * height);
+            } else {
+                for (int row = 0; row < height; row++) {
+                    copyRange(src, srcBase + row * rowStride, dst, dstOffset + row * dstRowStride, width);
+                }
+            }
+            return;
+        }
+        for (int row = 0; row < height; row++) {
+            int s = srcBase + row * rowStride;
+            int d = dstOffset + row * dstRowStride;
+            for (int col = 0; col < width; col++, s += pixelStride, d += dstPixelStride) {
+                dst.put(d, src.get(s));
+            }
+        }
+    }
+
+    /**
+     * 整块复制, 复制后恢复两个缓冲的position和limit
+     */
+    private static void copyRange(ByteBuffer src, int srcIndex, ByteBuffer dst, int dstIndex, int length) {
+        int srcPosition = src.position();
+        int srcLimit = src.limit();
+        int dstPosition = dst.position();
+        src.limit(srcIndex + length);
+        src.position(srcIndex);
+        dst.position(dstIndex);
+        dst.put(src);
+        src.limit(srcLimit);
+        src.position(srcPosition);
+        dst.position(dstPosition);
+    }
+
+}
@@ -16,43 +16,57 @@ import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CaptureRequest;
 import android.media.Image;
 import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.renderscript.RenderScript;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 
+import net.allape.housedog.detector.Blob;
+import net.allape.housedog.detector.BlobMotionDetector;
+import net.allape.housedog.detector.MotionDetector;
+import net.allape.housedog.detector.MotionResult;
+import net.allape.housedog.detector.RunningAverageMotionDetector;
+import net.allape.housedog.pipeline.DropPolicy;
+import net.allape.housedog.pipeline.FramePacer;
+import net.allape.housedog.pipeline.FrameQueue;
+import net.allape.housedog.pipeline.FrameRateScheduler;
+import net.allape.housedog.pipeline.FrameStats;
+import net.allape.housedog.pipeline.LatencyHistogram;
+import net.allape.housedog.pipeline.LatencyRegistry;
 import net.allape.housedog.util.CanvasUtils;
+import net.allape.housedog.util.FramePool;
 import net.allape.housedog.util.IplImageUtils;
+import net.allape.housedog.util.LumaUtils;
+import net.allape.housedog.util.YuvToRgbConverter;
+import net.allape.housedog.util.YuvUtils;
 
-import org.bytedeco.javacpp.Loader;
-import org.bytedeco.opencv.opencv_core.CvContour;
-import org.bytedeco.opencv.opencv_core.CvMemStorage;
-import org.bytedeco.opencv.opencv_core.CvSeq;
+import org.bytedeco.javacpp.BytePointer;
 import org.bytedeco.opencv.opencv_core.IplImage;
 
 import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import pub.devrel.easypermissions.EasyPermissions;
 
 import static org.bytedeco.opencv.global.opencv_core.IPL_DEPTH_8U;
-import static org.bytedeco.opencv.global.opencv_core.cvAbsDiff;
 import static org.bytedeco.opencv.global.opencv_core.cvFlip;
-import static org.bytedeco.opencv.global.opencv_core.cvReleaseImage;
 import static org.bytedeco.opencv.global.opencv_core.cvTranspose;
-import static org.bytedeco.opencv.global.opencv_imgproc.CV_CHAIN_APPROX_SIMPLE;
 import static org.bytedeco.opencv.global.opencv_imgproc.CV_GRAY2BGRA;
-import static org.bytedeco.opencv.global.opencv_imgproc.CV_RETR_LIST;
 import static org.bytedeco.opencv.global.opencv_imgproc.CV_RGB2GRAY;
-import static org.bytedeco.opencv.global.opencv_imgproc.CV_THRESH_BINARY;
 import static org.bytedeco.opencv.global.opencv_imgproc.cvCvtColor;
 import static org.bytedeco.opencv.global.opencv_imgproc.cvResize;
-import static org.bytedeco.opencv.global.opencv_imgproc.cvThreshold;
-import static org.bytedeco.opencv.helper.opencv_imgproc.cvFindContours;
 
 @SuppressLint("ViewConstructor")
 public class MotionDetectionView extends androidx.appcompat.widget.AppCompatImageView implements ImageReader.OnImageAvailableListener {
@@ -61,6 +75,19 @@ public class MotionDetectionView extends androidx.appcompat.widget.AppCompatImag
 
     // 默认格式
     public static final int FORMAT = ImageFormat.YUV_420_888;
+    // 每处理多少帧输出一次帧统计
+    private static final int STATS_LOG_INTERVAL = 600;
+
+    // 各阶段耗时
+    private static final LatencyHistogram STAGE_CALLBACK = LatencyRegistry.stage("camera.callback");
+    private static final LatencyHistogram STAGE_LUMA = LatencyRegistry.stage("detect.luma");
+    private static final LatencyHistogram STAGE_YUV = LatencyRegistry.stage("detect.yuv");
+    private static final LatencyHistogram STAGE_RGB = LatencyRegistry.stage("detect.rgb");
+    private static final LatencyHistogram STAGE_SCALE = LatencyRegistry.stage("detect.scale");
+    private static final LatencyHistogram STAGE_MOTION = LatencyRegistry.stage("detect.motion");
+    private static final LatencyHistogram STAGE_PREVIEW = LatencyRegistry.stage("detect.preview");
+    private static final LatencyHistogram STAGE_LISTENER = LatencyRegistry.stage("detect.listener");
+    private static final LatencyHistogram STAGE_FRAME = LatencyRegistry.stage("detect.frame");
 
     // 摄像头管理器
     private final CameraManager cameraManager;
@@ -74,13 +101,27 @@ public class MotionDetectionView extends androidx.appcompat.widget.AppCompatImag
     // 摄像头是否打开闪光灯
     private boolean flashLightEnabled = true;
 
-    // 直播帧读取器
+    // 直播帧读取器, 只在摄像头线程中访问
     private ImageReader frameReader;
 
-    // 打开了的摄像头
+    // 打开了的摄像头, 只在摄像头线程中访问
     private CameraDevice camera;
+    // 每次关闭摄像头加一, 关闭之后才回调的打开结果直接关闭, 只在摄像头线程中访问
+    private int cameraGeneration = 0;
     // 当前监控session
-    private CameraCaptureSession session;
+    private volatile CameraCaptureSession session;
+
+    // 摄像头回调线程, 负责打开摄像头和获取帧
+    private final HandlerThread cameraThread;
+    private final Handler cameraHandler;
+    // 运动监测线程, 打开摄像头时创建, 关闭时结束
+    private Thread detectionThread;
+    // 摄像头线程交给监测线程的帧
+    private volatile FrameQueue<Image> frameQueue;
+    // 交接队列容量
+    private int frameQueueCapacity = 1;
+    // 交接队列满时的丢弃策略
+    private DropPolicy dropPolicy = DropPolicy.DROP_OLDEST;
 
     // 宽度
     private int width;
@@ -88,10 +129,22 @@ public class MotionDetectionView extends androidx.appcompat.widget.AppCompatImag
     private int height;
     // 帧率
     private int frameRate = 30;
-    // 单帧时长(ms), 小于该时长的全部丢弃
-    private long singleFrameDuration = 1000 / frameRate;
-    // 上一帧的处理的时间 ms
-    private long lastTime = 0L;
+    // 单帧时长(ns), 按传感器时间戳小于该时长的全部丢弃
+    private long singleFrameDuration = 1_000_000_000L / frameRate;
+    // 按传感器时间戳控制帧率, 只在摄像头线程中使用
+    private final FramePacer framePacer = new FramePacer();
+    // 帧的统计
+    private final FrameStats frameStats = new FrameStats();
+    // 空闲帧率, 0/不调整帧率
+    private int idleFrameRate = 0;
+    // 多久没有运动后降为空闲帧率, ms
+    private long quietPeriod = 0L;
+    // 帧率变化时是否同时调整摄像头的目标帧率范围
+    private boolean adjustCaptureFrameRate = false;
+    // 按运动情况调整帧率, 打开摄像头时创建, null/固定帧率
+    private volatile FrameRateScheduler frameRateScheduler;
+    // 重复请求, 调整目标帧率范围时复用
+    private volatile CaptureRequest.Builder captureRequest;
 
     // 运动监测敏感度/图片缩放比例
     private int scale = 8;
@@ -100,10 +153,36 @@ public class MotionDetectionView extends androidx.appcompat.widget.AppCompatImag
 
     // 脚本器
     private final RenderScript renderScript;
-    // 差异存储器
-    private final CvMemStorage storage = CvMemStorage.create();
-    // 对于对比的上一帧
-    private IplImage lastFrame;
+    // YUV转RGBA, 按尺寸复用
+    private YuvToRgbConverter yuvConverter;
+    // 指定的运动检测引擎, 为null时使用按diffThreshold创建的背景对比 + 连通区域检测
+    private MotionDetector motionDetector;
+    // 当前使用的运动检测引擎, 打开摄像头时确定
+    private MotionDetector activeDetector;
+    // 帧缓存池, 打开摄像头时创建, 关闭时释放
+    private FramePool framePool;
+    // 复用的原始YUV数据, NV21排列
+    private byte[] yuvBytes;
+    private ByteBuffer yuvBuffer;
+    // 色度平面是否是同一块VUVU...内存, 同一次打开摄像头内不变, 在第一帧RGB转换时判断, null/还未判断
+    private Boolean interleavedVU;
+    // 预览双缓冲, 监测线程写入一张时主线程显示另一张
+    private final Bitmap[] previewBitmaps = new Bitmap[2];
+    private final Canvas[] previewCanvases = new Canvas[2];
+    private final Rect previewRect = new Rect();
+    // 下一帧预览写入的下标
+    private int previewIndex = 0;
+    // 是否有还未被主线程显示的预览, 有则跳过当前帧的预览
+    private final AtomicBoolean previewPending = new AtomicBoolean(false);
+    // 交给主线程显示的预览
+    private volatile Bitmap previewToShow;
+    private final Runnable showPreview = () -> {
+        setImageBitmap(previewToShow);
+        previewPending.set(false);
+    };
+
+    // 是否只使用亮度(Y平面)进行运动监测, 跳过RGB转换, 可在主线程中切换, 监测线程每帧读取一次
+    private volatile boolean lumaOnly = false;
 
     private final Activity activity;
     private final MotionDetectionListener listener;
@@ -124,6 +203,10 @@ public class MotionDetectionView extends androidx.appcompat.widget.AppCompatImag
         this.cameraManager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
         this.renderScript = RenderScript.create(activity);
 
+        this.cameraThread = new HandlerThread("HouseDog-Camera");
+        this.cameraThread.start();
+        this.cameraHandler = new Handler(cameraThread.getLooper());
+
         // 设置默认摄像头
         String[] cameras = this.cameraManager.getCameraIdList();
         if (this.cameraManager.getCameraIdList().length == 0) {
@@ -152,21 +235,79 @@ public class MotionDetectionView extends androidx.appcompat.widget.AppCompatImag
      * 关闭摄像头
      */
     public void close() {
-        if (lastFrame != null) {
-            lastFrame.close();
-            lastFrame = null;
+        // 先在摄像头线程中停止采集, 之后不会再有新的帧, 还未回调的打开结果也会被丢弃
+        runOnCameraThread(() -> {
+            cameraGeneration++;
+            captureRequest = null;
+            if (session != null) {
+                session.close();
+                session = null;
+            }
+            if (camera != null) {
+                camera.close();
+                camera = null;
+            }
+        });
+        // 停止交接, 等待监测线程处理完当前帧
+        if (frameQueue != null) {
+            frameQueue.close();
+            frameQueue = null;
+        }
+        if (detectionThread != null) {
+            try {
+                detectionThread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                Log.e(LOG_TAG, e.getMessage());
+            }
+            detectionThread = null;
+        }
+        if (framePool != null) {
+            Log.d(LOG_TAG, "frame pool released: " + framePool + ", " + frameStats);
+            framePool.clear();
+            framePool = null;
         }
-        if (frameReader != null) {
-            frameReader.close();
-            frameReader = null;
+        if (yuvConverter != null) {
+            yuvConverter.destroy();
+            yuvConverter = null;
         }
-        if (session != null) {
-            session.close();
-            session = null;
+        yuvBytes = null;
+        interleavedVU = null;
+        yuvBuffer = null;
+        // 所有帧都已关闭, 在回调所在的线程中关闭读取器, 不与onImageAvailable并发
+        runOnCameraThread(() -> {
+            if (frameReader != null) {
+                frameReader.close();
+                frameReader = null;
+            }
+        });
+    }
+
+    /**
+     * 在摄像头线程中执行并等待完成, 摄像头线程已结束时不执行
+     * @param task 任务
+     */
+    private void runOnCameraThread(Runnable task) {
+        if (Looper.myLooper() == cameraThread.getLooper()) {
+            task.run();
+            return;
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        boolean posted = cameraHandler.post(() -> {
+            try {
+                task.run();
+            } finally {
+                done.countDown();
+            }
+        });
+        if (!posted) {
+            return;
         }
-        if (camera != null) {
-            camera.close();
-            camera = null;
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.e(LOG_TAG, "interrupted while waiting for camera thread");
         }
     }
 
@@ -175,12 +316,10 @@ public class MotionDetectionView extends androidx.appcompat.widget.AppCompatImag
      */
     public void destroy() {
         close();
+        cameraThread.quitSafely();
         if (renderScript != null) {
             renderScript.destroy();
         }
-        if (storage != null) {
-            storage.close();
-        }
     }
 
     /**
@@ -207,12 +346,13 @@ public class MotionDetectionView extends androidx.appcompat.widget.AppCompatImag
      * @param diffThreshold 对比的差异阈值
      */
     public void resize(int width, int height, int frameRate, int scale, int diffThreshold) {
+        // 释放旧尺寸的帧池, 新的帧池在openCamera时按新尺寸重建
         close();
 
         this.width = width;
         this.height = height;
         this.frameRate = frameRate;
-        this.singleFrameDuration = 1000 / frameRate;
+        this.singleFrameDuration = 1_000_000_000L / frameRate;
         this.scale = scale;
         this.diffThreshold = diffThreshold;
 
@@ -231,16 +371,65 @@ public class MotionDetectionView extends androidx.appcompat.widget.AppCompatImag
         }
     }
 
+    /**
+     * 设置运动检测引擎 需手动调用{@link this#openCamera()}
+     * @param motionDetector 检测引擎, null/使用按diffThreshold创建的{@link RunningAverageMotionDetector}, 有任意连通区域即为运动
+     */
+    public void setMotionDetector(MotionDetector motionDetector) {
+        this.motionDetector = motionDetector;
+    }
+
+    /**
+     * 设置摄像头线程与监测线程之间的交接队列 需手动调用{@link this#openCamera()}
+     * @param capacity 队列容量
+     * @param dropPolicy 队列满时的丢弃策略
+     */
+    public void configureFrameQueue(int capacity, DropPolicy dropPolicy) {
+        this.frameQueueCapacity = capacity;
+        this.dropPolicy = dropPolicy;
+    }
+
+    /**
+     * 设置按运动情况调整帧率 需手动调用{@link this#openCamera()}
+     * @param idleFrameRate 空闲帧率, 0或不小于帧率时不调整
+     * @param quietPeriod 多久没有运动后降为空闲帧率, ms
+     * @param adjustCaptureFrameRate true/同时调整摄像头的{@link CaptureRequest#CONTROL_AE_TARGET_FPS_RANGE}, false/只丢弃多余的帧
+     */
+    public void configureFrameRateScheduler(int idleFrameRate, long quietPeriod, boolean adjustCaptureFrameRate) {
+        this.idleFrameRate = idleFrameRate;
+        this.quietPeriod = quietPeriod;
+        this.adjustCaptureFrameRate = adjustCaptureFrameRate;
+    }
+
     /**
      * 打开摄像头
      */
     @SuppressLint("MissingPermission")
     public void openCamera() {
         close();
-        activity.runOnUiThread(() -> {
-            // 相机画面监听器
-            frameReader = ImageReader.newInstance(width, height, FORMAT, 3);
-            frameReader.setOnImageAvailableListener(this, null);
+        framePool = new FramePool();
+        frameRateScheduler = idleFrameRate > 0 && idleFrameRate < frameRate
+                ? new FrameRateScheduler(frameRate, idleFrameRate, quietPeriod, this::onFrameRateChange)
+                : null;
+        activeDetector = motionDetector != null ? motionDetector : new BlobMotionDetector(new RunningAverageMotionDetector(diffThreshold), 1);
+        activeDetector.reset();
+
+        frameStats.reset();
+        cameraHandler.post(framePacer::reset);
+
+        FrameQueue<Image> queue = new FrameQueue<>(frameQueueCapacity, dropPolicy, image -> {
+            frameStats.onDroppedByQueue();
+            image.close();
+        });
+        frameQueue = queue;
+        detectionThread = new Thread(() -> detect(queue), "HouseDog-Detection");
+        detectionThread.start();
+
+        cameraHandler.post(() -> {
+            int generation = cameraGeneration;
+            // 相机画面监听器, 队列中的帧 + 处理中的一帧 + 获取中的一帧
+            frameReader = ImageReader.newInstance(width, height, FORMAT, frameQueueCapacity + 2);
+            frameReader.setOnImageAvailableListener(this, cameraHandler);
 
             MotionDetectionView self = this;
 
@@ -248,18 +437,28 @@ public class MotionDetectionView extends androidx.appcompat.widget.AppCompatImag
                 cameraManager.openCamera(cameraId, new CameraDevice.StateCallback() {
                     @Override
                     public void onOpened(@NonNull CameraDevice camera) {
+                        if (generation != cameraGeneration) {
+                            // 打开期间已关闭
+                            camera.close();
+                            return;
+                        }
                         self.camera = camera;
                         try {
                             CaptureRequest.Builder req = camera.createCaptureRequest(templateType);
                             req.addTarget(frameReader.getSurface());
                             req.set(CaptureRequest.FLASH_MODE, flashLightEnabled ? CaptureRequest.FLASH_MODE_TORCH : CaptureRequest.FLASH_MODE_OFF);
+                            captureRequest = req;
                             camera.createCaptureSession(
                                     Collections.singletonList(frameReader.getSurface()),
                                     new CameraCaptureSession.StateCallback() {
                                         @Override
                                         public void onConfigured(@NonNull CameraCaptureSession session) {
+                                            if (generation != cameraGeneration) {
+                                                session.close();
+                                                return;
+                                            }
                                             try {
-                                                session.setRepeatingRequest(req.build(), null, null);
+                                                session.setRepeatingRequest(req.build(), null, cameraHandler);
                                                 self.session = session;
                                             } catch (CameraAccessException e) {
                                                 e.printStackTrace();
@@ -269,7 +468,7 @@ public class MotionDetectionView extends androidx.appcompat.widget.AppCompatImag
                                         public void onConfigureFailed(@NonNull CameraCaptureSession session) {
                                             Log.e(LOG_TAG, "Failed to create capture session");
                                         }
-                                    }, null
+                                    }, cameraHandler
                             );
                         } catch (CameraAccessException e) {
                             e.printStackTrace();
@@ -291,7 +490,7 @@ public class MotionDetectionView extends androidx.appcompat.widget.AppCompatImag
                             default: Log.e(LOG_TAG, "Unknown");
                         }
                     }
-                }, null);
+                }, cameraHandler);
             } catch (CameraAccessException e) {
                 e.printStackTrace();
                 Log.v(LOG_TAG, e.getMessage());
@@ -299,6 +498,24 @@ public class MotionDetectionView extends androidx.appcompat.widget.AppCompatImag
         });
     }
 
+    /**
+     * 设置是否只使用亮度进行运动监测
+     * 开启后直接从{@link Image}的Y平面按{@link #scale}采样, 不再进行RenderScript的RGB转换,
+     * 此时{@link MotionDetectionListener#onFrame}的rawBytes和source为null
+     * @param lumaOnly true/只使用亮度
+     */
+    public void setLumaOnly(boolean lumaOnly) {
+        this.lumaOnly = lumaOnly;
+    }
+
+    /**
+     * 是否只使用亮度进行运动监测
+     * @return true/只使用亮度
+     */
+    public boolean isLumaOnly() {
+        return lumaOnly;
+    }
+
     /**
      * 是否开启
      * @return true/已开启摄像头
@@ -309,111 +526,336 @@ public class MotionDetectionView extends androidx.appcompat.widget.AppCompatImag
 
     @Override
     public void onImageAvailable(ImageReader reader) {
-        Image image = reader.acquireLatestImage();
+        long start = System.nanoTime();
+        try {
+            offerLatestImage(reader);
+        } finally {
+            STAGE_CALLBACK.recordSince(start);
+        }
+    }
 
-        if (System.currentTimeMillis() - lastTime < singleFrameDuration) {
-            if (image != null) {
-                image.close();
-            }
+    /**
+     * 取出最新的帧, 按帧率交给监测线程
+     * @param reader 摄像头画面
+     */
+    private void offerLatestImage(ImageReader reader) {
+        FrameQueue<Image> queue = frameQueue;
+        frameStats.onArrived();
+
+        Image image;
+        try {
+            // 更早的帧会被跳过, 记为ImageReader丢弃
+            image = reader.acquireLatestImage();
+        } catch (IllegalStateException e) {
+            // 已取出的帧达到maxImages, 监测线程跟不上
+            Log.w(LOG_TAG, e.getMessage());
             return;
         }
+        if (image == null) {
+            return;
+        }
+        long timestamp = image.getTimestamp();
+        frameStats.onAcquired(timestamp);
 
-        try {
-            if (image != null) {
-                // 原始数据
-                ByteBuffer yChannel = image.getPlanes()[0].getBuffer();
-                ByteBuffer vChannel = image.getPlanes()[2].getBuffer();
+        if (queue == null) {
+            image.close();
+            return;
+        }
 
-                int yChannelSize = yChannel.remaining();
-                int vChannelSize = vChannel.remaining();
+        FrameRateScheduler scheduler = frameRateScheduler;
+        long frameDuration = scheduler != null ? 1_000_000_000L / scheduler.getFrameRate() : singleFrameDuration;
+        if (!framePacer.accept(timestamp, frameDuration)) {
+            frameStats.onSkipped();
+            image.close();
+            return;
+        }
 
-                byte[] bytes = new byte[yChannelSize + vChannelSize];
+        queue.offer(image);
+    }
+
+    /**
+     * 监测线程的循环, 直到队列关闭
+     * @param queue 交接队列
+     */
+    private void detect(FrameQueue<Image> queue) {
+        try {
+            Image image;
+            while ((image = queue.take()) != null) {
+                try {
+                    long start = System.nanoTime();
+                    processFrame(image);
+                    STAGE_FRAME.recordSince(start);
+                    frameStats.onProcessed();
+                    if (frameStats.getProcessed() % STATS_LOG_INTERVAL == 0) {
+                        Log.i(LOG_TAG, frameStats.toString());
+                    }
+                } catch (Exception e) {
+                    frameStats.onFailed();
+                    e.printStackTrace();
+                    Log.e(LOG_TAG, e.getMessage());
+                } finally {
+                    image.close();
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.v(LOG_TAG, "detection interrupted");
+        }
+    }
 
-                yChannel.get(bytes, 0, yChannelSize);
-                vChannel.get(bytes, yChannelSize, vChannelSize);
+    /**
+     * 在监测线程中处理一帧
+     * @param image 摄像头的帧, 由调用方关闭
+     */
+    private void processFrame(Image image) {
+        // 原始数据, 仅RGB模式下有值
+        byte[] bytes = null;
+        IplImage sourceImage = null;
+        // 缩放并旋转后的灰度帧
+        IplImage curr = framePool.acquireImage(height / scale, width / scale, IPL_DEPTH_8U, 1);
+
+        // 中途出错时也要归还池中的图片, 否则池会一直新建
+        try {
+            long start = System.nanoTime();
+            if (lumaOnly) {
+                Image.Plane yPlane = image.getPlanes()[0];
+                LumaUtils.downsampleRotated(
+                        yPlane.getBuffer(), yPlane.getRowStride(), yPlane.getPixelStride(),
+                        width, height, scale,
+                        curr.createBuffer(), curr.widthStep()
+                );
+                STAGE_LUMA.recordSince(start);
+            } else {
+                int yuvSize = YuvUtils.yuv420Size(width, height);
+                if (yuvBytes == null || yuvBytes.length != yuvSize) {
+                    yuvBytes = new byte[yuvSize];
+                    yuvBuffer = ByteBuffer.wrap(yuvBytes);
+                }
+                bytes = yuvBytes;
 
-                lastTime = System.currentTimeMillis();
+                Image.Plane[] planes = image.getPlanes();
+                if (interleavedVU == null) {
+                    interleavedVU = isInterleavedVU(planes);
+                }
+                YuvUtils.toNV21(
+                        width, height,
+                        planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride(),
+                        planes[1].getBuffer(), planes[2].getBuffer(), planes[2].getRowStride(), planes[2].getPixelStride(),
+                        interleavedVU, yuvBuffer
+                );
+                STAGE_YUV.recordSince(start);
+
+                start = System.nanoTime();
+                sourceImage = framePool.acquireImage(width, height, IPL_DEPTH_8U, 4);
+                if (yuvConverter == null || !yuvConverter.matches(width, height, ImageFormat.NV21)) {
+                    if (yuvConverter != null) {
+                        yuvConverter.destroy();
+                    }
+                    yuvConverter = new YuvToRgbConverter(renderScript, width, height, ImageFormat.NV21);
+                }
+                yuvConverter.convert(bytes, bytes.length, sourceImage);
+                STAGE_RGB.recordSince(start);
 
-                // 运动监测
+                start = System.nanoTime();
+                IplImage resizedImage = framePool.acquireImage(width / scale, height / scale, sourceImage.depth(), sourceImage.nChannels());
+                IplImage rotatedImage = null;
                 try {
-                    IplImage sourceImage = IplImageUtils.fromYUVBytes(renderScript, width, height, bytes);
-                    IplImage resizedImage = IplImage.create(width / scale, height / scale, sourceImage.depth(), sourceImage.nChannels());
                     cvResize(sourceImage, resizedImage);
-                    IplImage rotatedImage = IplImage.create(resizedImage.height(), resizedImage.width(), resizedImage.depth(), resizedImage.nChannels());
+                    rotatedImage = framePool.acquireImage(resizedImage.height(), resizedImage.width(), resizedImage.depth(), resizedImage.nChannels());
                     cvTranspose(resizedImage, rotatedImage);
                     cvFlip(rotatedImage, rotatedImage, 1);
-                    if (lastFrame != null) {
-                        IplImage curr = IplImage.create(rotatedImage.width(), rotatedImage.height(), IPL_DEPTH_8U, 1);
-                        cvCvtColor(rotatedImage, curr, CV_RGB2GRAY);
+                    cvCvtColor(rotatedImage, curr, CV_RGB2GRAY);
+                } finally {
+                    framePool.releaseImage(rotatedImage);
+                    framePool.releaseImage(resizedImage);
+                }
+                STAGE_SCALE.recordSince(start);
+            }
 
-                        IplImage diff = IplImage.create(curr.width(), curr.height(), IPL_DEPTH_8U, 1);
-                        cvAbsDiff(curr, lastFrame, diff);
-                        cvThreshold(diff, diff, diffThreshold, 255, CV_THRESH_BINARY);
+            start = System.nanoTime();
+            MotionResult result = activeDetector.detect(curr.width(), curr.height(), curr.widthStep(), curr.createBuffer());
+            boolean moved = result.isMoved();
+            STAGE_MOTION.recordSince(start);
 
-                        CvSeq contour = new CvSeq(null);
-                        cvFindContours(diff, storage, contour, Loader.sizeof(CvContour.class), CV_RETR_LIST, CV_CHAIN_APPROX_SIMPLE);
-                        boolean moved = !contour.isNull() && contour.elem_size() > 0;
-                        contour.close();
-                        storage.free_space();
+            FrameRateScheduler scheduler = frameRateScheduler;
+            if (scheduler != null) {
+                scheduler.update(moved, SystemClock.elapsedRealtime());
+            }
 
-                        IplImage rgbaImage = IplImage.create(rotatedImage.width(), rotatedImage.height(), IPL_DEPTH_8U, 4);
-                        cvCvtColor(moved ? diff : curr, rgbaImage, CV_GRAY2BGRA);
+            // 主线程还没显示上一张预览时跳过本帧的预览
+            if (previewPending.compareAndSet(false, true)) {
+                start = System.nanoTime();
+                IplImage rgbaImage = framePool.acquireImage(curr.width(), curr.height(), IPL_DEPTH_8U, 4);
+                try {
+                    if (moved) {
+                        IplImage diff = framePool.acquireImage(curr.width(), curr.height(), IPL_DEPTH_8U, 1);
+                        try {
+                            IplImageUtils.copyFromBytes(result.getMask(), result.getWidth(), diff);
+                            cvCvtColor(diff, rgbaImage, CV_GRAY2BGRA);
+                        } finally {
+                            framePool.releaseImage(diff);
+                        }
+                    } else {
+                        cvCvtColor(curr, rgbaImage, CV_GRAY2BGRA);
+                    }
+                    drawPreview(rgbaImage, result);
+                } finally {
+                    framePool.releaseImage(rgbaImage);
+                }
+                STAGE_PREVIEW.recordSince(start);
+            }
 
-                        Bitmap displayBitmap = IplImageUtils.IplImageToBitmap(rgbaImage, Bitmap.Config.ARGB_8888);
+            // 回调
+            start = System.nanoTime();
+            listener.onFrame(image, bytes, sourceImage, curr, result);
+            STAGE_LISTENER.recordSince(start);
+        } finally {
+            framePool.releaseImage(curr);
+            framePool.releaseImage(sourceImage);
+        }
+    }
 
-                        Canvas diffCanvas = new Canvas(displayBitmap);
-                        diffCanvas.drawRect(
-                                new Rect(0, 0, displayBitmap.getWidth(), displayBitmap.getHeight()),
-                                moved ? CanvasUtils.STROKE_RED : CanvasUtils.STROKE_GREEN
-                        );
+    /**
+     * 比较U/V平面的地址, 判断色度是否是同一块VUVU...内存, 不读写平面内容
+     * @param planes YUV_420_888的平面
+     * @return true/可以直接整块复制V平面
+     */
+    private static boolean isInterleavedVU(Image.Plane[] planes) {
+        if (planes[1].getPixelStride() != 2) {
+            return false;
+        }
+        // slice之后地址从position开始
+        long u = new BytePointer(planes[1].getBuffer().slice()).address();
+        long v = new BytePointer(planes[2].getBuffer().slice()).address();
+        return YuvUtils.isInterleavedVU(u, v);
+    }
 
-                        setImageBitmap(displayBitmap);
+    /**
+     * 将帧画到后台的预览bitmap上, 并交给主线程显示
+     * @param rgbaImage 4通道的帧
+     * @param result 运动检测的结果, 有运动时画出连通区域
+     */
+    private void drawPreview(IplImage rgbaImage, MotionResult result) {
+        Bitmap bitmap = previewBitmaps[previewIndex];
+        if (bitmap == null
+                || bitmap.getWidth() != rgbaImage.width()
+                || bitmap.getHeight() != rgbaImage.height()) {
+            bitmap = Bitmap.createBitmap(rgbaImage.width(), rgbaImage.height(), Bitmap.Config.ARGB_8888);
+            previewBitmaps[previewIndex] = bitmap;
+            previewCanvases[previewIndex] = new Canvas(bitmap);
+        }
 
-                        rgbaImage.close();
-                        cvReleaseImage(rgbaImage);
+        IplImageUtils.copyToBitmap(rgbaImage, bitmap);
+        Canvas canvas = previewCanvases[previewIndex];
+        previewRect.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        canvas.drawRect(previewRect, result.isMoved() ? CanvasUtils.STROKE_RED : CanvasUtils.STROKE_GREEN);
+        if (result.isMoved()) {
+            List<Blob> blobs = result.getBlobs();
+            for (int i = 0, size = blobs.size(); i < size; i++) {
+                Blob blob = blobs.get(i);
+                previewRect.set(blob.getLeft(), blob.getTop(), blob.getRight() + 1, blob.getBottom() + 1);
+                canvas.drawRect(previewRect, CanvasUtils.STROKE_THIN_RED);
+            }
+        }
 
-                        // 回调
-                        listener.onFrame(bytes, sourceImage, lastFrame, curr, diff, moved);
+        previewIndex = 1 - previewIndex;
+        previewToShow = bitmap;
+        post(showPreview);
+    }
 
-                        diff.close();
-                        cvReleaseImage(diff);
-                        lastFrame.close();
-                        cvReleaseImage(lastFrame);
+    /**
+     * 帧率变化, 在监测线程中回调
+     * @param frameRate 新的帧率
+     * @param idle 是否进入空闲
+     */
+    private void onFrameRateChange(int frameRate, boolean idle) {
+        Log.i(LOG_TAG, (idle ? "idle" : "motion") + ", frame rate -> " + frameRate);
+        if (adjustCaptureFrameRate) {
+            cameraHandler.post(() -> applyCaptureFrameRate(frameRate));
+        }
+    }
 
-                        lastFrame = curr;
-                    } else {
-                        lastFrame = IplImage.create(rotatedImage.width(), rotatedImage.height(), IPL_DEPTH_8U, 1);
-                        cvCvtColor(rotatedImage, lastFrame, CV_RGB2GRAY);
-                    }
-                    rotatedImage.close();
-                    cvReleaseImage(rotatedImage);
-                    resizedImage.close();
-                    cvReleaseImage(resizedImage);
-                    sourceImage.close();
-                    cvReleaseImage(sourceImage);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+    /**
+     * 调整摄像头的目标帧率范围, 在摄像头线程中执行
+     * @param frameRate 目标帧率
+     */
+    private void applyCaptureFrameRate(int frameRate) {
+        CameraCaptureSession session = this.session;
+        CaptureRequest.Builder req = captureRequest;
+        if (session == null || req == null) {
+            return;
+        }
+        try {
+            Range<Integer> range = chooseFrameRateRange(frameRate);
+            if (range == null) {
+                return;
             }
-        } catch (Exception e) {
+            req.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, range);
+            session.setRepeatingRequest(req.build(), null, cameraHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
             e.printStackTrace();
             Log.e(LOG_TAG, e.getMessage());
-        } finally {
-            if (image != null) image.close();
         }
     }
-    
+
+    /**
+     * 从摄像头支持的帧率范围中选择上限不小于目标帧率且最小的范围
+     * @param frameRate 目标帧率
+     * @return 帧率范围, 没有可用范围时为null
+     */
+    private Range<Integer> chooseFrameRateRange(int frameRate) throws CameraAccessException {
+        Range<Integer>[] ranges = cameraManager.getCameraCharacteristics(cameraId)
+                .get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null) {
+            return null;
+        }
+        Range<Integer> best = null;
+        for (Range<Integer> range : ranges) {
+            if (range.getUpper() < frameRate) {
+                continue;
+            }
+            if (best == null
+                    || range.getUpper() < best.getUpper()
+                    || (range.getUpper().equals(best.getUpper()) && range.getLower() < best.getLower())) {
+                best = range;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 帧的统计
+     * @return 统计, 重新打开摄像头时清零
+     */
+    public FrameStats getFrameStats() {
+        return frameStats;
+    }
+
+    /**
+     * 按运动情况调整的帧率
+     * @return 调整器, 未开启时为null
+     */
+    public FrameRateScheduler getFrameRateScheduler() {
+        return frameRateScheduler;
+    }
+
+    /**
+     * 帧缓存池的使用情况
+     * @return 缓存池, 摄像头未打开时为null
+     */
+    public FramePool getFramePool() {
+        return framePool;
+    }
+
     public interface MotionDetectionListener {
         /**
-         * 一帧的数据, 不要调用IplImage的close, 回调完成后会自动调用
-         * @param rawBytes 原始数据
-         * @param source 通过原始数据解析出来的图片
-         * @param prev 上一帧帧
-         * @param curr 当前帧
-         * @param diff 差异帧
-         * @param moved 与上一帧对比后的结果
+         * 一帧的数据, 在监测线程中回调, 不要调用IplImage的close, 也不要持有参数, 回调完成后会回收复用
+         * @param image 摄像头的YUV_420_888帧, 不要关闭
+         * @param rawBytes 原始数据, NV21排列, 亮度模式下为null
+         * @param source 通过原始数据解析出来的图片, 亮度模式下为null
+         * @param curr 缩放旋转后的灰度帧
+         * @param result 运动检测的结果, {@link MotionResult#isMoved()}为是否有运动
          */
-        void onFrame(byte[] rawBytes, IplImage source, IplImage prev, IplImage curr, IplImage diff, boolean moved);
+        void onFrame(Image image, byte[] rawBytes, IplImage source, IplImage curr, MotionResult result);
     }
 
     static class MotionDetectionViewException extends RuntimeException {
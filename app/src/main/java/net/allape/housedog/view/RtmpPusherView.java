@@ -3,6 +3,7 @@ package net.allape.housedog.view;
 import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.content.Context;
+import android.media.Image;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
@@ -10,28 +11,86 @@ import android.net.ConnectivityManager;
 import android.net.Network;
 import android.os.Build;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 
+import net.allape.housedog.pipeline.DropPolicy;
+import net.allape.housedog.pipeline.FramePacer;
+import net.allape.housedog.pipeline.MotionGate;
+import net.allape.housedog.server.ViewerServer;
+import net.allape.housedog.stream.AdaptiveBitrateController;
+import net.allape.housedog.stream.AudioChunk;
+import net.allape.housedog.stream.AudioChunkPool;
+import net.allape.housedog.stream.AvioOutput;
+import net.allape.housedog.stream.ClipRecorder;
+import net.allape.housedog.stream.ClipStore;
+import net.allape.housedog.stream.BackfillUploader;
+import net.allape.housedog.stream.Backoff;
+import net.allape.housedog.stream.EncoderProfile;
+import net.allape.housedog.stream.FlvTagParser;
+import net.allape.housedog.stream.OutputFactory;
+import net.allape.housedog.stream.OutputSink;
+import net.allape.housedog.stream.RemuxOutput;
+import net.allape.housedog.stream.SpoolStore;
+import net.allape.housedog.stream.StreamMuxer;
+import net.allape.housedog.stream.TagFanout;
+import net.allape.housedog.stream.TagSink;
+import net.allape.housedog.stream.UplinkSink;
+import net.allape.housedog.stream.VideoFrame;
+import net.allape.housedog.stream.VideoFramePool;
+import net.allape.housedog.util.YuvUtils;
+
 import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
 import org.bytedeco.javacv.FFmpegFrameRecorder;
-import org.bytedeco.javacv.Frame;
-import org.bytedeco.javacv.FrameRecorder;
 
-import java.nio.ByteBuffer;
-import java.nio.ShortBuffer;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 @SuppressLint("ViewConstructor")
 public class RtmpPusherView extends androidx.appcompat.widget.AppCompatTextView {
 
     private static final String LOG_TAG = "RtmpPusherView";
 
-    private static final SimpleDateFormat FORMAT = new SimpleDateFormat("HH:mm:ss.SSS", Locale.CHINA);
+    // 状态文字的最小刷新间隔 ms
+    private static final long STATUS_INTERVAL = 1000L;
+    // 音频队列的容量, 段数
+    private static final int AUDIO_QUEUE_CAPACITY = 16;
+    // 持续拥塞多久后降级 ms
+    private static final long BITRATE_DOWN_HOLD = 3_000L;
+    // 持续空闲多久后升级 ms
+    private static final long BITRATE_UP_HOLD = 20_000L;
+    // 两次调整的最小间隔 ms, 每次调整都会重连
+    private static final long BITRATE_COOLDOWN = 10_000L;
+    // 上行队列的容量, tag数, 约3秒的音视频
+    private static final int UPLINK_QUEUE_CAPACITY = 256;
+    // 其他输出的队列容量, tag数
+    private static final int OUTPUT_QUEUE_CAPACITY = 256;
+    // 连接/读写的超时 us
+    private static final long UPLINK_TIMEOUT = 5_000_000L;
+    // 重连退避 ms
+    private static final long RECONNECT_INITIAL_DELAY = 500L;
+    private static final long RECONNECT_MAX_DELAY = 30_000L;
+    // 暂存单段的大小
+    private static final long SPOOL_SEGMENT_BYTES = 8L * 1024 * 1024;
+    // 暂存的总大小上限, 超过时删除最旧的段
+    private static final long SPOOL_MAX_BYTES = 256L * 1024 * 1024;
+    // 关闭时等待线程结束的时间 ms
+    private static final long JOIN_TIMEOUT = 2000L;
+    // 片段录制的队列容量, tag数
+    private static final int CLIP_QUEUE_CAPACITY = 256;
+    // 片段录制缓存的字节上限
+    private static final long CLIP_BUFFER_BYTES = 8L * 1024 * 1024;
+    // 正在录制片段时推迟码率等级重启, 再次尝试的间隔 ms
+    private static final long LEVEL_RETRY_DELAY = 1000L;
 
     private final Activity activity;
 
@@ -46,17 +105,84 @@ public class RtmpPusherView extends androidx.appcompat.widget.AppCompatTextView
     // 声音采样码率
     private int audioRateInHz = 44100;
 
-    // 开始直播的时间 ms
-    private long startTime = 0L;
-
-    // 直播器
-    private FFmpegFrameRecorder recorder;
-    // 一帧
-    private Frame frame;
+    // 编码参数
+    private EncoderProfile profile = EncoderProfile.BALANCED;
+    // 是否根据积压自动调整码率/分辨率/帧率
+    private boolean adaptiveBitrate = true;
+
+    // 当前等级下实际的宽度
+    private volatile int streamWidth = 1920;
+    // 当前等级下实际的高度
+    private volatile int streamHeight = 1080;
+    // 当前等级下实际的帧率
+    private volatile int streamFrameRate = 30;
+    // 按实际帧率丢帧, 只在推送线程中使用
+    private volatile FramePacer pacer = new FramePacer();
+    // 码率控制, 未开启时为null
+    private volatile AdaptiveBitrateController bitrateController;
+    // 按运动控制帧率, 未开启时为null
+    private volatile MotionGate motionGate;
+
+    // 是否在没有运动时降到保活帧率
+    private boolean motionGated = false;
+    // 运动停止后保持全帧率的时长 ms
+    private long motionHold = 5_000L;
+    // 静止时关键帧的最大间隔 ms
+    private long idleKeyFrameInterval = 10_000L;
+
+    // 彩色直播的像素格式, {@link avutil#AV_PIX_FMT_YUV420P}或{@link avutil#AV_PIX_FMT_NV21}
+    private int colorPixelFormat = avutil.AV_PIX_FMT_YUV420P;
+    // 编码队列的容量
+    private int encoderQueueCapacity = 3;
+    // 编码队列满时的丢弃策略
+    private DropPolicy encoderDropPolicy = DropPolicy.DROP_NON_KEY;
+    // 补传暂存段的URL, 为null时不补传, 暂存段保留到超过上限
+    private String backfillUrl;
+    // 补传的限速, 字节/秒
+    private long backfillBytesPerSecond = 128 * 1024;
+
+    // 除直播外的其他输出, 名称 -> 打开输出
+    private final Map<String, OutputFactory> outputs = new LinkedHashMap<>();
+    // 运动片段的目录, 为null时不录制片段
+    private ClipStore clipStore;
+    // 触发前缓存的时长 ms
+    private long clipPreEvent = 10_000L;
+    // 运动停止后继续录制的时长 ms
+    private long clipTail = 15_000L;
+    // 局域网观看的服务, 为null时不提供
+    private ViewerServer viewerServer;
+    // 是否推到直播地址, 关闭时只编码给其他输出和片段录制
+    private volatile boolean live = true;
+
+    // 把编码一次的结果分发给上行和其他输出
+    private volatile TagFanout fanout;
+    // 上行, 断网时暂存到本地
+    private volatile UplinkSink uplink;
+    // 补传线程
+    private BackfillUploader backfill;
+    // 运动片段录制
+    private volatile ClipRecorder clipRecorder;
+
+    // 合流线程, 独占直播器
+    private volatile StreamMuxer muxer;
+    // 复用的帧
+    private final VideoFramePool framePool = new VideoFramePool();
+    // 复用的音频, 采样率变化时重新创建
+    private AudioChunkPool audioPool;
+    // 上次刷新状态文字的时间 ms, 只在合流线程中使用
+    private long lastStatusTime = 0L;
     // 录音线程
     private AudioRecordRunnable audioRecordRunnable;
+    // 码率等级变化后重启录制器的线程, 合流线程不能关闭自己, 关闭时的等待也不能放在主线程
+    private final ScheduledExecutorService restarter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rtmp.restart");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 等待应用的码率等级, 重启前连续的变化只应用最后一个
+    private final AtomicReference<AdaptiveBitrateController.Level> pendingLevel = new AtomicReference<>();
 
-    private boolean networkAvailable = true;
+    private volatile boolean networkAvailable = true;
 
     @RequiresApi(api = Build.VERSION_CODES.N)
     public RtmpPusherView(Activity activity) {
@@ -72,20 +198,29 @@ public class RtmpPusherView extends androidx.appcompat.widget.AppCompatTextView
             public void onAvailable(@NonNull Network network) {
                 super.onAvailable(network);
                 setText("network comes alive");
-                networkAvailable = true;
+                setNetworkAvailable(true);
             }
             @SuppressLint("SetTextI18n")
             @Override
             public void onLost(@NonNull Network network) {
                 super.onLost(network);
                 setText("network goes down");
-                networkAvailable = false;
+                setNetworkAvailable(false);
             }
         });
     }
 
+    private void setNetworkAvailable(boolean available) {
+        networkAvailable = available;
+        UplinkSink uplink = this.uplink;
+        if (uplink != null) {
+            uplink.setNetworkAvailable(available);
+        }
+    }
+
     /**
      * 设置参数 需手动调用{@link this#start()}
+     * url也可以是本地文件路径, 用于在没有直播服务器时测试编码参数和码率控制
      */
     public void config(String url, int width, int height, int frameRate, int audioRateInHz) {
         this.url = url;
@@ -96,114 +231,555 @@ public class RtmpPusherView extends androidx.appcompat.widget.AppCompatTextView
     }
 
     /**
-     * 初始化并开始录像
+     * 设置编码队列 需手动调用{@link this#start()}
+     * @param capacity 队列容量, 上行慢时最多积压的帧数
+     * @param dropPolicy 队列满时的丢弃策略, {@link DropPolicy#DROP_NON_KEY}时按{@link VideoFrame#isKey()}保留
+     */
+    public void configureEncoder(int capacity, DropPolicy dropPolicy) {
+        this.encoderQueueCapacity = capacity;
+        this.encoderDropPolicy = dropPolicy;
+    }
+
+    /**
+     * 设置编码参数和码率控制 需手动调用{@link this#start()}
+     * @param profile 编码参数
+     * @param adaptive 是否根据编码队列的积压和写入耗时逐级调整码率/分辨率/帧率, 每次调整会重连
+     */
+    public void configureProfile(EncoderProfile profile, boolean adaptive) {
+        this.profile = profile;
+        this.adaptiveBitrate = adaptive;
+    }
+
+    /**
+     * 设置断网期间暂存段的补传 需手动调用{@link this#start()}
+     * 每段是独立的FLV, 连接恢复后在直播的同时按限速推到该地址
+     * @param url 补传的URL, 为null时不补传
+     * @param bytesPerSecond 限速, 字节/秒
+     */
+    public void configureBackfill(String url, long bytesPerSecond) {
+        this.backfillUrl = url;
+        this.backfillBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * 设置除直播外的其他输出 需手动调用{@link this#start()}
+     * 所有输出共用一次编码, 各自有队列和线程, 慢的输出只丢自己的帧
+     * @param name 名称, 同名的会被替换
+     * @param factory 打开输出, 例如{@link net.allape.housedog.stream.RemuxOutput#rollingMp4}, 为null时移除
+     */
+    public void configureOutput(String name, OutputFactory factory) {
+        if (factory == null) {
+            outputs.remove(name);
+        } else {
+            outputs.put(name, factory);
+        }
+    }
+
+    /**
+     * 设置运动片段录制 需手动调用{@link this#start()}
+     * 编码结果在内存中缓存, {@link #onMotion()}时连同触发前的画面写出为MP4, 运动停止后再录制一段时间
+     * @param store 片段目录和保留策略, 为null时不录制
+     * @param preEvent 触发前缓存的时长 ms
+     * @param tail 运动停止后继续录制的时长 ms
+     */
+    public void configureClips(ClipStore store, long preEvent, long tail) {
+        this.clipStore = store;
+        this.clipPreEvent = preEvent;
+        this.clipTail = tail;
+    }
+
+    /**
+     * 设置按运动控制帧率 需手动调用{@link this#start()}
+     * 没有运动时只推保活帧, 由调用方在转换/缩放前通过{@link #acceptFrame}判断, 有运动时立即恢复全帧率
+     * 保活帧率按GOP的帧数推算, 使静止时关键帧的间隔不超过上限, 新加入的观看者不需要等太久
+     * 设置了{@link #configureClips}时不生效, 片段需要触发前的全帧率画面
+     * @param enabled 是否开启
+     * @param hold 运动停止后保持全帧率的时长 ms
+     * @param idleKeyFrameInterval 静止时关键帧的最大间隔 ms
+     */
+    public void configureMotionGate(boolean enabled, long hold, long idleKeyFrameInterval) {
+        this.motionGated = enabled;
+        this.motionHold = hold;
+        this.idleKeyFrameInterval = idleKeyFrameInterval;
+    }
+
+    /**
+     * 设置局域网观看 需手动调用{@link this#start()}
+     * 每次开始编码时接入编码结果, 服务本身由调用方启动和关闭
+     * @param server 服务, 为null时不提供
+     */
+    public void configureViewer(ViewerServer server) {
+        this.viewerServer = server;
+    }
+
+    /**
+     * 设置{@link #pushImage}使用的像素格式 需手动调用{@link this#start()}
+     * YUV420P与H.264编码器的输入格式一致, 录制器不需要再转换; NV21需要录制器转换一次
+     * @param pixelFormat {@link avutil#AV_PIX_FMT_YUV420P}或{@link avutil#AV_PIX_FMT_NV21}
+     */
+    public void setColorPixelFormat(int pixelFormat) {
+        if (pixelFormat != avutil.AV_PIX_FMT_YUV420P && pixelFormat != avutil.AV_PIX_FMT_NV21) {
+            throw new IllegalArgumentException("unsupported pixel format: " + pixelFormat);
+        }
+        this.colorPixelFormat = pixelFormat;
+    }
+
+    /**
+     * 初始化并开始录像, 在重启线程中执行, 不阻塞调用线程
      */
     public void start() {
-        close();
-        activity.runOnUiThread(() -> new Handler().post(() -> {
-            // 帧
-            frame = new Frame(width, height, Frame.DEPTH_UBYTE, 2);
-
-            try {
-                recorder = new FFmpegFrameRecorder(url, width, height, 1);
-                recorder.setFormat("flv");
-                recorder.setFrameRate(frameRate);
-                recorder.setSampleRate(audioRateInHz);
-                recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
-                recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
-                Log.v(LOG_TAG, "recorder: " + url + " width: " + width + " height " + height);
-                recorder.start();
-            } catch (FFmpegFrameRecorder.Exception e) {
-                e.printStackTrace();
-                Log.e(LOG_TAG, e.getMessage());
-            }
+        restarter.execute(this::restart);
+    }
+
+    /**
+     * 关闭之前的录像后按当前设置重新开始, 在重启线程中执行
+     */
+    private synchronized void restart() {
+        release();
+        AdaptiveBitrateController.Level level;
+        if (adaptiveBitrate) {
+            bitrateController = new AdaptiveBitrateController(
+                    AdaptiveBitrateController.defaultLevels(profile.getMaxBitrate(), frameRate),
+                    BITRATE_DOWN_HOLD, BITRATE_UP_HOLD, BITRATE_COOLDOWN,
+                    this::onLevelChange
+            );
+            level = bitrateController.getLevel();
+        } else {
+            bitrateController = null;
+            level = new AdaptiveBitrateController.Level(profile.getMaxBitrate(), 1, frameRate);
+        }
+
+        TagFanout fanout = new TagFanout();
+        if (live) {
+            startUplink(fanout);
+        }
+        for (Map.Entry<String, OutputFactory> output : outputs.entrySet()) {
+            OutputSink sink = new OutputSink("output." + output.getKey(), OUTPUT_QUEUE_CAPACITY, output.getValue(),
+                    new Backoff(RECONNECT_INITIAL_DELAY, RECONNECT_MAX_DELAY));
+            sink.start();
+            fanout.add(sink);
+        }
+        if (viewerServer != null) {
+            TagSink sink = viewerServer.newFlvSink(OUTPUT_QUEUE_CAPACITY);
+            sink.start();
+            fanout.add(sink);
+        }
+        if (clipStore != null) {
+            ClipRecorder clipRecorder = new ClipRecorder(
+                    CLIP_QUEUE_CAPACITY, clipStore,
+                    (clip, finished) -> RemuxOutput.mp4(clip.getPath()).open(finished),
+                    clipPreEvent, clipTail, CLIP_BUFFER_BYTES
+            );
+            clipRecorder.start();
+            fanout.add(clipRecorder);
+            this.clipRecorder = clipRecorder;
+        }
+        this.fanout = fanout;
+        activity.runOnUiThread(() -> new Handler().post(() -> open(level)));
+    }
+
+    /**
+     * 开始推到直播地址, 编码结果先进入上行, 断网时暂存, 重连不需要重启录制器
+     * @param fanout 分发
+     */
+    private void startUplink(TagFanout fanout) {
+        SpoolStore spool = new SpoolStore(new File(activity.getFilesDir(), "spool"), SPOOL_SEGMENT_BYTES, SPOOL_MAX_BYTES);
+        UplinkSink uplink = new UplinkSink(
+                AvioOutput.factory(url, UPLINK_TIMEOUT), spool,
+                new Backoff(RECONNECT_INITIAL_DELAY, RECONNECT_MAX_DELAY), UPLINK_QUEUE_CAPACITY
+        );
+        uplink.setNetworkAvailable(networkAvailable);
+        uplink.start();
+        if (backfillUrl != null) {
+            backfill = new BackfillUploader(
+                    AvioOutput.factory(backfillUrl, UPLINK_TIMEOUT), spool, uplink, backfillBytesPerSecond,
+                    new Backoff(RECONNECT_INITIAL_DELAY, RECONNECT_MAX_DELAY)
+            );
+            backfill.start();
+        }
+        // 中途加入时从下一个关键帧开始
+        fanout.add(uplink);
+        this.uplink = uplink;
+    }
+
+    /**
+     * 停止推到直播地址, 其他输出不受影响
+     * @param fanout 分发
+     */
+    private void stopUplink(TagFanout fanout) {
+        if (backfill != null) {
+            backfill.close(JOIN_TIMEOUT);
+            Log.d(LOG_TAG, "backfill closed: " + backfill);
+            backfill = null;
+        }
+        UplinkSink uplink = this.uplink;
+        if (uplink != null) {
+            fanout.remove(uplink);
+            this.uplink = null;
+            // 上行线程结束前会结束正在写入的暂存段
+            uplink.close(JOIN_TIMEOUT);
+            Log.d(LOG_TAG, "uplink closed: " + uplink);
+        }
+    }
 
-            // 录音
-            audioRecordRunnable = new AudioRecordRunnable(audioRateInHz, recorder);
-            Thread audioRecordRunnableThread = new Thread(audioRecordRunnable);
-            audioRecordRunnableThread.start();
+    /**
+     * 开始或停止推到直播地址, 未调用{@link this#start()}时只记录设置
+     * 编码不会中断, 其他输出和片段录制不受影响; 上行的连接和关闭在重启线程中执行, 不阻塞调用线程
+     * @param live 是否直播
+     */
+    public void setLive(boolean live) {
+        this.live = live;
+        restarter.execute(this::applyLive);
+    }
 
-            startTime = System.currentTimeMillis();
-        }));
+    /**
+     * 按最新的设置开始或停止上行, 在重启线程中执行
+     */
+    private synchronized void applyLive() {
+        TagFanout fanout = this.fanout;
+        if (fanout == null) {
+            return;
+        }
+        if (live && uplink == null) {
+            startUplink(fanout);
+        } else if (!live && uplink != null) {
+            stopUplink(fanout);
+        }
+    }
+
+    /**
+     * 是否开启了直播, 上行在重启线程中开始/停止, 可能稍晚于这里的状态
+     * @return true: 已开启推到直播地址
+     */
+    public boolean isLive() {
+        return live;
+    }
+
+    /**
+     * 检测到运动, 开始或延长片段录制, 可在任意线程调用
+     */
+    public void onMotion() {
+        ClipRecorder clipRecorder = this.clipRecorder;
+        if (clipRecorder != null) {
+            clipRecorder.onMotion();
+        }
+    }
+
+    /**
+     * 按等级创建录制器并启动合流和录音线程
+     * @param level 码率/分辨率/帧率
+     */
+    private synchronized void open(AdaptiveBitrateController.Level level) {
+        TagFanout fanout = this.fanout;
+        // 已停止直播
+        if (fanout == null) {
+            return;
+        }
+        // YUV420要求宽高为偶数
+        streamWidth = (width / level.getScale()) & ~1;
+        streamHeight = (height / level.getScale()) & ~1;
+        streamFrameRate = level.getFrameRate();
+        pacer = new FramePacer();
+        // 片段和直播共用同一路编码, 门控会让触发前的缓存只剩保活帧, 录制片段时不门控
+        if (motionGated && clipStore != null) {
+            Log.w(LOG_TAG, "motion gate disabled while clips are recorded");
+        }
+        motionGate = motionGated && clipStore == null ? new MotionGate(
+                MotionGate.keepAliveInterval(profile.gopSize(streamFrameRate), idleKeyFrameInterval * 1_000_000L),
+                motionHold * 1_000_000L
+        ) : null;
+
+        // 录制器只负责编码和封装, 输出的FLV切分为tag分发给各个输出
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(
+                new FlvTagParser(fanout), streamWidth, streamHeight, 1);
+        recorder.setFormat("flv");
+        // 每个包立即交出, 结束时不回写时长
+        recorder.setOption("flush_packets", "1");
+        recorder.setOption("flvflags", "no_duration_filesize");
+        recorder.setFrameRate(streamFrameRate);
+        recorder.setSampleRate(audioRateInHz);
+        recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+        recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
+        recorder.setGopSize(profile.gopSize(streamFrameRate));
+        recorder.setVideoBitrate(level.getBitrate());
+        for (Map.Entry<String, String> option : profile.videoOptions(level.getBitrate()).entrySet()) {
+            recorder.setVideoOption(option.getKey(), option.getValue());
+        }
+        Log.v(LOG_TAG, "recorder: " + url + " width: " + streamWidth + " height " + streamHeight
+                + " " + level + " " + profile);
+
+        int bufferSize = AudioRecord.getMinBufferSize(audioRateInHz,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        if (audioPool == null || audioPool.getChunkCapacity() != bufferSize) {
+            audioPool = new AudioChunkPool(bufferSize);
+        }
+
+        // 录制器在合流线程中启动
+        StreamMuxer muxer = new StreamMuxer(
+                recorder,
+                framePool, encoderQueueCapacity, encoderDropPolicy,
+                audioPool, AUDIO_QUEUE_CAPACITY, audioRateInHz,
+                this::onEncode
+        );
+        muxer.start();
+        this.muxer = muxer;
+
+        // 录音
+        audioRecordRunnable = new AudioRecordRunnable(audioRateInHz, bufferSize, audioPool, muxer);
+        Thread audioRecordRunnableThread = new Thread(audioRecordRunnable);
+        audioRecordRunnableThread.start();
+    }
+
+    /**
+     * 码率等级变化, 在合流线程中回调, 交给重启线程重连
+     * @param level 新的等级
+     * @param index 新的等级下标
+     */
+    private void onLevelChange(AdaptiveBitrateController.Level level, int index) {
+        Log.i(LOG_TAG, "bitrate level " + index + ": " + level);
+        // 已有等待中的重启时只替换等级
+        if (pendingLevel.getAndSet(level) == null) {
+            restarter.execute(this::applyPendingLevel);
+        }
+    }
+
+    /**
+     * 按最新的等级重启录制器, 在重启线程中执行
+     * 重启会产生新的FLV头, 正在录制的片段和观看中的连接会中断, 所以录制片段时推迟到片段结束
+     */
+    private synchronized void applyPendingLevel() {
+        ClipRecorder clipRecorder = this.clipRecorder;
+        if (clipRecorder != null && clipRecorder.isRecording() && pendingLevel.get() != null) {
+            // 等级保留在pendingLevel中, 期间的变化只替换等级
+            restarter.schedule(this::applyPendingLevel, LEVEL_RETRY_DELAY, TimeUnit.MILLISECONDS);
+            return;
+        }
+        AdaptiveBitrateController.Level level = pendingLevel.getAndSet(null);
+        // 已停止直播
+        if (level == null || muxer == null) {
+            return;
+        }
+        stop();
+        open(level);
+    }
+
+    /**
+     * 判断这一帧是否需要推流, 在监测线程中每帧调用一次, 在转换/缩放之前
+     * @param moved 这一帧是否有运动
+     * @return true/推流, false/跳过, 未开启{@link #configureMotionGate}或录制片段时总是true
+     */
+    public boolean acceptFrame(boolean moved) {
+        MotionGate gate = this.motionGate;
+        return gate == null || gate.accept(System.nanoTime(), moved);
     }
 
     /**
      * 添加一帧, YUV格式的
-     * @param bytes YUV字节数组
+     * @param bytes NV21字节数组, 可由{@link YuvUtils#toNV21}打包
      */
     public void pushYuvBytes(byte[] bytes) {
-        ((ByteBuffer) frame.image[0].position(0)).put(bytes);
+        if (bytes.length != YuvUtils.yuv420Size(streamWidth, streamHeight)) {
+            Log.w(LOG_TAG, "frame size does not match " + streamWidth + "x" + streamHeight);
+            return;
+        }
+        VideoFrame frame = acquireFrame(2);
+        frame.getBuffer().put(bytes);
         push(frame);
     }
 
     /**
-     * 添加一帧
-     * @param frame 帧数据
+     * 添加一帧, 直接从摄像头的YUV_420_888帧打包为NV21, 不经过中间数组
+     * @param image 摄像头的帧, 由调用方关闭
      */
-    @SuppressLint("SetTextI18n")
-    public void push(Frame frame) {
-        if (recorder == null) {
+    public void pushYuvImage(Image image) {
+        pushPlanes(image, avutil.AV_PIX_FMT_NV21, false);
+    }
+
+    /**
+     * 添加一帧彩色的, 直接从摄像头的YUV_420_888平面隔点采样缩小到直播尺寸, 不经过RGB
+     * 按整数倍缩小, 摄像头宽高不是直播宽高的整数倍时裁掉右侧和底部的余数
+     * @param image 摄像头的帧, 由调用方关闭
+     * @param key 是否是关键帧, 见{@link VideoFrame#setKey}
+     */
+    public void pushImage(Image image, boolean key) {
+        pushPlanes(image, colorPixelFormat, key);
+    }
+
+    private void pushPlanes(Image image, int pixelFormat, boolean key) {
+        int width = streamWidth;
+        int height = streamHeight;
+        int factor = Math.min(image.getWidth() / width, image.getHeight() / height);
+        if (factor < 1) {
+            Log.w(LOG_TAG, "image " + image.getWidth() + "x" + image.getHeight()
+                    + " is smaller than " + width + "x" + height);
+            return;
+        }
+        VideoFrame frame = pixelFormat == avutil.AV_PIX_FMT_YUV420P
+                ? framePool.acquire(width, height, 1, avutil.AV_PIX_FMT_YUV420P)
+                : framePool.acquire(width, height, 2);
+        Image.Plane[] planes = image.getPlanes();
+        if (pixelFormat == avutil.AV_PIX_FMT_YUV420P) {
+            YuvUtils.downscaleToI420(
+                    width * factor, height * factor, factor,
+                    planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride(),
+                    planes[1].getBuffer(), planes[2].getBuffer(), planes[2].getRowStride(), planes[2].getPixelStride(),
+                    frame.getBuffer()
+            );
+        } else {
+            YuvUtils.downscaleToNV21(
+                    width * factor, height * factor, factor,
+                    planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride(),
+                    planes[1].getBuffer(), planes[2].getBuffer(), planes[2].getRowStride(), planes[2].getPixelStride(),
+                    frame.getBuffer()
+            );
+        }
+        frame.setKey(key);
+        push(frame);
+    }
+
+    /**
+     * 获取一个直播尺寸的复用帧, 写入后交给{@link #push(VideoFrame)}
+     * 开启码率控制时尺寸会随等级变化, 以返回的帧的宽高为准
+     * 1/3/4通道时可以直接用{@link VideoFrame#getImage()}作为OpenCV的输出, 不需要额外复制
+     * @param channels 通道数, 1为灰度, 2为NV21
+     * @return 帧, 内容未初始化
+     */
+    public VideoFrame acquireFrame(int channels) {
+        return framePool.acquire(streamWidth, streamHeight, channels);
+    }
+
+    /**
+     * 归还没有推送的帧
+     * @param frame 由{@link #acquireFrame}获取的帧
+     */
+    public void releaseFrame(VideoFrame frame) {
+        framePool.release(frame);
+    }
+
+    /**
+     * 添加一帧复用的帧, 交给编码线程后立即返回, 编码完成或被丢弃后归还
+     * @param frame 由{@link #acquireFrame}获取的帧, 之后不要再使用
+     */
+    public void push(VideoFrame frame) {
+        StreamMuxer muxer = this.muxer;
+        if (muxer == null) {
             Log.w(LOG_TAG, "recorder not initialized");
+            framePool.release(frame);
             return;
-        } else if (!networkAvailable) {
-            Log.w(LOG_TAG, "network not available");
+        } else if (frame.getWidth() != streamWidth || frame.getHeight() != streamHeight
+                || !pacer.accept(System.nanoTime(), 1_000_000_000L / streamFrameRate)) {
+            // 等级切换前获取的帧, 或超过当前等级的帧率
+            framePool.release(frame);
             return;
         }
-        try {
-            long current = System.currentTimeMillis();
-            recorder.setTimestamp(1000 * (current - startTime));
-            recorder.record(frame);
-            activity.runOnUiThread(() -> setText(FORMAT.format(new Date()) + ": write " + frame.toString()));
-        } catch (FFmpegFrameRecorder.Exception e) {
-            e.printStackTrace();
-            Log.e(LOG_TAG, e.getMessage());
+        muxer.offerVideo(frame);
+    }
+
+    /**
+     * 写入一帧视频后的回调, 在合流线程中执行, 按{@link #STATUS_INTERVAL}节流刷新状态文字
+     * @param muxer 合流器
+     */
+    @SuppressLint("SetTextI18n")
+    private void onEncode(StreamMuxer muxer) {
+        long now = SystemClock.uptimeMillis();
+        AdaptiveBitrateController controller = bitrateController;
+        UplinkSink uplink = this.uplink;
+        if (controller != null && uplink != null && uplink.isConnected()) {
+            // 编码队列和上行队列取积压较多的一个, 断网时写入暂存不算拥塞
+            if (uplink.getQueued() * muxer.getCapacity() > muxer.getQueued() * uplink.getCapacity()) {
+                controller.update(uplink.getQueued(), uplink.getCapacity(), muxer.getLastWriteLatency(), now);
+            } else {
+                controller.update(muxer.getQueued(), muxer.getCapacity(), muxer.getLastWriteLatency(), now);
+            }
+        }
+        if (now - lastStatusTime < STATUS_INTERVAL) {
+            return;
         }
+        lastStatusTime = now;
+        String status = "encoded: " + muxer.getEncoded() +
+                ", dropped: " + muxer.getDropped() +
+                ", failed: " + muxer.getFailed() +
+                ", audio dropped: " + muxer.getAudioDropped() +
+                (uplink != null ? (uplink.isConnected() ? ", live" : ", spooling")
+                        + ", spooled segments: " + uplink.getSpool().getCompletedCount() : "") +
+                (controller != null ? ", level: " + controller.getIndex() : "") +
+                (motionGate != null && motionGate.isIdle() ? ", idle" : "");
+        activity.runOnUiThread(() -> setText(status));
     }
 
     /**
-     * 关闭资源
+     * 关闭资源, 在重启线程中执行, 不阻塞调用线程
      */
     public void close() {
-        if (frame != null) {
-            frame.close();
-            frame = null;
+        restarter.execute(this::release);
+    }
+
+    /**
+     * 关闭资源, 在重启线程中执行
+     */
+    private synchronized void release() {
+        pendingLevel.set(null);
+        stop();
+        if (fanout != null) {
+            stopUplink(fanout);
+            // 片段录制结束前会写完正在录制的片段
+            for (TagSink sink : fanout.getSinks()) {
+                sink.close(JOIN_TIMEOUT);
+                Log.d(LOG_TAG, "output closed: " + sink);
+            }
+            fanout = null;
+            clipRecorder = null;
+        }
+        Log.d(LOG_TAG, "frame pool released: " + framePool + ", " + audioPool);
+        framePool.clear();
+        if (audioPool != null) {
+            audioPool.clear();
         }
+    }
+
+    /**
+     * 停止录音和合流线程, 保留帧池/码率控制的状态和上行连接
+     */
+    private synchronized void stop() {
         if (audioRecordRunnable != null) {
             audioRecordRunnable.close();
             audioRecordRunnable = null;
         }
-        if (recorder != null) {
-            try {
-                recorder.close();
-            } catch (FrameRecorder.Exception e) {
-                e.printStackTrace();
-                Log.e(LOG_TAG, e.getMessage());
-            }
-            recorder = null;
+        if (muxer != null) {
+            // 合流线程结束前会关闭录制器
+            muxer.close();
+            Log.d(LOG_TAG, "muxer closed: " + muxer);
+            muxer = null;
         }
     }
 
     /**
-     * 是否正在录制
-     * @return true: 正在录制
+     * 是否正在编码, 不一定在直播, 见{@link #isLive()}
+     * @return true: 正在编码
      */
     public boolean isRecording() {
-        return this.recorder != null;
+        return this.muxer != null;
     }
 
     static class AudioRecordRunnable implements Runnable {
 
         // 采样率
         private final int rateInHz;
-        // 录音器
-        private final FFmpegFrameRecorder recorder;
+        // 录音缓冲的采样数
+        private final int bufferSize;
+        // 复用的音频
+        private final AudioChunkPool pool;
+        // 合流器, 录音线程只负责采集
+        private final StreamMuxer muxer;
 
         // 是否在下个循环停止录音
-        private boolean endAtNext = false;
+        private volatile boolean endAtNext = false;
 
-        public AudioRecordRunnable(int rateInHz, FFmpegFrameRecorder recorder) {
+        public AudioRecordRunnable(int rateInHz, int bufferSize, AudioChunkPool pool, StreamMuxer muxer) {
             this.rateInHz = rateInHz;
-            this.recorder = recorder;
+            this.bufferSize = bufferSize;
+            this.pool = pool;
+            this.muxer = muxer;
         }
 
         @Override
@@ -211,31 +787,23 @@ public class RtmpPusherView extends androidx.appcompat.widget.AppCompatTextView
             // Set the thread priority
             android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_URGENT_AUDIO);
 
-            // Audio
-            int bufferSize;
-            short[] audioData;
-            int bufferReadResult;
-
-            bufferSize = AudioRecord.getMinBufferSize(rateInHz,
-                    AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
             AudioRecord audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, rateInHz,
                     AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, bufferSize);
 
-            audioData = new short[bufferSize];
-
             Log.d(LOG_TAG, "audioRecord.startRecord()");
             audioRecord.startRecording();
 
             while (!endAtNext) {
-                bufferReadResult = audioRecord.read(audioData, 0, audioData.length);
+                AudioChunk chunk = pool.acquire();
+                short[] samples = chunk.getSamples();
+                int bufferReadResult = audioRecord.read(samples, 0, samples.length);
                 if (bufferReadResult > 0) {
-                    // Changes in this variable may not be picked up despite it being "volatile"
-                    try {
-                        recorder.recordSamples(ShortBuffer.wrap(audioData, 0, bufferReadResult));
-                    } catch (FFmpegFrameRecorder.Exception e) {
-                        Log.e(LOG_TAG, e.getMessage());
-                        e.printStackTrace();
-                    }
+                    // read返回时最后一个采样刚刚采集到, 往前推算第一个采样的时间
+                    long timestamp = muxer.now() - bufferReadResult * 1_000_000L / rateInHz;
+                    chunk.setLength(bufferReadResult);
+                    muxer.offerAudio(chunk, timestamp);
+                } else {
+                    pool.release(chunk);
                 }
             }
 
@@ -0,0 +1,186 @@
+package net.allape.housedog.detector;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectedComponentLabelerTest {
+
+    private static byte[] mask(String... rows) {
+        int width = rows[0].length();
+        byte[] mask = new byte[width * rows.length];
+        for (int y = 0; y < rows.length; y++) {
+            for (int x = 0; x < width; x++) {
+                if (rows[y].charAt(x) == '#') {
+                    mask[y * width + x] = (byte) 0xFF;
+                }
+            }
+        }
+        return mask;
+    }
+
+    @Test
+    public void emptyMaskHasNoBlobs() {
+        ConnectedComponentLabeler labeler = new ConnectedComponentLabeler(1);
+        assertTrue(labeler.label(new byte[12], 4, 3).isEmpty());
+    }
+
+    @Test
+    public void measuresSeparateBlobs() {
+        ConnectedComponentLabeler labeler = new ConnectedComponentLabeler(1);
+        List<Blob> blobs = labeler.label(mask(
+                "##....",
+                "##...#",
+                ".....#",
+                ".....#"
+        ), 6, 4);
+        assertEquals(2, blobs.size());
+
+        Blob square = blobs.get(0);
+        assertEquals(4, square.getArea());
+        assertEquals(0, square.getLeft());
+        assertEquals(0, square.getTop());
+        assertEquals(1, square.getRight());
+        assertEquals(1, square.getBottom());
+        assertEquals(0.5f, square.getCentroidX(), 1e-6f);
+        assertEquals(0.5f, square.getCentroidY(), 1e-6f);
+
+        Blob bar = blobs.get(1);
+        assertEquals(3, bar.getArea());
+        assertEquals(1, bar.getWidth());
+        assertEquals(3, bar.getHeight());
+        assertEquals(5f, bar.getCentroidX(), 1e-6f);
+        assertEquals(2f, bar.getCentroidY(), 1e-6f);
+    }
+
+    @Test
+    public void diagonalPixelsAreConnected() {
+        ConnectedComponentLabeler labeler = new ConnectedComponentLabeler(1);
+        List<Blob> blobs = labeler.label(mask(
+                "#...",
+                ".#..",
+                "..#.",
+                "...#"
+        ), 4, 4);
+        assertEquals(1, blobs.size());
+        assertEquals(4, blobs.get(0).getArea());
+    }
+
+    @Test
+    public void mergesBranchesThatMeetLater() {
+        // U形和W形, 两条分支在下方才连通
+        ConnectedComponentLabeler labeler = new ConnectedComponentLabeler(1);
+        List<Blob> blobs = labeler.label(mask(
+                "#.#.#.#",
+                "#.#.#.#",
+                "#.#.#.#",
+                "#######"
+        ), 7, 4);
+        assertEquals(1, blobs.size());
+        assertEquals(19, blobs.get(0).getArea());
+        assertEquals(7, blobs.get(0).getWidth());
+    }
+
+    @Test
+    public void filtersSmallBlobs() {
+        ConnectedComponentLabeler labeler = new ConnectedComponentLabeler(3);
+        List<Blob> blobs = labeler.label(mask(
+                "#...##",
+                "....##",
+                "#.....",
+                "......"
+        ), 6, 4);
+        assertEquals(1, blobs.size());
+        assertEquals(4, blobs.get(0).getArea());
+        assertEquals(4, blobs.get(0).getLeft());
+    }
+
+    @Test
+    public void reusesBlobsAcrossFrames() {
+        ConnectedComponentLabeler labeler = new ConnectedComponentLabeler(1);
+        Blob first = labeler.label(mask("##", "##"), 2, 2).get(0);
+        Blob second = labeler.label(mask("#.", ".."), 2, 2).get(0);
+        assertSame(first, second);
+        assertEquals(1, second.getArea());
+    }
+
+    @Test
+    public void blobDetectorRequiresLargeEnoughBlob() {
+        FrameDiffMotionDetector diff = new FrameDiffMotionDetector(30);
+        BlobMotionDetector detector = new BlobMotionDetector(diff, 4);
+        byte[] frame = new byte[16];
+        detector.detect(4, 4, 4, ByteBuffer.wrap(frame));
+
+        frame[0] = (byte) 200;
+        frame[15] = (byte) 200;
+        MotionResult result = detector.detect(4, 4, 4, ByteBuffer.wrap(frame.clone()));
+        assertFalse(result.isMoved());
+        assertTrue(result.getBlobs().isEmpty());
+
+        frame[1] = frame[4] = frame[5] = (byte) 200;
+        detector.detect(4, 4, 4, ByteBuffer.wrap(new byte[16]));
+        result = detector.detect(4, 4, 4, ByteBuffer.wrap(frame));
+        assertTrue(result.isMoved());
+        assertEquals(1, result.getBlobs().size());
+        assertEquals(4, result.getBlobs().get(0).getArea());
+    }
+
+    @Test
+    public void bandedLabelingMatchesSerial() {
+        BandExecutor executor = new BandExecutor(4, 1);
+        try {
+            ConnectedComponentLabeler serial = new ConnectedComponentLabeler(1);
+            ConnectedComponentLabeler banded = new ConnectedComponentLabeler(1, executor);
+            Random random = new Random(42);
+            int width = 37;
+            int height = 29;
+            for (int round = 0; round < 20; round++) {
+                byte[] mask = new byte[width * height];
+                for (int i = 0; i < mask.length; i++) {
+                    if (random.nextInt(100) < 45) {
+                        mask[i] = (byte) 0xFF;
+                    }
+                }
+                List<Blob> expected = serial.label(mask, width, height);
+                List<Blob> actual = banded.label(mask, width, height);
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i).toString(), actual.get(i).toString());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void blobCrossingEveryBandIsMerged() {
+        BandExecutor executor = new BandExecutor(4, 1);
+        try {
+            ConnectedComponentLabeler labeler = new ConnectedComponentLabeler(1, executor);
+            List<Blob> blobs = labeler.label(mask(
+                    "#.....",
+                    ".#....",
+                    "..#...",
+                    "...#..",
+                    "....#.",
+                    ".....#",
+                    "....#.",
+                    "...#.."
+            ), 6, 8);
+            assertEquals(1, blobs.size());
+            assertEquals(8, blobs.get(0).getArea());
+            assertEquals(8, blobs.get(0).getHeight());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
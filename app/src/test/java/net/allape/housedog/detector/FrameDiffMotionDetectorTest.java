@@ -0,0 +1,97 @@
+package net.allape.housedog.detector;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FrameDiffMotionDetectorTest {
+
+    private static final int WIDTH = 32;
+    private static final int HEIGHT = 24;
+    // 带行填充的跨度
+    private static final int STRIDE = 40;
+
+    private static ByteBuffer frame(int value) {
+        byte[] bytes = new byte[STRIDE * HEIGHT];
+        Arrays.fill(bytes, (byte) value);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    @Test
+    public void firstFrameNeverMoves() {
+        FrameDiffMotionDetector detector = new FrameDiffMotionDetector(30);
+        MotionResult result = detector.detect(WIDTH, HEIGHT, STRIDE, frame(200));
+        assertFalse(result.isMoved());
+        assertEquals(0, result.getChangedPixels());
+    }
+
+    @Test
+    public void staticFramesDoNotMove() {
+        FrameDiffMotionDetector detector = new FrameDiffMotionDetector(30);
+        detector.detect(WIDTH, HEIGHT, STRIDE, frame(100));
+        MotionResult result = detector.detect(WIDTH, HEIGHT, STRIDE, frame(120));
+        assertFalse(result.isMoved());
+        assertEquals(0f, result.getScore(), 0f);
+    }
+
+    @Test
+    public void changedBlockIsCountedAndMasked() {
+        FrameDiffMotionDetector detector = new FrameDiffMotionDetector(30);
+        detector.detect(WIDTH, HEIGHT, STRIDE, frame(10));
+
+        ByteBuffer next = frame(10);
+        // 4x3的亮块, 行填充区域的变化不应被计入
+        for (int y = 5; y < 8; y++) {
+            for (int x = 6; x < 10; x++) {
+                next.put(y * STRIDE + x, (byte) 250);
+            }
+            next.put(y * STRIDE + WIDTH + 1, (byte) 250);
+        }
+        MotionResult result = detector.detect(WIDTH, HEIGHT, STRIDE, next);
+
+        assertTrue(result.isMoved());
+        assertEquals(12, result.getChangedPixels());
+        assertEquals(12f / (WIDTH * HEIGHT), result.getScore(), 1e-6f);
+        assertEquals((byte) 0xFF, result.getMask()[6 * WIDTH + 7]);
+        assertEquals(0, result.getMask()[0]);
+    }
+
+    @Test
+    public void minChangedPixelsFiltersNoise() {
+        FrameDiffMotionDetector detector = new FrameDiffMotionDetector(30, 5);
+        detector.detect(WIDTH, HEIGHT, STRIDE, frame(10));
+        ByteBuffer next = frame(10);
+        next.put(0, (byte) 250);
+        MotionResult result = detector.detect(WIDTH, HEIGHT, STRIDE, next);
+        assertEquals(1, result.getChangedPixels());
+        assertFalse(result.isMoved());
+    }
+
+    @Test
+    public void respectsBufferPositionAndReusesResult() {
+        FrameDiffMotionDetector detector = new FrameDiffMotionDetector(30);
+        ByteBuffer first = ByteBuffer.allocateDirect(STRIDE * HEIGHT + 7);
+        first.position(7);
+        MotionResult a = detector.detect(WIDTH, HEIGHT, STRIDE, first);
+        first.put(7, (byte) 255);
+        MotionResult b = detector.detect(WIDTH, HEIGHT, STRIDE, first);
+        assertSame(a, b);
+        assertEquals(1, b.getChangedPixels());
+        assertEquals(7, first.position());
+    }
+
+    @Test
+    public void resetDropsPreviousFrame() {
+        FrameDiffMotionDetector detector = new FrameDiffMotionDetector(30);
+        detector.detect(WIDTH, HEIGHT, STRIDE, frame(0));
+        detector.reset();
+        assertFalse(detector.detect(WIDTH, HEIGHT, STRIDE, frame(255)).isMoved());
+    }
+
+}
@@ -0,0 +1,90 @@
+package net.allape.housedog.detector;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PyramidMotionDetectorTest {
+
+    // 8 x 6 个4像素的格子
+    private static final int WIDTH = 32;
+    private static final int HEIGHT = 24;
+    private static final int STRIDE = 40;
+
+    private static byte[] frame(int value) {
+        byte[] bytes = new byte[STRIDE * HEIGHT];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    private static PyramidMotionDetector detector(int refreshPeriod) {
+        return new PyramidMotionDetector(30, 0.05f, 1, 4, 15, refreshPeriod);
+    }
+
+    private static MotionResult detect(PyramidMotionDetector detector, byte[] frame) {
+        return detector.detect(WIDTH, HEIGHT, STRIDE, ByteBuffer.wrap(frame));
+    }
+
+    @Test
+    public void staticFramesOnlyRefreshFewCells() {
+        PyramidMotionDetector detector = detector(16);
+        detect(detector, frame(100));
+        assertEquals(48, detector.getActiveCells());
+
+        MotionResult result = detect(detector, frame(100));
+        assertFalse(result.isMoved());
+        // 48个格子每16帧全部更新一次
+        assertEquals(3, detector.getActiveCells());
+    }
+
+    @Test
+    public void changedCellAndNeighborsAreRefined() {
+        PyramidMotionDetector detector = detector(1000);
+        detect(detector, frame(100));
+
+        byte[] moved = frame(100);
+        // 第(3, 2)个格子整体变亮
+        for (int y = 8; y < 12; y++) {
+            for (int x = 12; x < 16; x++) {
+                moved[y * STRIDE + x] = (byte) 200;
+            }
+        }
+        MotionResult result = detect(detector, moved);
+        assertTrue(result.isMoved());
+        assertEquals(16, result.getChangedPixels());
+        // 3 x 3 的邻域加上1个轮流更新的格子
+        assertEquals(10, detector.getActiveCells());
+        assertEquals((byte) 0xFF, result.getMask()[8 * WIDTH + 12]);
+        assertEquals(0, result.getMask()[8 * WIDTH + 11]);
+    }
+
+    @Test
+    public void smallChangeWithinCellIsStillFound() {
+        PyramidMotionDetector detector = detector(1000);
+        detect(detector, frame(100));
+
+        byte[] moved = frame(100);
+        // 只变化格子里的一个采样点, 平均亮度仍然超过粗阈值
+        moved[9 * STRIDE + 13] = (byte) 255;
+        MotionResult result = detect(detector, moved);
+        assertTrue(result.isMoved());
+        assertEquals(1, result.getChangedPixels());
+    }
+
+    @Test
+    public void staleCellsAreRefreshedRoundRobin() {
+        PyramidMotionDetector detector = new PyramidMotionDetector(30, 1f, 1, 4, 15, 2);
+        detect(detector, frame(100));
+        // 缓慢变化不会触发粗检测, 但细背景会在两帧内全部更新
+        detect(detector, frame(110));
+        detect(detector, frame(110));
+        MotionResult result = detect(detector, frame(110));
+        assertFalse(result.isMoved());
+    }
+
+}
@@ -0,0 +1,86 @@
+package net.allape.housedog.detector;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RunningAverageMotionDetectorTest {
+
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 12;
+
+    private static ByteBuffer frame(int value) {
+        byte[] bytes = new byte[WIDTH * HEIGHT];
+        Arrays.fill(bytes, (byte) value);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    @Test
+    public void slowDriftIsDetectedAgainstBackground() {
+        // 每帧只变化10, 帧差永远不会超过阈值, 但与背景的差异会累积
+        RunningAverageMotionDetector background = new RunningAverageMotionDetector(30, 0.01f, 1);
+        FrameDiffMotionDetector previous = new FrameDiffMotionDetector(30);
+        boolean backgroundMoved = false;
+        boolean previousMoved = false;
+        for (int value = 0; value <= 100; value += 10) {
+            backgroundMoved |= background.detect(WIDTH, HEIGHT, WIDTH, frame(value)).isMoved();
+            previousMoved |= previous.detect(WIDTH, HEIGHT, WIDTH, frame(value)).isMoved();
+        }
+        assertTrue(backgroundMoved);
+        assertFalse(previousMoved);
+    }
+
+    @Test
+    public void singleFrameFlickerDoesNotPolluteBackground() {
+        RunningAverageMotionDetector detector = new RunningAverageMotionDetector(30, 0.05f, 1);
+        detector.detect(WIDTH, HEIGHT, WIDTH, frame(100));
+        // 不做时间上的过滤, 一帧的闪烁本身会报警, 但只按学习率少量改变背景, 下一帧恢复后不再报警
+        assertTrue(detector.detect(WIDTH, HEIGHT, WIDTH, frame(140)).isMoved());
+        MotionResult result = detector.detect(WIDTH, HEIGHT, WIDTH, frame(100));
+        assertFalse(result.isMoved());
+        assertEquals(0, result.getChangedPixels());
+    }
+
+    @Test
+    public void backgroundAdaptsToLightingChange() {
+        RunningAverageMotionDetector detector = new RunningAverageMotionDetector(30, 0.2f, 1);
+        detector.detect(WIDTH, HEIGHT, WIDTH, frame(50));
+        assertTrue(detector.detect(WIDTH, HEIGHT, WIDTH, frame(150)).isMoved());
+        for (int i = 0; i < 30; i++) {
+            detector.detect(WIDTH, HEIGHT, WIDTH, frame(150));
+        }
+        assertFalse(detector.detect(WIDTH, HEIGHT, WIDTH, frame(150)).isMoved());
+    }
+
+    @Test
+    public void bandedDetectionMatchesSerial() {
+        BandExecutor executor = new BandExecutor(3, 1);
+        try {
+            RunningAverageMotionDetector serial = new RunningAverageMotionDetector(30, 0.05f, 1);
+            RunningAverageMotionDetector banded = new RunningAverageMotionDetector(30, 0.05f, 1, executor);
+            for (int value = 0; value < 200; value += 50) {
+                ByteBuffer frame = frame(value);
+                // 只有部分像素变化
+                frame.put(5, (byte) 255);
+                MotionResult expected = serial.detect(WIDTH, HEIGHT, WIDTH, frame);
+                MotionResult actual = banded.detect(WIDTH, HEIGHT, WIDTH, frame);
+                assertEquals(expected.getChangedPixels(), actual.getChangedPixels());
+                assertArrayEquals(expected.getMask(), actual.getMask());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidLearningRate() {
+        new RunningAverageMotionDetector(30, 0f, 1);
+    }
+
+}
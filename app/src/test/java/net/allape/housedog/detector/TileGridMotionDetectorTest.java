@@ -0,0 +1,150 @@
+package net.allape.housedog.detector;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TileGridMotionDetectorTest {
+
+    // 4 x 3 个8像素的网格, 最后一列和最后一行不完整
+    private static final int WIDTH = 30;
+    private static final int HEIGHT = 20;
+    private static final int STRIDE = 32;
+    private static final int TILE = 8;
+
+    private static byte[] frame(int value) {
+        byte[] bytes = new byte[STRIDE * HEIGHT];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    private static void paint(byte[] frame, int tileX, int tileY, int value) {
+        for (int y = tileY * TILE; y < Math.min((tileY + 1) * TILE, HEIGHT); y++) {
+            for (int x = tileX * TILE; x < Math.min((tileX + 1) * TILE, WIDTH); x++) {
+                frame[y * STRIDE + x] = (byte) value;
+            }
+        }
+    }
+
+    private static MotionResult detect(TileGridMotionDetector detector, byte[] frame) {
+        return detector.detect(WIDTH, HEIGHT, STRIDE, ByteBuffer.wrap(frame));
+    }
+
+    @Test
+    public void countsChangedPixelsPerTile() {
+        TileGridMotionDetector detector = new TileGridMotionDetector(TILE, 30, 0.05f, 1, 1, false);
+        detect(detector, frame(0));
+        byte[] moved = frame(0);
+        paint(moved, 3, 2, 200);
+        MotionResult result = detect(detector, moved);
+
+        assertTrue(result.isMoved());
+        assertEquals(4, result.getTilesX());
+        assertEquals(3, result.getTilesY());
+        int[] expected = new int[12];
+        // 右下角的网格只有 6 x 4 个像素
+        expected[11] = 24;
+        assertArrayEquals(expected, result.getTileCounts());
+        assertEquals(24, result.getChangedPixels());
+    }
+
+    @Test
+    public void stopsReadingOnceTriggered() {
+        TileGridMotionDetector detector = new TileGridMotionDetector(TILE, 30, 0.05f, 1, 1, true);
+        detect(detector, frame(0));
+        byte[] moved = frame(0);
+        paint(moved, 1, 0, 200);
+        paint(moved, 2, 2, 200);
+        MotionResult result = detect(detector, moved);
+
+        assertTrue(result.isMoved());
+        int[] counts = result.getTileCounts();
+        assertEquals(0, counts[0]);
+        assertEquals(64, counts[1]);
+        for (int i = 2; i < counts.length; i++) {
+            assertEquals(TileGridMotionDetector.UNREAD, counts[i]);
+        }
+
+        // 下一帧从上次停下的位置继续
+        result = detect(detector, moved);
+        counts = result.getTileCounts();
+        assertEquals(TileGridMotionDetector.UNREAD, counts[0]);
+        assertEquals(TileGridMotionDetector.UNREAD, counts[1]);
+        // 最后一行的网格只有 8 x 4 个像素
+        assertEquals(32, counts[10]);
+    }
+
+    @Test
+    public void requiresEnoughActiveTiles() {
+        TileGridMotionDetector detector = new TileGridMotionDetector(TILE, 30, 0.05f, 10, 2, true);
+        detect(detector, frame(0));
+        byte[] moved = frame(0);
+        paint(moved, 0, 0, 200);
+        // 只有一个像素变化, 不算活跃
+        moved[STRIDE * 9 + 9] = (byte) 200;
+        assertFalse(detect(detector, moved).isMoved());
+    }
+
+    @Test
+    public void maskedTilesAreSkipped() {
+        TileGridMotionDetector detector = new TileGridMotionDetector(TILE, 30, 0.05f, 1, 1, false);
+        detector.setTileMask(TileGridMotionDetector.packTileMask(new byte[]{0b0010, 0b1000}, 0, 2));
+        detect(detector, frame(0));
+        byte[] moved = frame(0);
+        paint(moved, 1, 0, 200);
+        paint(moved, 3, 2, 200);
+        MotionResult result = detect(detector, moved);
+
+        assertFalse(result.isMoved());
+        assertEquals(TileGridMotionDetector.UNREAD, result.getTileCounts()[1]);
+        assertEquals(TileGridMotionDetector.UNREAD, result.getTileCounts()[11]);
+        assertEquals(0, result.getChangedPixels());
+    }
+
+    @Test
+    public void bandedDetectionMatchesSerial() {
+        BandExecutor executor = new BandExecutor(3, 1);
+        try {
+            TileGridMotionDetector serial = new TileGridMotionDetector(TILE, 30, 0.05f, 1, 2, false);
+            TileGridMotionDetector banded = new TileGridMotionDetector(TILE, 30, 0.05f, 1, 2, false, executor);
+            long[] mask = TileGridMotionDetector.packTileMask(new byte[]{0b0100}, 0, 1);
+            serial.setTileMask(mask);
+            banded.setTileMask(mask);
+            for (int value = 0; value < 200; value += 50) {
+                byte[] frame = frame(value);
+                paint(frame, 2, 0, 255);
+                paint(frame, 1, 1, 255 - value);
+                paint(frame, 3, 2, value / 2);
+                MotionResult expected = detect(serial, frame);
+                MotionResult actual = detect(banded, frame);
+                assertEquals(expected.isMoved(), actual.isMoved());
+                assertEquals(expected.getChangedPixels(), actual.getChangedPixels());
+                assertArrayEquals(expected.getTileCounts(), actual.getTileCounts());
+                assertArrayEquals(expected.getMask(), actual.getMask());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void snapshotCopiesLatestCounts() {
+        TileGridMotionDetector detector = new TileGridMotionDetector(TILE, 30, 0.05f, 1, 1, false);
+        detect(detector, frame(0));
+        byte[] moved = frame(0);
+        paint(moved, 0, 1, 200);
+        detect(detector, moved);
+
+        int[] snapshot = detector.snapshot();
+        assertEquals(4, snapshot[0]);
+        assertEquals(3, snapshot[1]);
+        assertEquals(64, snapshot[2 + 4]);
+    }
+
+}
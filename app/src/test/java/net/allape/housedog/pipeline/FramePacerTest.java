@@ -0,0 +1,46 @@
+package net.allape.housedog.pipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FramePacerTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void keepsEveryThirdFrameDespiteJitter() {
+        FramePacer pacer = new FramePacer();
+        // 30fps的传感器, 每帧有 ±2ms 的抖动, 目标10fps
+        int accepted = 0;
+        for (int i = 0; i < 300; i++) {
+            long jitter = (i % 2 == 0 ? 2 : -2) * MS;
+            if (pacer.accept(i * 100 * MS / 3 + jitter, 100 * MS)) {
+                accepted++;
+            }
+        }
+        assertEquals(100, accepted);
+    }
+
+    @Test
+    public void realignsAfterGap() {
+        FramePacer pacer = new FramePacer();
+        assertTrue(pacer.accept(0, 100 * MS));
+        assertFalse(pacer.accept(50 * MS, 100 * MS));
+        // 中间丢了很多帧, 不应该连续补帧
+        assertTrue(pacer.accept(1000 * MS, 100 * MS));
+        assertFalse(pacer.accept(1033 * MS, 100 * MS));
+        assertTrue(pacer.accept(1100 * MS, 100 * MS));
+    }
+
+    @Test
+    public void realignsWhenTimestampsGoBackwards() {
+        FramePacer pacer = new FramePacer();
+        assertTrue(pacer.accept(10_000 * MS, 100 * MS));
+        assertTrue(pacer.accept(0, 100 * MS));
+        assertFalse(pacer.accept(50 * MS, 100 * MS));
+    }
+
+}
@@ -0,0 +1,137 @@
+package net.allape.housedog.pipeline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrameQueueTest {
+
+    // 负数为关键帧
+    private static final FrameQueue.KeyFrameFilter<Integer> NEGATIVE_IS_KEY = item -> item < 0;
+
+    @Test
+    public void dropOldestKeepsNewest() {
+        List<Integer> dropped = new ArrayList<>();
+        FrameQueue<Integer> queue = new FrameQueue<>(2, DropPolicy.DROP_OLDEST, dropped::add);
+        assertTrue(queue.offer(1));
+        assertTrue(queue.offer(2));
+        assertTrue(queue.offer(3));
+        assertEquals(1, dropped.size());
+        assertEquals(1, (int) dropped.get(0));
+        assertEquals(2, (int) queue.poll());
+        assertEquals(3, (int) queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void dropNewestRejectsIncoming() {
+        List<Integer> dropped = new ArrayList<>();
+        FrameQueue<Integer> queue = new FrameQueue<>(2, DropPolicy.DROP_NEWEST, dropped::add);
+        assertTrue(queue.offer(1));
+        assertTrue(queue.offer(2));
+        assertFalse(queue.offer(3));
+        assertEquals(1, dropped.size());
+        assertEquals(3, (int) dropped.get(0));
+        assertEquals(1, queue.getDropped());
+        assertEquals(1, (int) queue.poll());
+        assertEquals(2, (int) queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void dropNonKeyEvictsOldestNonKeyFrame() {
+        List<Integer> dropped = new ArrayList<>();
+        FrameQueue<Integer> queue = new FrameQueue<>(3, DropPolicy.DROP_NON_KEY, dropped::add, NEGATIVE_IS_KEY);
+        queue.offer(-1);
+        queue.offer(2);
+        queue.offer(3);
+        assertTrue(queue.offer(4));
+        assertEquals(2, (int) dropped.get(0));
+        assertEquals(1, queue.getDropped());
+        assertEquals(-1, (int) queue.poll());
+        assertEquals(3, (int) queue.poll());
+        assertEquals(4, (int) queue.poll());
+    }
+
+    @Test
+    public void dropNonKeyKeepsQueuedKeyFrames() {
+        List<Integer> dropped = new ArrayList<>();
+        FrameQueue<Integer> queue = new FrameQueue<>(2, DropPolicy.DROP_NON_KEY, dropped::add, NEGATIVE_IS_KEY);
+        queue.offer(-1);
+        queue.offer(-2);
+        // 全是关键帧时, 新来的非关键帧被丢弃
+        assertFalse(queue.offer(3));
+        assertEquals(3, (int) dropped.get(0));
+        // 新来的关键帧挤掉最旧的
+        assertTrue(queue.offer(-3));
+        assertEquals(-1, (int) dropped.get(1));
+        assertEquals(-2, (int) queue.poll());
+        assertEquals(-3, (int) queue.poll());
+    }
+
+    @Test
+    public void dropNonKeyWrapsAround() {
+        FrameQueue<Integer> queue = new FrameQueue<>(3, DropPolicy.DROP_NON_KEY, null, NEGATIVE_IS_KEY);
+        queue.offer(0);
+        queue.offer(0);
+        queue.poll();
+        queue.poll();
+        // 队头在下标2, 内容跨越数组末尾
+        queue.offer(-1);
+        queue.offer(-2);
+        queue.offer(5);
+        queue.offer(-3);
+        assertEquals(3, queue.size());
+        assertEquals(-1, (int) queue.poll());
+        assertEquals(-2, (int) queue.poll());
+        assertEquals(-3, (int) queue.poll());
+    }
+
+    @Test
+    public void closeDrainsThroughDropListener() {
+        List<Integer> dropped = new ArrayList<>();
+        FrameQueue<Integer> queue = new FrameQueue<>(3, DropPolicy.DROP_OLDEST, dropped::add);
+        queue.offer(1);
+        queue.offer(2);
+        queue.close();
+        assertEquals(2, dropped.size());
+        assertEquals(1, (int) dropped.get(0));
+        assertEquals(2, (int) dropped.get(1));
+        assertEquals(0, queue.size());
+
+        // 关闭后放入的帧直接交给丢弃回调, 不计入队列满的丢弃
+        assertFalse(queue.offer(3));
+        assertEquals(3, (int) dropped.get(2));
+        assertEquals(0, queue.getDropped());
+    }
+
+    @Test
+    public void closeUnblocksTake() throws Exception {
+        FrameQueue<Integer> queue = new FrameQueue<>(2, DropPolicy.DROP_OLDEST, null);
+        AtomicReference<Integer> taken = new AtomicReference<>(0);
+        Thread consumer = new Thread(() -> {
+            try {
+                taken.set(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+        // 等消费者进入等待
+        while (consumer.getState() != Thread.State.WAITING && consumer.isAlive()) {
+            Thread.sleep(1L);
+        }
+        queue.close();
+        consumer.join(1000L);
+        assertFalse(consumer.isAlive());
+        assertNull(taken.get());
+    }
+
+}
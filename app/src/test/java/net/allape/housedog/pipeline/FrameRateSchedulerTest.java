@@ -0,0 +1,84 @@
+package net.allape.housedog.pipeline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameRateSchedulerTest {
+
+    @Test
+    public void dropsToIdleRateAfterQuietPeriod() {
+        List<Integer> changes = new ArrayList<>();
+        FrameRateScheduler scheduler = new FrameRateScheduler(30, 5, 1000L, (frameRate, idle) -> changes.add(frameRate));
+        assertEquals(30, scheduler.getFrameRate());
+
+        // 没有运动, 但还没到quietPeriod
+        for (long now = 0; now < 1000L; now += 100L) {
+            assertFalse(scheduler.update(false, now));
+        }
+        assertFalse(scheduler.isIdle());
+
+        assertTrue(scheduler.update(false, 1000L));
+        assertTrue(scheduler.isIdle());
+        assertEquals(5, scheduler.getFrameRate());
+        assertEquals(200L, scheduler.getFrameDuration());
+        assertEquals(1000L, scheduler.getLastTransitionTime());
+
+        // 保持空闲, 不重复回调
+        assertFalse(scheduler.update(false, 1200L));
+        assertEquals(1, changes.size());
+        assertEquals(5, (int) changes.get(0));
+    }
+
+    @Test
+    public void motionRestoresFullRateImmediately() {
+        List<Boolean> changes = new ArrayList<>();
+        FrameRateScheduler scheduler = new FrameRateScheduler(30, 5, 1000L, (frameRate, idle) -> changes.add(idle));
+        scheduler.update(false, 0L);
+        scheduler.update(false, 1000L);
+        assertTrue(scheduler.isIdle());
+
+        assertTrue(scheduler.update(true, 1200L));
+        assertFalse(scheduler.isIdle());
+        assertEquals(30, scheduler.getFrameRate());
+
+        // quietPeriod从最后一次运动开始计算
+        assertFalse(scheduler.update(false, 2100L));
+        assertTrue(scheduler.update(false, 2200L));
+        assertEquals(3, scheduler.getTransitions());
+        assertEquals(3, changes.size());
+        assertTrue(changes.get(0));
+        assertFalse(changes.get(1));
+        assertTrue(changes.get(2));
+    }
+
+    @Test
+    public void resetRestartsQuietPeriod() {
+        FrameRateScheduler scheduler = new FrameRateScheduler(30, 5, 1000L, null);
+        scheduler.update(false, 0L);
+        scheduler.update(false, 1000L);
+        assertTrue(scheduler.isIdle());
+
+        scheduler.reset();
+        assertEquals(30, scheduler.getFrameRate());
+        assertFalse(scheduler.update(false, 5000L));
+        assertTrue(scheduler.update(false, 6000L));
+    }
+
+    @Test
+    public void idleRateIsCappedAtFullRate() {
+        FrameRateScheduler scheduler = new FrameRateScheduler(15, 30, 1000L, null);
+        assertEquals(15, scheduler.getIdleFrameRate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveFrameRate() {
+        new FrameRateScheduler(30, 0, 1000L, null);
+    }
+
+}
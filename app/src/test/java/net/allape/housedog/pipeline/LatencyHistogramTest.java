@@ -0,0 +1,60 @@
+package net.allape.housedog.pipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValueInOrder() {
+        long previousUpper = -1;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            assertEquals(bucket, LatencyHistogram.bucketOf(previousUpper + 1));
+            assertEquals(bucket, LatencyHistogram.bucketOf(upper));
+            // 相对误差不超过12.5%
+            assertTrue(upper - previousUpper - 1 <= Math.max(0, upper / 8));
+            previousUpper = upper;
+        }
+    }
+
+    @Test
+    public void percentilesOfUniformSamples() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int ms = 1; ms <= 100; ms++) {
+            histogram.record(ms * 1_000_000L);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(100_000, histogram.getMax());
+        assertWithin(50_000, histogram.percentile(50));
+        assertWithin(95_000, histogram.percentile(95));
+        assertWithin(99_000, histogram.percentile(99));
+        assertEquals(100_000, histogram.percentile(100));
+    }
+
+    @Test
+    public void emptyAndReset() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        assertEquals(0, histogram.percentile(99));
+        histogram.record(5_000);
+        assertEquals(5, histogram.percentile(50));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.percentile(50));
+    }
+
+    @Test
+    public void registryReturnsSameStage() {
+        LatencyHistogram stage = LatencyRegistry.stage("test.registry");
+        assertTrue(stage == LatencyRegistry.stage("test.registry"));
+        assertTrue(LatencyRegistry.stages().contains(stage));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected ~" + expected + " got " + actual, actual >= expected && actual <= expected + expected / 8);
+    }
+
+}
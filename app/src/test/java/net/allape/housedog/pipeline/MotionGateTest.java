@@ -0,0 +1,56 @@
+package net.allape.housedog.pipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MotionGateTest {
+
+    private static final long MS = 1_000_000L;
+    // 30fps
+    private static final long FRAME = 100 * MS / 3;
+
+    @Test
+    public void idlesAtKeepAliveRateWithoutMotion() {
+        MotionGate gate = new MotionGate(1000 * MS, 2000 * MS);
+        int accepted = 0;
+        // 10秒没有运动
+        for (int i = 0; i < 300; i++) {
+            if (gate.accept(i * FRAME, false)) {
+                accepted++;
+            }
+        }
+        // 0s, 约1s, ..., 约10s, 每秒一帧
+        assertEquals(11, accepted);
+        assertTrue(gate.isIdle());
+        assertEquals(289, gate.getGated());
+    }
+
+    @Test
+    public void resumesFullRateInstantlyAndHolds() {
+        MotionGate gate = new MotionGate(1000 * MS, 2000 * MS);
+        for (int i = 0; i < 10; i++) {
+            gate.accept(i * FRAME, false);
+        }
+        // 运动的那一帧立即放行
+        assertTrue(gate.accept(10 * FRAME, true));
+        assertFalse(gate.isIdle());
+        // 运动停止后的2秒内仍然全帧率
+        for (int i = 11; i < 70; i++) {
+            assertTrue(gate.accept(i * FRAME, false));
+        }
+        assertTrue(gate.accept(71 * FRAME, false));
+        assertTrue(gate.isIdle());
+        assertFalse(gate.accept(72 * FRAME, false));
+    }
+
+    @Test
+    public void keepAliveFollowsGop() {
+        // 60帧的GOP, 关键帧最多间隔10秒
+        assertEquals(10_000 * MS / 60, MotionGate.keepAliveInterval(60, 10_000 * MS));
+        assertEquals(10_000 * MS, MotionGate.keepAliveInterval(0, 10_000 * MS));
+    }
+
+}
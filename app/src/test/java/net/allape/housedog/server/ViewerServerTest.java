@@ -0,0 +1,213 @@
+package net.allape.housedog.server;
+
+import net.allape.housedog.stream.FlvTag;
+import net.allape.housedog.stream.TagSink;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ViewerServerTest {
+
+    private static final FlvTag HEADER = FlvTag.header(false, true);
+    private static final FlvTag VIDEO_CONFIG = FlvTag.of(FlvTag.TYPE_VIDEO, 0, new byte[] { 0x17, 0, 0, 0, 0 });
+    private static final List<FlvTag> PREAMBLE = new ArrayList<>();
+
+    static {
+        PREAMBLE.add(HEADER);
+        PREAMBLE.add(VIDEO_CONFIG);
+    }
+
+    private ViewerServer server;
+    private final List<Socket> sockets = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ViewerServer(0, 256 * 1024);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        server.close();
+    }
+
+    private static FlvTag video(boolean key, int timestamp, int size) {
+        byte[] body = new byte[size];
+        body[0] = (byte) (key ? 0x17 : 0x27);
+        body[1] = 1;
+        return FlvTag.of(FlvTag.TYPE_VIDEO, timestamp, body);
+    }
+
+    private Socket get(String path) throws IOException {
+        return get(server, path);
+    }
+
+    private Socket get(ViewerServer server, String path) throws IOException {
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        socket.setSoTimeout(2000);
+        sockets.add(socket);
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+        return socket;
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) {
+                break;
+            }
+            head.append((char) b);
+        }
+        return head.toString();
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(bytes, read, length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return bytes;
+    }
+
+    private void awaitClients(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000L;
+        while (server.getServed() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+    }
+
+    @Test
+    public void servesFlvFromNextKeyFrame() throws Exception {
+        Socket socket = get(ViewerServer.PATH_FLV);
+        InputStream in = socket.getInputStream();
+        awaitClients(1);
+
+        server.broadcast(video(false, 0, 32), PREAMBLE);
+        FlvTag key = video(true, 40, 32);
+        FlvTag next = video(false, 80, 32);
+        server.broadcast(key, PREAMBLE);
+        server.broadcast(next, PREAMBLE);
+
+        String head = readHead(in);
+        assertTrue(head.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(head.contains("video/x-flv"));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        HEADER.writeTo(expected);
+        VIDEO_CONFIG.writeTo(expected);
+        key.writeTo(expected);
+        next.writeTo(expected);
+        assertArrayEquals(expected.toByteArray(), readFully(in, expected.size()));
+    }
+
+    @Test
+    public void flvSinkFeedsClients() throws Exception {
+        Socket socket = get(ViewerServer.PATH_FLV);
+        awaitClients(1);
+        TagSink sink = server.newFlvSink(16);
+        sink.start();
+        try {
+            FlvTag key = video(true, 0, 32);
+            sink.offer(HEADER);
+            sink.offer(VIDEO_CONFIG);
+            sink.offer(key);
+
+            InputStream in = socket.getInputStream();
+            readHead(in);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            HEADER.writeTo(expected);
+            VIDEO_CONFIG.writeTo(expected);
+            key.writeTo(expected);
+            assertArrayEquals(expected.toByteArray(), readFully(in, expected.size()));
+        } finally {
+            sink.close(1000L);
+        }
+    }
+
+    @Test
+    public void shedsSlowClients() throws Exception {
+        Socket slow = get(ViewerServer.PATH_FLV);
+        slow.setReceiveBufferSize(4096);
+        awaitClients(1);
+        // 从不读取, 积压超过上限后被断开
+        server.broadcast(video(true, 0, 64 * 1024), PREAMBLE);
+        for (int i = 1; i < 200 && server.getShed() == 0; i++) {
+            server.broadcast(video(false, i * 40, 64 * 1024), PREAMBLE);
+            Thread.sleep(1L);
+        }
+        long deadline = System.currentTimeMillis() + 2000L;
+        while (server.getClientCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        assertEquals(1, server.getShed());
+        assertEquals(0, server.getClientCount());
+    }
+
+    @Test
+    public void servesMjpegFrames() throws Exception {
+        Socket socket = get(ViewerServer.PATH_MJPEG + "?t=1");
+        InputStream in = socket.getInputStream();
+        awaitClients(1);
+        assertTrue(server.hasPreviewClients());
+
+        String head = readHead(in);
+        assertTrue(head.contains("multipart/x-mixed-replace"));
+        // 响应头发完之后才不算忙
+        Thread.sleep(20L);
+        byte[] jpeg = { (byte) 0xFF, (byte) 0xD8, 1, 2, 3, (byte) 0xFF, (byte) 0xD9 };
+        server.publishJpeg(jpeg);
+        String part = readHead(in);
+        assertTrue(part.contains("Content-Length: " + jpeg.length));
+        assertArrayEquals(jpeg, readFully(in, jpeg.length));
+        assertEquals("\r\n", new String(readFully(in, 2), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void requiresTokenWhenConfigured() throws Exception {
+        ViewerServer protectedServer = new ViewerServer(0, 256 * 1024, "s3cret");
+        protectedServer.start();
+        try {
+            for (String path : new String[] { ViewerServer.PATH_FLV, ViewerServer.PATH_FLV + "?token=wrong", ViewerServer.PATH_MJPEG + "?token=s3cre" }) {
+                Socket socket = get(protectedServer, path);
+                assertTrue(path, readHead(socket.getInputStream()).startsWith("HTTP/1.1 403"));
+            }
+            Socket socket = get(protectedServer, ViewerServer.PATH_MJPEG + "?t=1&token=s3cret");
+            assertTrue(readHead(socket.getInputStream()).startsWith("HTTP/1.1 200 OK"));
+        } finally {
+            protectedServer.close();
+        }
+    }
+
+    @Test
+    public void unknownPathIsNotFound() throws Exception {
+        Socket socket = get("/nope");
+        String head = readHead(socket.getInputStream());
+        assertTrue(head.startsWith("HTTP/1.1 404"));
+        assertEquals(-1, socket.getInputStream().read());
+    }
+
+}
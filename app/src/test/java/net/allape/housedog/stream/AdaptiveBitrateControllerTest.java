@@ -0,0 +1,109 @@
+package net.allape.housedog.stream;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveBitrateControllerTest {
+
+    private static final int CAPACITY = 4;
+    // 30fps的单帧时长, us
+    private static final long FRAME = 33_333L;
+
+    private static AdaptiveBitrateController controller(List<Integer> changes) {
+        return new AdaptiveBitrateController(
+                AdaptiveBitrateController.defaultLevels(1_000_000, 30),
+                2_000L, 10_000L, 5_000L,
+                (level, index) -> changes.add(index)
+        );
+    }
+
+    @Test
+    public void staysOnTopLevelWhileHealthy() {
+        List<Integer> changes = new ArrayList<>();
+        AdaptiveBitrateController controller = controller(changes);
+        for (long now = 0; now < 60_000; now += 33) {
+            assertFalse(controller.update(0, CAPACITY, FRAME / 4, now));
+        }
+        assertEquals(0, controller.getIndex());
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void stepsDownAfterSustainedBacklogWithCooldown() {
+        List<Integer> changes = new ArrayList<>();
+        AdaptiveBitrateController controller = controller(changes);
+        // 积压但耗时正常, 2s后降一级
+        for (long now = 0; now <= 2_000; now += 100) {
+            controller.update(3, CAPACITY, FRAME / 2, now);
+        }
+        assertEquals(1, controller.getIndex());
+        // 冷却期内不会继续降
+        for (long now = 2_100; now < 7_000; now += 100) {
+            controller.update(3, CAPACITY, FRAME / 2, now);
+        }
+        assertEquals(1, controller.getIndex());
+        controller.update(3, CAPACITY, FRAME / 2, 7_100);
+        assertEquals(2, controller.getIndex());
+        assertEquals(2, changes.size());
+        assertEquals(2, controller.getLevel().getScale());
+    }
+
+    @Test
+    public void slowWritesAloneTriggerStepDown() {
+        List<Integer> changes = new ArrayList<>();
+        AdaptiveBitrateController controller = controller(changes);
+        for (long now = 0; now <= 2_000; now += 100) {
+            controller.update(0, CAPACITY, FRAME * 2, now);
+        }
+        assertEquals(1, controller.getIndex());
+    }
+
+    @Test
+    public void briefSpikesAreIgnored() {
+        List<Integer> changes = new ArrayList<>();
+        AdaptiveBitrateController controller = controller(changes);
+        for (long now = 0; now < 20_000; now += 100) {
+            // 每秒有一次短暂的积压
+            controller.update(now % 1_000 == 0 ? CAPACITY : 0, CAPACITY, FRAME / 4, now);
+        }
+        assertEquals(0, controller.getIndex());
+    }
+
+    @Test
+    public void recoversSlowlyAfterCongestionClears() {
+        List<Integer> changes = new ArrayList<>();
+        AdaptiveBitrateController controller = controller(changes);
+        for (long now = 0; now <= 2_000; now += 100) {
+            controller.update(CAPACITY, CAPACITY, FRAME, now);
+        }
+        assertEquals(1, controller.getIndex());
+        // 空闲不足10s不升级
+        for (long now = 2_100; now < 12_000; now += 100) {
+            controller.update(0, CAPACITY, FRAME / 4, now);
+        }
+        assertEquals(1, controller.getIndex());
+        controller.update(0, CAPACITY, FRAME / 4, 12_200);
+        assertEquals(0, controller.getIndex());
+        assertEquals(2, changes.size());
+        assertEquals(0, (int) changes.get(1));
+    }
+
+    @Test
+    public void profileOptionsCapBitrate() {
+        Map<String, String> options = EncoderProfile.LOW_LATENCY.videoOptions(10_000_000);
+        assertEquals("ultrafast", options.get("preset"));
+        assertEquals("zerolatency", options.get("tune"));
+        assertEquals("600000", options.get("maxrate"));
+        assertEquals("300000", options.get("bufsize"));
+        assertEquals(60, EncoderProfile.LOW_LATENCY.gopSize(30));
+        assertEquals(EncoderProfile.BALANCED, EncoderProfile.forName("unknown"));
+    }
+
+}
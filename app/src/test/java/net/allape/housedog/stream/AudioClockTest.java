@@ -0,0 +1,48 @@
+package net.allape.housedog.stream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AudioClockTest {
+
+    private static final int RATE = 44100;
+
+    @Test
+    public void writesContiguousChunksDirectly() {
+        AudioClock clock = new AudioClock(RATE, 50_000L, 1_000_000L);
+        // 每段1024个采样, 时间戳与采样数一致
+        for (int i = 0; i < 100; i++) {
+            long timestamp = i * 1024L * 1_000_000L / RATE;
+            assertEquals(0, clock.correction(timestamp));
+            clock.advance(1024);
+        }
+        assertEquals(102400, clock.getWritten());
+    }
+
+    @Test
+    public void padsSilenceWhenAudioLags() {
+        AudioClock clock = new AudioClock(RATE, 50_000L, 1_000_000L);
+        // 录音在推流开始200ms后才有数据
+        assertEquals(RATE / 5, clock.correction(200_000L));
+        clock.advance(RATE / 5);
+        assertEquals(0, clock.correction(200_000L));
+    }
+
+    @Test
+    public void limitsPadding() {
+        AudioClock clock = new AudioClock(RATE, 50_000L, 500_000L);
+        assertEquals(RATE / 2, clock.correction(10_000_000L));
+    }
+
+    @Test
+    public void dropsChunksWhenAudioRunsAhead() {
+        AudioClock clock = new AudioClock(RATE, 50_000L, 1_000_000L);
+        clock.advance(RATE);
+        // 已写入1s, 这一段却是0.9s的
+        assertEquals(-1, clock.correction(900_000L));
+        assertEquals(0, clock.correction(980_000L));
+        assertEquals(1_000_000L, clock.getTime());
+    }
+
+}
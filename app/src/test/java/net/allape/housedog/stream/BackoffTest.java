@@ -0,0 +1,32 @@
+package net.allape.housedog.stream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BackoffTest {
+
+    @Test
+    public void doublesUntilLimit() {
+        Backoff backoff = new Backoff(500L, 30_000L);
+        assertEquals(500L, backoff.baseDelay(0));
+        assertEquals(1000L, backoff.baseDelay(1));
+        assertEquals(16_000L, backoff.baseDelay(5));
+        assertEquals(30_000L, backoff.baseDelay(6));
+        assertEquals(30_000L, backoff.baseDelay(1000));
+    }
+
+    @Test
+    public void jitterStaysWithinQuarter() {
+        Backoff backoff = new Backoff(1000L, 1000L);
+        for (int i = 0; i < 1000; i++) {
+            long delay = backoff.nextDelay();
+            assertTrue(delay >= 750L && delay <= 1250L);
+        }
+        assertEquals(1000, backoff.getAttempts());
+        backoff.reset();
+        assertEquals(0, backoff.getAttempts());
+    }
+
+}
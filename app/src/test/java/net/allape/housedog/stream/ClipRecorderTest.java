@@ -0,0 +1,198 @@
+package net.allape.housedog.stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClipRecorderTest {
+
+    private static final FlvTag HEADER = FlvTag.header(false, true);
+    private static final FlvTag VIDEO_CONFIG = FlvTag.of(FlvTag.TYPE_VIDEO, 0, new byte[] { 0x17, 0, 0, 0, 0 });
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("clips").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    private static FlvTag video(boolean key, int timestamp) {
+        return FlvTag.of(FlvTag.TYPE_VIDEO, timestamp, new byte[] { (byte) (key ? 0x17 : 0x27), 1, 0, 0, 0, 1, 2, 3 });
+    }
+
+    private ClipRecorder recorder(ClipStore store, long tail) {
+        return new ClipRecorder(16, store, (clip, finished) -> new FileOutputStream(clip) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                finished.run();
+            }
+        }, 2000L, tail, 1024 * 1024);
+    }
+
+    /**
+     * 每秒一个关键帧, 每100ms一帧
+     */
+    private static List<FlvTag> frames(int from, int to) {
+        List<FlvTag> tags = new ArrayList<>();
+        for (int t = from; t < to; t += 100) {
+            tags.add(video(t % 1000 == 0, t));
+        }
+        return tags;
+    }
+
+    @Test
+    public void flushesKeyFrameAlignedPreEventOnMotion() throws IOException {
+        ClipStore store = new ClipStore(dir, ".flv", 1024 * 1024, 60_000L);
+        ClipRecorder recorder = recorder(store, 60_000L);
+        recorder.handle(HEADER);
+        recorder.handle(VIDEO_CONFIG);
+        for (FlvTag tag : frames(0, 5500)) {
+            recorder.handle(tag);
+        }
+        assertFalse(recorder.isRecording());
+        assertEquals(0, store.list().length);
+
+        recorder.onMotion();
+        List<FlvTag> live = frames(5500, 6500);
+        for (FlvTag tag : live) {
+            recorder.handle(tag);
+        }
+        assertTrue(recorder.isRecording());
+        recorder.onStop();
+        assertEquals(1, recorder.getClips());
+
+        // 至少2秒, 从关键帧开始: 3000ms起
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        HEADER.writeTo(expected);
+        VIDEO_CONFIG.writeTo(expected);
+        for (FlvTag tag : frames(3000, 6500)) {
+            tag.writeTo(expected);
+        }
+        File[] clips = store.list();
+        assertEquals(1, clips.length);
+        assertArrayEquals(expected.toByteArray(), Files.readAllBytes(clips[0].toPath()));
+    }
+
+    @Test
+    public void stopsAtKeyFrameAfterTail() throws Exception {
+        ClipStore store = new ClipStore(dir, ".flv", 1024 * 1024, 60_000L);
+        ClipRecorder recorder = recorder(store, 500L);
+        recorder.handle(HEADER);
+        recorder.handle(VIDEO_CONFIG);
+        recorder.onMotion();
+        for (FlvTag tag : frames(0, 1500)) {
+            recorder.handle(tag);
+        }
+        assertTrue(recorder.isRecording());
+        Thread.sleep(600L);
+        // 运动已停止, 写到下一个关键帧之前结束
+        for (FlvTag tag : frames(1500, 2500)) {
+            recorder.handle(tag);
+        }
+        assertFalse(recorder.isRecording());
+        assertEquals(1, recorder.getClips());
+        long size = Files.size(store.list()[0].toPath());
+        long expected = FlvTag.HEADER_SIZE + VIDEO_CONFIG.getSize() + 20L * video(true, 0).getSize();
+        assertEquals(expected, size);
+    }
+
+    @Test
+    public void retentionDeletesOldestClips() throws IOException {
+        ClipStore store = new ClipStore(dir, ".flv", 250L, 60_000L);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            File clip = store.create(now - 10_000L + i * 1000L);
+            Files.write(clip.toPath(), new byte[100]);
+        }
+        File old = store.create(now - 120_000L);
+        Files.write(old.toPath(), new byte[10]);
+        //noinspection ResultOfMethodCallIgnored
+        old.setLastModified(now - 120_000L);
+
+        assertEquals(6, store.list().length);
+        assertEquals(4, store.enforce(now));
+        File[] clips = store.list();
+        assertEquals(2, clips.length);
+        assertFalse(old.exists());
+        assertEquals(4, store.getDeleted());
+    }
+
+    @Test
+    public void retentionSkipsClipsStillBeingWritten() throws IOException {
+        ClipStore store = new ClipStore(dir, ".flv", 100L, 60_000L);
+        long now = System.currentTimeMillis();
+        File writing = store.create(now - 2000L);
+        Files.write(writing.toPath(), new byte[100]);
+        store.begin(writing);
+        File done = store.create(now - 1000L);
+        Files.write(done.toPath(), new byte[100]);
+        File newest = store.create(now);
+        Files.write(newest.toPath(), new byte[10]);
+
+        // 超过总大小, 但最旧的还在写入
+        assertEquals(1, store.enforce(now));
+        assertTrue(writing.exists());
+        assertFalse(done.exists());
+
+        assertEquals(1, store.finish(writing, now));
+        assertFalse(writing.exists());
+        assertTrue(newest.exists());
+    }
+
+    @Test
+    public void retentionWaitsForClipToBeWritten() throws IOException {
+        ClipStore store = new ClipStore(dir, ".flv", 1L, 60_000L);
+        long now = System.currentTimeMillis();
+        File old = store.create(now - 10_000L);
+        Files.write(old.toPath(), new byte[100]);
+
+        // 模拟封装线程: 输出关闭后才写完
+        List<Runnable> pending = new ArrayList<>();
+        ClipRecorder recorder = new ClipRecorder(16, store, (clip, finished) -> {
+            pending.add(finished);
+            return new FileOutputStream(clip);
+        }, 2000L, 60_000L, 1024 * 1024);
+        recorder.handle(HEADER);
+        recorder.handle(VIDEO_CONFIG);
+        recorder.onMotion();
+        for (FlvTag tag : frames(0, 500)) {
+            recorder.handle(tag);
+        }
+        recorder.onStop();
+        assertEquals(1, recorder.getClips());
+        assertTrue(old.exists());
+
+        assertEquals(1, pending.size());
+        pending.get(0).run();
+        assertFalse(old.exists());
+        assertEquals(1, store.list().length);
+    }
+
+}
@@ -0,0 +1,58 @@
+package net.allape.housedog.stream;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlvTagParserTest {
+
+    @Test
+    public void splitsArbitraryWrites() throws IOException {
+        List<FlvTag> source = new ArrayList<>();
+        source.add(FlvTag.header(true, true));
+        source.add(FlvTag.of(FlvTag.TYPE_VIDEO, 0, new byte[] { 0x17, 0, 0, 0, 0 }));
+        source.add(FlvTag.of(FlvTag.TYPE_VIDEO, 0, new byte[] { 0x17, 1, 0, 0, 0, 9, 9 }));
+        source.add(FlvTag.of(FlvTag.TYPE_AUDIO, 23, new byte[] { (byte) 0xAF, 1, 5 }));
+        // 超过24位的时间戳
+        source.add(FlvTag.of(FlvTag.TYPE_VIDEO, 0x01234567, new byte[] { 0x27, 1, 0, 0, 0 }));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (FlvTag tag : source) {
+            tag.writeTo(bytes);
+        }
+        byte[] stream = bytes.toByteArray();
+
+        List<FlvTag> tags = new ArrayList<>();
+        FlvTagParser parser = new FlvTagParser(tags::add);
+        // 按不规则的长度写入
+        for (int i = 0, n = 1; i < stream.length; i += n, n = n % 7 + 1) {
+            parser.write(stream, i, Math.min(n, stream.length - i));
+        }
+
+        assertEquals(source.size(), tags.size());
+        assertEquals(stream.length, parser.getBytes());
+        for (int i = 0; i < source.size(); i++) {
+            assertEquals(source.get(i).getType(), tags.get(i).getType());
+            assertEquals(source.get(i).getTimestamp(), tags.get(i).getTimestamp());
+            assertArrayEquals(source.get(i).bytes, tags.get(i).bytes);
+        }
+        assertTrue(tags.get(0).isHeader());
+        assertTrue(tags.get(1).isSequenceHeader());
+        assertFalse(tags.get(1).isKeyFrame());
+        assertTrue(tags.get(2).isKeyFrame());
+        assertFalse(tags.get(4).isEssential());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNonFlv() throws IOException {
+        new FlvTagParser(tag -> { }).write(new byte[FlvTag.HEADER_SIZE]);
+    }
+
+}
@@ -0,0 +1,109 @@
+package net.allape.housedog.stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpoolStoreTest {
+
+    private static final List<FlvTag> PREAMBLE = Arrays.asList(
+            FlvTag.header(true, true),
+            FlvTag.of(FlvTag.TYPE_VIDEO, 0, new byte[] { 0x17, 0, 0, 0, 0 })
+    );
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("spool").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    private static FlvTag video(boolean key, int timestamp, int size) {
+        byte[] body = new byte[size];
+        body[0] = (byte) (key ? 0x17 : 0x27);
+        body[1] = 1;
+        return FlvTag.of(FlvTag.TYPE_VIDEO, timestamp, body);
+    }
+
+    @Test
+    public void segmentsStartAtKeyFrames() throws IOException {
+        SpoolStore spool = new SpoolStore(dir, 1000L, 100_000L);
+        assertFalse(spool.append(video(false, 0, 100), PREAMBLE));
+        assertFalse(spool.append(video(true, 40, 100), Collections.emptyList()));
+        assertTrue(spool.append(video(true, 80, 100), PREAMBLE));
+        // 超过目标大小后, 在下一个关键帧切分
+        for (int i = 0; i < 10; i++) {
+            assertTrue(spool.append(video(false, 120 + i * 40, 100), PREAMBLE));
+        }
+        assertEquals(0, spool.getCompletedCount());
+        assertTrue(spool.append(video(true, 600, 100), PREAMBLE));
+        assertEquals(1, spool.getCompletedCount());
+        assertTrue(spool.isWriting());
+
+        File first = spool.oldest();
+        byte[] bytes = Files.readAllBytes(first.toPath());
+        assertEquals('F', bytes[0]);
+        long expected = FlvTag.HEADER_SIZE + PREAMBLE.get(1).getSize() + 11 * video(true, 0, 100).getSize();
+        assertEquals(expected, bytes.length);
+    }
+
+    @Test
+    public void recoversUnfinishedSegments() throws IOException {
+        SpoolStore spool = new SpoolStore(dir, 1000L, 100_000L);
+        spool.append(video(true, 0, 100), PREAMBLE);
+        spool.append(video(false, 40, 100), PREAMBLE);
+        assertNull(spool.oldest());
+
+        // 没有finish, 模拟进程被杀
+        SpoolStore recovered = new SpoolStore(dir, 1000L, 100_000L);
+        assertEquals(1, recovered.getCompletedCount());
+        assertTrue(recovered.oldest().getName().endsWith(".flv"));
+        recovered.append(video(true, 0, 100), PREAMBLE);
+        recovered.finish();
+        assertEquals(2, recovered.getCompletedCount());
+        // 序号接着上次
+        File first = recovered.oldest();
+        assertTrue(recovered.remove(first));
+        assertTrue(recovered.oldest().getName().compareTo(first.getName()) > 0);
+        assertFalse(recovered.remove(first));
+    }
+
+    @Test
+    public void evictsOldestOverLimit() throws IOException {
+        SpoolStore spool = new SpoolStore(dir, 100L, 1000L);
+        for (int i = 0; i < 10; i++) {
+            spool.append(video(true, i * 40, 200), PREAMBLE);
+        }
+        spool.finish();
+        assertTrue(spool.getTotalBytes() <= 1000L);
+        assertTrue(spool.getEvicted() > 0);
+        assertEquals(10 - spool.getEvicted(), spool.getCompletedCount());
+        assertEquals(spool.getCompletedCount(), dir.listFiles().length);
+    }
+
+}
@@ -0,0 +1,225 @@
+package net.allape.housedog.stream;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TagFanoutTest {
+
+    private static final FlvTag HEADER = FlvTag.header(true, true);
+    private static final FlvTag VIDEO_CONFIG = FlvTag.of(FlvTag.TYPE_VIDEO, 0, new byte[] { 0x17, 0, 0, 0, 0 });
+
+    private final List<TagSink> sinks = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (TagSink sink : sinks) {
+            sink.close(1000L);
+        }
+    }
+
+    private static FlvTag video(boolean key, int timestamp) {
+        return FlvTag.of(FlvTag.TYPE_VIDEO, timestamp, new byte[] { (byte) (key ? 0x17 : 0x27), 1, 0, 0, 0, 1, 2, 3 });
+    }
+
+    private <T extends TagSink> T start(T sink) {
+        sinks.add(sink);
+        sink.start();
+        return sink;
+    }
+
+    /**
+     * 写入后等待的输出, 模拟上行很慢
+     */
+    private static class BlockingSink extends TagSink {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        BlockingSink() {
+            super("blocking", 4);
+        }
+
+        @Override
+        protected void write(FlvTag tag) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 记录写入的tag
+     */
+    private static class CollectingSink extends TagSink {
+        final List<FlvTag> tags = new ArrayList<>();
+        final CountDownLatch done;
+
+        CollectingSink(int expected) {
+            super("collecting", 1024);
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        protected void write(FlvTag tag) {
+            synchronized (tags) {
+                tags.add(tag);
+            }
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void slowSinkDoesNotBlockOthers() throws InterruptedException {
+        TagFanout fanout = new TagFanout();
+        BlockingSink slow = start(new BlockingSink());
+        CollectingSink fast = start(new CollectingSink(101));
+        fanout.add(slow);
+        fanout.add(fast);
+
+        fanout.onTag(HEADER);
+        fanout.onTag(VIDEO_CONFIG);
+        for (int i = 0; i < 100; i++) {
+            fanout.onTag(video(i % 10 == 0, i * 40));
+        }
+        // 文件头不经过write
+        assertTrue(fast.done.await(2, TimeUnit.SECONDS));
+        synchronized (fast.tags) {
+            assertEquals(101, fast.tags.size());
+        }
+        assertTrue(slow.getDropped() > 0);
+        slow.release.countDown();
+    }
+
+    @Test
+    public void lateSinkStartsWithPreambleAndKeyFrame() throws InterruptedException {
+        TagFanout fanout = new TagFanout();
+        fanout.onTag(HEADER);
+        fanout.onTag(VIDEO_CONFIG);
+        fanout.onTag(video(true, 0));
+        fanout.onTag(video(false, 40));
+
+        CollectingSink late = start(new CollectingSink(2));
+        fanout.add(late);
+        FlvTag key = video(true, 80);
+        fanout.onTag(video(false, 60));
+        fanout.onTag(key);
+        assertTrue(late.done.await(2, TimeUnit.SECONDS));
+        synchronized (late.tags) {
+            assertEquals(VIDEO_CONFIG, late.tags.get(0));
+            assertEquals(key, late.tags.get(1));
+        }
+        assertEquals(1, late.getSkipped());
+    }
+
+    @Test
+    public void outputSinksWritePlayableStreams() throws Exception {
+        File file = Files.createTempFile("fanout", ".flv").toFile();
+        ByteArrayOutputStream loopback = new ByteArrayOutputStream();
+        List<FlvTag> source = new ArrayList<>();
+        source.add(HEADER);
+        source.add(VIDEO_CONFIG);
+        for (int i = 0; i < 20; i++) {
+            source.add(video(i % 5 == 0, i * 40));
+        }
+        try {
+            OutputSink fileSink = start(new OutputSink("file", 64, () -> new FileOutputStream(file), new Backoff(1L, 1L)));
+            OutputSink loopbackSink = start(new OutputSink("loopback", 64, () -> loopback, new Backoff(1L, 1L)));
+            TagFanout fanout = new TagFanout();
+            fanout.add(fileSink);
+            fanout.add(loopbackSink);
+            // 录制器的输出可以在任意位置分段
+            FlvTagParser parser = new FlvTagParser(fanout);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            for (FlvTag tag : source) {
+                tag.writeTo(expected);
+            }
+            byte[] bytes = expected.toByteArray();
+            parser.write(bytes, 0, 7);
+            parser.write(bytes, 7, bytes.length - 7);
+
+            long deadline = System.currentTimeMillis() + 2000L;
+            while ((fileSink.getWritten() < 21 || loopbackSink.getWritten() < 21) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            fileSink.close(1000L);
+            loopbackSink.close(1000L);
+            assertArrayEquals(bytes, Files.readAllBytes(file.toPath()));
+            assertArrayEquals(bytes, loopback.toByteArray());
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    @Test
+    public void outputSinkReopensAtKeyFrameAfterFailure() throws IOException {
+        List<ByteArrayOutputStream> opened = new ArrayList<>();
+        boolean[] broken = { false };
+        OutputSink sink = new OutputSink("flaky", 16, () -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream() {
+                @Override
+                public synchronized void write(byte[] b, int off, int len) {
+                    if (broken[0]) {
+                        throw new IllegalStateException("broken");
+                    }
+                    super.write(b, off, len);
+                }
+            };
+            opened.add(out);
+            return new java.io.OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    if (broken[0]) {
+                        throw new IOException("broken pipe");
+                    }
+                    out.write(b, off, len);
+                }
+            };
+        }, new Backoff(1L, 1L));
+        sink.handle(HEADER);
+        sink.handle(VIDEO_CONFIG);
+        sink.handle(video(true, 0));
+        assertEquals(1, opened.size());
+
+        broken[0] = true;
+        sink.handle(video(false, 40));
+        assertEquals(1, sink.getErrors());
+        broken[0] = false;
+        try {
+            Thread.sleep(5L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 重新打开后先写文件头和解码配置, 非关键帧被跳过
+        sink.handle(video(false, 80));
+        FlvTag key = video(true, 120);
+        sink.handle(key);
+        assertEquals(2, opened.size());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        HEADER.writeTo(expected);
+        VIDEO_CONFIG.writeTo(expected);
+        key.writeTo(expected);
+        assertArrayEquals(expected.toByteArray(), opened.get(1).toByteArray());
+    }
+
+}
@@ -0,0 +1,186 @@
+package net.allape.housedog.stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UplinkSinkTest {
+
+    private static final FlvTag HEADER = FlvTag.header(true, true);
+    private static final FlvTag METADATA = FlvTag.of(FlvTag.TYPE_SCRIPT, 0, new byte[] { 2, 0, 10, 'o', 'n', 'M', 'e', 't', 'a', 'D', 'a', 't', 'a' });
+    private static final FlvTag VIDEO_CONFIG = FlvTag.of(FlvTag.TYPE_VIDEO, 0, new byte[] { 0x17, 0, 0, 0, 0 });
+    private static final FlvTag AUDIO_CONFIG = FlvTag.of(FlvTag.TYPE_AUDIO, 0, new byte[] { (byte) 0xAF, 0, 0x12, 0x10 });
+
+    private File dir;
+    private SpoolStore spool;
+    // 模拟的服务端是否可连接
+    private boolean up;
+    // 模拟的连接是否已断开
+    private boolean broken;
+    // 最后一次打开的连接
+    private ByteArrayOutputStream last;
+    private UplinkSink sink;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("uplink").toFile();
+        spool = new SpoolStore(dir, 1000L, 100_000L);
+        sink = new UplinkSink(() -> {
+            if (!up) {
+                throw new IOException("connection refused");
+            }
+            last = new ByteArrayOutputStream() {
+                @Override
+                public synchronized void write(byte[] b, int off, int len) {
+                    if (broken) {
+                        throw new IllegalStateException();
+                    }
+                    super.write(b, off, len);
+                }
+            };
+            return new java.io.FilterOutputStream(last) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    if (broken) {
+                        throw new IOException("broken pipe");
+                    }
+                    out.write(b, off, len);
+                }
+            };
+        }, spool, new Backoff(1L, 1L), 16);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    private static FlvTag video(boolean key, int timestamp) {
+        return FlvTag.of(FlvTag.TYPE_VIDEO, timestamp, new byte[] { (byte) (key ? 0x17 : 0x27), 1, 0, 0, 0, 1, 2, 3 });
+    }
+
+    private static FlvTag audio(int timestamp) {
+        return FlvTag.of(FlvTag.TYPE_AUDIO, timestamp, new byte[] { (byte) 0xAF, 1, 1, 2 });
+    }
+
+    private void startStream() {
+        sink.handle(HEADER);
+        sink.handle(METADATA);
+        sink.handle(VIDEO_CONFIG);
+        sink.handle(AUDIO_CONFIG);
+    }
+
+    private static byte[] concat(FlvTag... tags) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (FlvTag tag : tags) {
+            tag.writeTo(bytes);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void liveStreamStartsWithSequenceHeaders() throws IOException {
+        up = true;
+        startStream();
+        // 收到关键帧之前不连接
+        assertFalse(sink.isConnected());
+        FlvTag key = video(true, 0);
+        FlvTag next = video(false, 40);
+        sink.handle(key);
+        sink.handle(next);
+        assertTrue(sink.isConnected());
+        assertEquals(0, sink.getSpooled());
+        assertArrayEquals(concat(HEADER, METADATA, VIDEO_CONFIG, AUDIO_CONFIG, key, next), last.toByteArray());
+
+        // 录制器重启, 例如码率等级变化
+        startStream();
+        FlvTag restarted = video(true, 0);
+        sink.handle(restarted);
+        assertEquals(2, sink.getConnects());
+        assertArrayEquals(concat(HEADER, METADATA, VIDEO_CONFIG, AUDIO_CONFIG, restarted), last.toByteArray());
+    }
+
+    @Test
+    public void spoolsUntilReconnectedAtKeyFrame() throws IOException {
+        startStream();
+        sink.handle(video(true, 0));
+        sink.handle(audio(20));
+        sink.handle(video(false, 40));
+        assertFalse(sink.isConnected());
+        assertEquals(3, sink.getSpooled());
+        assertTrue(spool.isWriting());
+
+        up = true;
+        sink.setNetworkAvailable(true);
+        // 直播要从关键帧开始, 之前的仍然暂存
+        sink.handle(video(false, 80));
+        assertFalse(sink.isConnected());
+        assertEquals(0, sink.getConnects());
+        assertEquals(4, sink.getSpooled());
+
+        FlvTag key = video(true, 120);
+        sink.handle(key);
+        assertTrue(sink.isConnected());
+        assertEquals(1, sink.getConnects());
+        assertFalse(spool.isWriting());
+        assertEquals(1, spool.getCompletedCount());
+
+        assertArrayEquals(concat(HEADER, METADATA, VIDEO_CONFIG, AUDIO_CONFIG, key), last.toByteArray());
+    }
+
+    @Test
+    public void spoolsFromNextKeyFrameAfterWriteFailure() throws IOException {
+        up = true;
+        startStream();
+        FlvTag key = video(true, 0);
+        sink.handle(key);
+        assertTrue(sink.isConnected());
+        assertArrayEquals(concat(HEADER, METADATA, VIDEO_CONFIG, AUDIO_CONFIG, key), last.toByteArray());
+
+        broken = true;
+        up = false;
+        sink.handle(video(false, 40));
+        assertFalse(sink.isConnected());
+        assertEquals(1, sink.getErrors());
+        // 暂存的段不能从非关键帧开始
+        assertFalse(spool.isWriting());
+
+        sink.handle(video(true, 80));
+        assertTrue(spool.isWriting());
+        assertEquals(1, sink.getSpooled());
+    }
+
+    @Test
+    public void staysOfflineWhileNetworkIsLost() throws IOException {
+        up = true;
+        startStream();
+        sink.handle(video(true, 0));
+        assertTrue(sink.isConnected());
+
+        sink.setNetworkAvailable(false);
+        sink.handle(video(true, 40));
+        sink.handle(video(false, 80));
+        assertFalse(sink.isConnected());
+        assertEquals(2, sink.getSpooled());
+        assertEquals(1, sink.getConnects());
+    }
+
+}
@@ -0,0 +1,80 @@
+package net.allape.housedog.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class LumaUtilsTest {
+
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 6;
+
+    private static byte luma(int x, int y) {
+        return (byte) (y * 16 + x);
+    }
+
+    /**
+     * 带行填充和像素跨度的Y平面, 填充部分为0xFF
+     */
+    private static ByteBuffer yPlane(int rowStride, int pixelStride, int offset) {
+        ByteBuffer plane = ByteBuffer.allocate(offset + rowStride * HEIGHT);
+        for (int i = 0; i < plane.capacity(); i++) {
+            plane.put(i, (byte) 0xFF);
+        }
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                plane.put(offset + y * rowStride + x * pixelStride, luma(x, y));
+            }
+        }
+        plane.position(offset);
+        return plane;
+    }
+
+    /**
+     * 逐像素检查: 输出的第r行第c列为原图采样后的第r列, 从下往上的第c行
+     */
+    private static void assertRotated(ByteBuffer dst, int dstBase, int dstStride, int scale) {
+        int sampledWidth = WIDTH / scale;
+        int sampledHeight = HEIGHT / scale;
+        for (int r = 0; r < sampledWidth; r++) {
+            for (int c = 0; c < sampledHeight; c++) {
+                assertEquals("row " + r + " col " + c,
+                        luma(r * scale, (sampledHeight - 1 - c) * scale),
+                        dst.get(dstBase + r * dstStride + c));
+            }
+        }
+    }
+
+    @Test
+    public void tightPlaneIsRotatedClockwise() {
+        ByteBuffer dst = ByteBuffer.allocate(WIDTH * HEIGHT);
+        LumaUtils.downsampleRotated(yPlane(WIDTH, 1, 0), WIDTH, 1, WIDTH, HEIGHT, 1, dst, HEIGHT);
+        assertRotated(dst, 0, HEIGHT, 1);
+    }
+
+    @Test
+    public void paddedRowsAndPixelStrideAreSkipped() {
+        // 行跨度大于宽度, 像素跨度为2, 平面和输出都不从0开始
+        int rowStride = WIDTH * 2 + 6;
+        ByteBuffer plane = yPlane(rowStride, 2, 3);
+        int dstStride = HEIGHT / 2 + 5;
+        ByteBuffer dst = ByteBuffer.allocate(7 + dstStride * WIDTH / 2);
+        dst.position(7);
+
+        LumaUtils.downsampleRotated(plane, rowStride, 2, WIDTH, HEIGHT, 2, dst, dstStride);
+
+        assertRotated(dst, 7, dstStride, 2);
+        // 只读写, 不改变position
+        assertEquals(3, plane.position());
+        assertEquals(7, dst.position());
+        // 输出行尾的填充不被写入
+        for (int r = 0; r < WIDTH / 2; r++) {
+            for (int c = HEIGHT / 2; c < dstStride; c++) {
+                assertEquals(0, dst.get(7 + r * dstStride + c));
+            }
+        }
+    }
+
+}
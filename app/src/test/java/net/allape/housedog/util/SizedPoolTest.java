@@ -0,0 +1,77 @@
+package net.allape.housedog.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SizedPoolTest {
+
+    @Test
+    public void countsHitsAndMisses() {
+        SizedPool<Object> pool = new SizedPool<>();
+        assertNull(pool.poll(640, 480, 8, 1));
+        assertEquals(0, pool.getHits());
+        assertEquals(1, pool.getMisses());
+
+        Object frame = new Object();
+        pool.offer(frame, 640, 480, 8, 1);
+        assertSame(frame, pool.poll(640, 480, 8, 1));
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+
+        // 已被取出, 再次获取未命中
+        assertNull(pool.poll(640, 480, 8, 1));
+        assertEquals(2, pool.getMisses());
+    }
+
+    @Test
+    public void reusesOnlyMatchingSize() {
+        SizedPool<Object> pool = new SizedPool<>();
+        Object gray = new Object();
+        Object rgba = new Object();
+        pool.offer(gray, 640, 480, 8, 1);
+        pool.offer(rgba, 640, 480, 8, 4);
+
+        // 宽高互换, 例如旋转后, 是另一种尺寸
+        assertNull(pool.poll(480, 640, 8, 1));
+        assertNull(pool.poll(640, 480, 16, 1));
+        assertSame(rgba, pool.poll(640, 480, 8, 4));
+        assertSame(gray, pool.poll(640, 480, 8, 1));
+        assertEquals(2, pool.getHits());
+        assertEquals(2, pool.getMisses());
+    }
+
+    @Test
+    public void lastReleasedIsReusedFirst() {
+        SizedPool<Object> pool = new SizedPool<>();
+        Object first = new Object();
+        Object second = new Object();
+        pool.offer(first, 320, 240, 8, 1);
+        pool.offer(second, 320, 240, 8, 1);
+        assertSame(second, pool.poll(320, 240, 8, 1));
+        assertSame(first, pool.poll(320, 240, 8, 1));
+    }
+
+    @Test
+    public void clearReleasesIdleItems() {
+        SizedPool<Object> pool = new SizedPool<>();
+        Object idle = new Object();
+        Object other = new Object();
+        pool.offer(idle, 320, 240, 8, 1);
+        pool.offer(other, 160, 120, 8, 4);
+
+        List<Object> released = new ArrayList<>();
+        pool.clear(released::add);
+        assertEquals(2, released.size());
+        assertTrue(released.contains(idle));
+        assertTrue(released.contains(other));
+        assertNull(pool.poll(320, 240, 8, 1));
+    }
+
+}
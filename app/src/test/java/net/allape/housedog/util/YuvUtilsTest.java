@@ -0,0 +1,247 @@
+package net.allape.housedog.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class YuvUtilsTest {
+
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+    private static final int CHROMA_WIDTH = WIDTH / 2;
+    private static final int CHROMA_HEIGHT = HEIGHT / 2;
+
+    private static byte luma(int x, int y) {
+        return (byte) (y * WIDTH + x);
+    }
+
+    private static byte chromaU(int x, int y) {
+        return (byte) (100 + y * CHROMA_WIDTH + x);
+    }
+
+    private static byte chromaV(int x, int y) {
+        return (byte) (200 + y * CHROMA_WIDTH + x);
+    }
+
+    /**
+     * 带行填充的Y平面, 最后一行没有填充
+     */
+    private static ByteBuffer yPlane(int rowStride) {
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * (HEIGHT - 1) + WIDTH);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                plane.put(y * rowStride + x, luma(x, y));
+            }
+        }
+        return plane;
+    }
+
+    private static byte[] expectedNV21() {
+        byte[] expected = new byte[YuvUtils.yuv420Size(WIDTH, HEIGHT)];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                expected[y * WIDTH + x] = luma(x, y);
+            }
+        }
+        int i = WIDTH * HEIGHT;
+        for (int y = 0; y < CHROMA_HEIGHT; y++) {
+            for (int x = 0; x < CHROMA_WIDTH; x++) {
+                expected[i++] = chromaV(x, y);
+                expected[i++] = chromaU(x, y);
+            }
+        }
+        return expected;
+    }
+
+    private static byte[] expectedI420() {
+        byte[] expected = new byte[YuvUtils.yuv420Size(WIDTH, HEIGHT)];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                expected[y * WIDTH + x] = luma(x, y);
+            }
+        }
+        int u = WIDTH * HEIGHT;
+        int v = u + CHROMA_WIDTH * CHROMA_HEIGHT;
+        for (int y = 0; y < CHROMA_HEIGHT; y++) {
+            for (int x = 0; x < CHROMA_WIDTH; x++) {
+                expected[u++] = chromaU(x, y);
+                expected[v++] = chromaV(x, y);
+            }
+        }
+        return expected;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer, int offset) {
+        byte[] bytes = new byte[YuvUtils.yuv420Size(WIDTH, HEIGHT)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return bytes;
+    }
+
+    /**
+     * 半平面排列, 一块内存中色度交错, vFirst为true时为VUVU(NV21), 否则为UVUV(NV12)
+     * @return {u, v}
+     */
+    private static ByteBuffer[] semiPlanar(int rowStride, boolean vFirst) {
+        ByteBuffer chroma = ByteBuffer.allocateDirect(rowStride * (CHROMA_HEIGHT - 1) + CHROMA_WIDTH * 2);
+        for (int y = 0; y < CHROMA_HEIGHT; y++) {
+            for (int x = 0; x < CHROMA_WIDTH; x++) {
+                int i = y * rowStride + x * 2;
+                chroma.put(i, vFirst ? chromaV(x, y) : chromaU(x, y));
+                chroma.put(i + 1, vFirst ? chromaU(x, y) : chromaV(x, y));
+            }
+        }
+        // 与Image.Plane一致, 各平面的最后一个字节之后没有多余数据
+        int length = chroma.capacity() - 1;
+        int uOffset = vFirst ? 1 : 0;
+        int vOffset = vFirst ? 0 : 1;
+        chroma.limit(uOffset + length).position(uOffset);
+        ByteBuffer u = chroma.slice();
+        chroma.clear();
+        chroma.limit(vOffset + length).position(vOffset);
+        ByteBuffer v = chroma.slice();
+        return new ByteBuffer[] { u, v };
+    }
+
+    /**
+     * 完全平面排列, 带行填充
+     * @return {u, v}
+     */
+    private static ByteBuffer[] planar(int rowStride) {
+        ByteBuffer u = ByteBuffer.allocate(rowStride * (CHROMA_HEIGHT - 1) + CHROMA_WIDTH);
+        ByteBuffer v = ByteBuffer.allocate(rowStride * (CHROMA_HEIGHT - 1) + CHROMA_WIDTH);
+        for (int y = 0; y < CHROMA_HEIGHT; y++) {
+            for (int x = 0; x < CHROMA_WIDTH; x++) {
+                u.put(y * rowStride + x, chromaU(x, y));
+                v.put(y * rowStride + x, chromaV(x, y));
+            }
+        }
+        return new ByteBuffer[] { u, v };
+    }
+
+    @Test
+    public void tightSemiPlanarUsesInterleavedCopy() {
+        ByteBuffer[] uv = semiPlanar(WIDTH, true);
+        // 直接缓冲只能由调用方比较地址
+        assertFalse(YuvUtils.isInterleavedVU(uv[0], uv[1], CHROMA_WIDTH * CHROMA_HEIGHT * 2));
+
+        ByteBuffer dst = ByteBuffer.allocateDirect(YuvUtils.yuv420Size(WIDTH, HEIGHT));
+        YuvUtils.toNV21(WIDTH, HEIGHT, yPlane(WIDTH), WIDTH, 1, uv[0], uv[1], WIDTH, 2, true, dst);
+        assertArrayEquals(expectedNV21(), toArray(dst, 0));
+    }
+
+    @Test
+    public void interleavedCheckDoesNotTouchPlanes() {
+        ByteBuffer chroma = ByteBuffer.allocate(CHROMA_WIDTH * CHROMA_HEIGHT * 2);
+        chroma.position(1);
+        ByteBuffer u = chroma.slice();
+        chroma.position(0).limit(chroma.capacity() - 1);
+        ByteBuffer v = chroma.slice();
+        assertTrue(YuvUtils.isInterleavedVU(u, v, CHROMA_WIDTH * CHROMA_HEIGHT * 2));
+        assertFalse(YuvUtils.isInterleavedVU(v, u, CHROMA_WIDTH * CHROMA_HEIGHT * 2));
+        assertArrayEquals(new byte[CHROMA_WIDTH * CHROMA_HEIGHT * 2], chroma.array());
+
+        assertTrue(YuvUtils.isInterleavedVU(0x1001L, 0x1000L));
+        assertFalse(YuvUtils.isInterleavedVU(0x1000L, 0x1001L));
+    }
+
+    @Test
+    public void paddedSemiPlanarToNV21() {
+        ByteBuffer[] uv = semiPlanar(WIDTH + 8, true);
+        ByteBuffer dst = ByteBuffer.allocate(YuvUtils.yuv420Size(WIDTH, HEIGHT));
+        YuvUtils.toNV21(WIDTH, HEIGHT, yPlane(WIDTH + 8), WIDTH + 8, 1, uv[0], uv[1], WIDTH + 8, 2, dst);
+        assertArrayEquals(expectedNV21(), toArray(dst, 0));
+    }
+
+    @Test
+    public void uvOrderedSemiPlanarIsNotTreatedAsNV21() {
+        ByteBuffer[] uv = semiPlanar(WIDTH, false);
+        assertFalse(YuvUtils.isInterleavedVU(uv[0], uv[1], CHROMA_WIDTH * CHROMA_HEIGHT * 2));
+
+        ByteBuffer dst = ByteBuffer.allocate(YuvUtils.yuv420Size(WIDTH, HEIGHT));
+        YuvUtils.toNV21(WIDTH, HEIGHT, yPlane(WIDTH), WIDTH, 1, uv[0], uv[1], WIDTH, 2, dst);
+        assertArrayEquals(expectedNV21(), toArray(dst, 0));
+    }
+
+    @Test
+    public void readOnlyPlanesFallBackToGenericCopy() {
+        ByteBuffer[] uv = semiPlanar(WIDTH, true);
+        ByteBuffer u = uv[0].asReadOnlyBuffer();
+        ByteBuffer v = uv[1].asReadOnlyBuffer();
+        ByteBuffer dst = ByteBuffer.allocate(YuvUtils.yuv420Size(WIDTH, HEIGHT));
+        YuvUtils.toNV21(WIDTH, HEIGHT, yPlane(WIDTH).asReadOnlyBuffer(), WIDTH, 1, u, v, WIDTH, 2, dst);
+        assertArrayEquals(expectedNV21(), toArray(dst, 0));
+    }
+
+    @Test
+    public void paddedPlanarToNV21() {
+        ByteBuffer[] uv = planar(CHROMA_WIDTH + 4);
+        ByteBuffer dst = ByteBuffer.allocate(YuvUtils.yuv420Size(WIDTH, HEIGHT));
+        YuvUtils.toNV21(WIDTH, HEIGHT, yPlane(WIDTH + 16), WIDTH + 16, 1, uv[0], uv[1], CHROMA_WIDTH + 4, 1, dst);
+        assertArrayEquals(expectedNV21(), toArray(dst, 0));
+    }
+
+    @Test
+    public void paddedPlanarToI420() {
+        ByteBuffer[] uv = planar(CHROMA_WIDTH + 4);
+        ByteBuffer dst = ByteBuffer.allocateDirect(YuvUtils.yuv420Size(WIDTH, HEIGHT));
+        YuvUtils.toI420(WIDTH, HEIGHT, yPlane(WIDTH + 16), WIDTH + 16, 1, uv[0], uv[1], CHROMA_WIDTH + 4, 1, dst);
+        assertArrayEquals(expectedI420(), toArray(dst, 0));
+    }
+
+    @Test
+    public void semiPlanarToI420() {
+        ByteBuffer[] uv = semiPlanar(WIDTH + 8, false);
+        ByteBuffer dst = ByteBuffer.allocate(YuvUtils.yuv420Size(WIDTH, HEIGHT));
+        YuvUtils.toI420(WIDTH, HEIGHT, yPlane(WIDTH), WIDTH, 1, uv[0], uv[1], WIDTH + 8, 2, dst);
+        assertArrayEquals(expectedI420(), toArray(dst, 0));
+    }
+
+    @Test
+    public void keepsPositionsAndWritesFromDestinationPosition() {
+        ByteBuffer y = yPlane(WIDTH);
+        ByteBuffer[] uv = semiPlanar(WIDTH, true);
+        ByteBuffer dst = ByteBuffer.allocate(YuvUtils.yuv420Size(WIDTH, HEIGHT) + 5);
+        dst.position(5);
+
+        YuvUtils.toNV21(WIDTH, HEIGHT, y, WIDTH, 1, uv[0], uv[1], WIDTH, 2, dst);
+
+        assertArrayEquals(expectedNV21(), toArray(dst, 5));
+        assertEquals(5, dst.position());
+        assertEquals(0, y.position());
+        assertEquals(0, uv[0].position());
+        assertEquals(0, uv[1].position());
+    }
+
+    @Test
+    public void downscalesSemiPlanarToI420() {
+        ByteBuffer[] uv = semiPlanar(WIDTH + 8, true);
+        ByteBuffer dst = ByteBuffer.allocate(YuvUtils.yuv420Size(WIDTH / 2, HEIGHT / 2));
+        YuvUtils.downscaleToI420(WIDTH, HEIGHT, 2, yPlane(WIDTH + 8), WIDTH + 8, 1, uv[0], uv[1], WIDTH + 8, 2, dst);
+        assertArrayEquals(new byte[] {
+                luma(0, 0), luma(2, 0), luma(4, 0), luma(6, 0),
+                luma(0, 2), luma(2, 2), luma(4, 2), luma(6, 2),
+                chromaU(0, 0), chromaU(2, 0),
+                chromaV(0, 0), chromaV(2, 0),
+        }, dst.array());
+    }
+
+    @Test
+    public void downscalesPlanarToNV21() {
+        ByteBuffer[] uv = planar(CHROMA_WIDTH + 4);
+        ByteBuffer dst = ByteBuffer.allocate(YuvUtils.yuv420Size(WIDTH / 2, HEIGHT / 2));
+        YuvUtils.downscaleToNV21(WIDTH, HEIGHT, 2, yPlane(WIDTH), WIDTH, 1, uv[0], uv[1], CHROMA_WIDTH + 4, 1, dst);
+        assertArrayEquals(new byte[] {
+                luma(0, 0), luma(2, 0), luma(4, 0), luma(6, 0),
+                luma(0, 2), luma(2, 2), luma(4, 2), luma(6, 2),
+                chromaV(0, 0), chromaU(0, 0), chromaV(2, 0), chromaU(2, 0),
+        }, dst.array());
+    }
+
+}
@@ -0,0 +1,38 @@
+package net.allape.housedog.benchmark;
+
+import net.allape.housedog.util.BytesUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MQ日志中的十六进制转换
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BytesUtilsBenchmark {
+
+    @Param({"4", "64", "1024"})
+    public int length;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+    }
+
+    @Benchmark
+    public String toHex() {
+        return BytesUtils.toHex(bytes);
+    }
+
+}
@@ -0,0 +1,150 @@
+package net.allape.housedog.benchmark;
+
+import net.allape.housedog.detector.FrameDiffMotionDetector;
+import net.allape.housedog.detector.MotionResult;
+import net.allape.housedog.util.LumaUtils;
+
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.opencv.opencv_core.CvContour;
+import org.bytedeco.opencv.opencv_core.CvMemStorage;
+import org.bytedeco.opencv.opencv_core.CvSeq;
+import org.bytedeco.opencv.opencv_core.IplImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+
+import static org.bytedeco.opencv.global.opencv_core.IPL_DEPTH_8U;
+import static org.bytedeco.opencv.global.opencv_core.cvAbsDiff;
+import static org.bytedeco.opencv.global.opencv_core.cvFlip;
+import static org.bytedeco.opencv.global.opencv_core.cvReleaseImage;
+import static org.bytedeco.opencv.global.opencv_core.cvTranspose;
+import static org.bytedeco.opencv.global.opencv_imgproc.CV_CHAIN_APPROX_SIMPLE;
+import static org.bytedeco.opencv.global.opencv_imgproc.CV_RETR_LIST;
+import static org.bytedeco.opencv.global.opencv_imgproc.CV_RGB2GRAY;
+import static org.bytedeco.opencv.global.opencv_imgproc.CV_THRESH_BINARY;
+import static org.bytedeco.opencv.global.opencv_imgproc.CV_YUV2RGBA_NV21;
+import static org.bytedeco.opencv.global.opencv_imgproc.cvCvtColor;
+import static org.bytedeco.opencv.global.opencv_imgproc.cvResize;
+import static org.bytedeco.opencv.global.opencv_imgproc.cvThreshold;
+import static org.bytedeco.opencv.helper.opencv_imgproc.cvFindContours;
+
+/**
+ * 整帧的处理耗时, 用于判断 分辨率/缩放比例 的组合是否在100ms(10fps)的预算内
+ * 每次调用交替处理两帧, 结果按帧计算
+ */
+@State(Scope.Thread)
+public class FrameBudgetBenchmark {
+
+    private static final int DIFF_THRESHOLD = 150;
+
+    @Param({"640x480", "1920x1080", "3264x2448"})
+    public String resolution;
+
+    @Param({"4", "8", "16"})
+    public int scale;
+
+    private int width;
+    private int height;
+
+    private final IplImage[] nv21Frames = new IplImage[2];
+    private final ByteBuffer[] yPlanes = new ByteBuffer[2];
+
+    private IplImage rgba;
+    private IplImage resized;
+    private IplImage rotated;
+    private IplImage gray;
+    private IplImage previousGray;
+    private IplImage diff;
+    private CvMemStorage storage;
+
+    private ByteBuffer lumaFrame;
+    private FrameDiffMotionDetector detector;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] size = SyntheticFrames.parse(resolution);
+        width = size[0];
+        height = size[1];
+
+        for (int i = 0; i < 2; i++) {
+            byte[] frame = SyntheticFrames.nv21(width, height, i);
+            nv21Frames[i] = IplImage.create(width, height * 3 / 2, IPL_DEPTH_8U, 1);
+            nv21Frames[i].<ByteBuffer>createBuffer().put(frame);
+            yPlanes[i] = ByteBuffer.allocateDirect(width * height);
+            yPlanes[i].put(frame, 0, width * height).flip();
+        }
+
+        rgba = IplImage.create(width, height, IPL_DEPTH_8U, 4);
+        resized = IplImage.create(width / scale, height / scale, IPL_DEPTH_8U, 4);
+        rotated = IplImage.create(height / scale, width / scale, IPL_DEPTH_8U, 4);
+        gray = IplImage.create(height / scale, width / scale, IPL_DEPTH_8U, 1);
+        previousGray = IplImage.create(height / scale, width / scale, IPL_DEPTH_8U, 1);
+        diff = IplImage.create(height / scale, width / scale, IPL_DEPTH_8U, 1);
+        storage = CvMemStorage.create();
+
+        lumaFrame = ByteBuffer.allocateDirect((height / scale) * (width / scale));
+        detector = new FrameDiffMotionDetector(DIFF_THRESHOLD);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (IplImage image : new IplImage[] { nv21Frames[0], nv21Frames[1], rgba, resized, rotated, gray, previousGray, diff }) {
+            cvReleaseImage(image);
+        }
+        storage.close();
+    }
+
+    /**
+     * 原RGB流程: YUV转RGBA -> 缩放 -> 旋转 -> 灰度 -> 帧差 -> 轮廓
+     */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public boolean rgbPipeline() {
+        boolean moved = false;
+        for (IplImage nv21 : nv21Frames) {
+            swapGray();
+            cvCvtColor(nv21, rgba, CV_YUV2RGBA_NV21);
+            cvResize(rgba, resized);
+            cvTranspose(resized, rotated);
+            cvFlip(rotated, rotated, 1);
+            cvCvtColor(rotated, gray, CV_RGB2GRAY);
+            cvAbsDiff(gray, previousGray, diff);
+            cvThreshold(diff, diff, DIFF_THRESHOLD, 255, CV_THRESH_BINARY);
+            CvSeq contour = new CvSeq(null);
+            cvFindContours(diff, storage, contour, Loader.sizeof(CvContour.class), CV_RETR_LIST, CV_CHAIN_APPROX_SIMPLE);
+            moved |= !contour.isNull() && contour.elem_size() > 0;
+            contour.close();
+            storage.free_space();
+        }
+        return moved;
+    }
+
+    /**
+     * 亮度流程: Y平面采样 -> 纯Java帧差
+     */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public boolean lumaPipeline() {
+        boolean moved = false;
+        for (ByteBuffer yPlane : yPlanes) {
+            LumaUtils.downsampleRotated(yPlane, width, 1, width, height, scale, lumaFrame, height / scale);
+            MotionResult result = detector.detect(height / scale, width / scale, height / scale, lumaFrame);
+            moved |= result.isMoved();
+        }
+        return moved;
+    }
+
+    private void swapGray() {
+        IplImage swap = previousGray;
+        previousGray = gray;
+        gray = swap;
+    }
+
+}
@@ -0,0 +1,283 @@
+package net.allape.housedog.benchmark;
+
+import net.allape.housedog.detector.Blob;
+import net.allape.housedog.detector.ConnectedComponentLabeler;
+import net.allape.housedog.detector.FrameDiffMotionDetector;
+import net.allape.housedog.detector.MotionResult;
+import net.allape.housedog.detector.PyramidMotionDetector;
+import net.allape.housedog.detector.RunningAverageMotionDetector;
+import net.allape.housedog.util.LumaUtils;
+
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.opencv.opencv_core.CvContour;
+import org.bytedeco.opencv.opencv_core.CvMemStorage;
+import org.bytedeco.opencv.opencv_core.CvSeq;
+import org.bytedeco.opencv.opencv_core.IplImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.List;
+
+import static org.bytedeco.opencv.global.opencv_core.IPL_DEPTH_8U;
+import static org.bytedeco.opencv.global.opencv_core.cvAbsDiff;
+import static org.bytedeco.opencv.global.opencv_core.cvCopy;
+import static org.bytedeco.opencv.global.opencv_core.cvFlip;
+import static org.bytedeco.opencv.global.opencv_core.cvReleaseImage;
+import static org.bytedeco.opencv.global.opencv_core.cvTranspose;
+import static org.bytedeco.opencv.global.opencv_imgproc.CV_CHAIN_APPROX_SIMPLE;
+import static org.bytedeco.opencv.global.opencv_imgproc.CV_GRAY2BGRA;
+import static org.bytedeco.opencv.global.opencv_imgproc.CV_RETR_LIST;
+import static org.bytedeco.opencv.global.opencv_imgproc.CV_RGB2GRAY;
+import static org.bytedeco.opencv.global.opencv_imgproc.CV_THRESH_BINARY;
+import static org.bytedeco.opencv.global.opencv_imgproc.CV_YUV2RGBA_NV21;
+import static org.bytedeco.opencv.global.opencv_imgproc.cvCvtColor;
+import static org.bytedeco.opencv.global.opencv_imgproc.cvResize;
+import static org.bytedeco.opencv.global.opencv_imgproc.cvThreshold;
+import static org.bytedeco.opencv.helper.opencv_imgproc.cvFindContours;
+
+/**
+ * MotionDetectionView中每个处理步骤的耗时
+ * RenderScript的YUV转RGB在桌面上用OpenCV的NV21转换代替, Bitmap转换用GRAY2BGRA + 整帧复制代替
+ */
+@State(Scope.Thread)
+public class PipelineStagesBenchmark {
+
+    private static final int DIFF_THRESHOLD = 150;
+
+    @Param({"640x480", "1920x1080", "3264x2448"})
+    public String resolution;
+
+    @Param({"8"})
+    public int scale;
+
+    private int width;
+    private int height;
+
+    // 模拟Image的Y平面和V平面
+    private ByteBuffer yPlane;
+    private ByteBuffer vPlane;
+    private byte[] yuvBytes;
+
+    private IplImage nv21;
+    private IplImage rgba;
+    private IplImage resized;
+    private IplImage rotated;
+    private IplImage gray;
+    private IplImage previousGray;
+    private IplImage diff;
+    private IplImage contourInput;
+    private IplImage display;
+    private CvMemStorage storage;
+    private IntBuffer bitmapPixels;
+
+    private ByteBuffer lumaFrame;
+    private ByteBuffer previousLumaFrame;
+    private FrameDiffMotionDetector detector;
+    private byte[] diffMask;
+    private RunningAverageMotionDetector runningAverageDetector;
+    private PyramidMotionDetector pyramidDetector;
+    private ConnectedComponentLabeler labeler;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] size = SyntheticFrames.parse(resolution);
+        width = size[0];
+        height = size[1];
+
+        byte[] frame = SyntheticFrames.nv21(width, height, 1);
+        byte[] previousFrame = SyntheticFrames.nv21(width, height, 0);
+
+        yPlane = ByteBuffer.allocateDirect(width * height);
+        yPlane.put(frame, 0, width * height).flip();
+        vPlane = ByteBuffer.allocateDirect(width * height / 2 - 1);
+        vPlane.put(frame, width * height, width * height / 2 - 1).flip();
+        yuvBytes = new byte[yPlane.remaining() + vPlane.remaining()];
+
+        nv21 = IplImage.create(width, height * 3 / 2, IPL_DEPTH_8U, 1);
+        nv21.<ByteBuffer>createBuffer().put(frame);
+        rgba = IplImage.create(width, height, IPL_DEPTH_8U, 4);
+        resized = IplImage.create(width / scale, height / scale, IPL_DEPTH_8U, 4);
+        rotated = IplImage.create(height / scale, width / scale, IPL_DEPTH_8U, 4);
+        gray = IplImage.create(height / scale, width / scale, IPL_DEPTH_8U, 1);
+        previousGray = IplImage.create(height / scale, width / scale, IPL_DEPTH_8U, 1);
+        diff = IplImage.create(height / scale, width / scale, IPL_DEPTH_8U, 1);
+        contourInput = IplImage.create(height / scale, width / scale, IPL_DEPTH_8U, 1);
+        display = IplImage.create(height / scale, width / scale, IPL_DEPTH_8U, 4);
+        storage = CvMemStorage.create();
+        bitmapPixels = ByteBuffer.allocateDirect(display.imageSize()).order(ByteOrder.nativeOrder()).asIntBuffer();
+
+        // 准备好各步骤的输入
+        cvCvtColor(nv21, rgba, CV_YUV2RGBA_NV21);
+        cvResize(rgba, resized);
+        cvTranspose(resized, rotated);
+        cvFlip(rotated, rotated, 1);
+        cvCvtColor(rotated, gray, CV_RGB2GRAY);
+
+        IplImage previousNv21 = IplImage.create(width, height * 3 / 2, IPL_DEPTH_8U, 1);
+        previousNv21.<ByteBuffer>createBuffer().put(previousFrame);
+        cvCvtColor(previousNv21, rgba, CV_YUV2RGBA_NV21);
+        cvResize(rgba, resized);
+        cvTranspose(resized, rotated);
+        cvFlip(rotated, rotated, 1);
+        cvCvtColor(rotated, previousGray, CV_RGB2GRAY);
+        cvReleaseImage(previousNv21);
+
+        cvAbsDiff(gray, previousGray, diff);
+        cvThreshold(diff, diff, DIFF_THRESHOLD, 255, CV_THRESH_BINARY);
+
+        lumaFrame = ByteBuffer.allocateDirect((height / scale) * (width / scale));
+        previousLumaFrame = ByteBuffer.allocateDirect((height / scale) * (width / scale));
+        ByteBuffer previousY = ByteBuffer.wrap(previousFrame, 0, width * height);
+        LumaUtils.downsampleRotated(previousY, width, 1, width, height, scale, previousLumaFrame, height / scale);
+        LumaUtils.downsampleRotated(yPlane, width, 1, width, height, scale, lumaFrame, height / scale);
+        detector = new FrameDiffMotionDetector(DIFF_THRESHOLD);
+
+        // 与findContours相同的输入, 去掉行填充
+        diffMask = new byte[diff.width() * diff.height()];
+        ByteBuffer diffBuffer = diff.createBuffer();
+        for (int y = 0; y < diff.height(); y++) {
+            diffBuffer.position(y * diff.widthStep());
+            diffBuffer.get(diffMask, y * diff.width(), diff.width());
+        }
+        labeler = new ConnectedComponentLabeler(1);
+
+        runningAverageDetector = new RunningAverageMotionDetector(DIFF_THRESHOLD);
+        runningAverageDetector.detect(height / scale, width / scale, height / scale, lumaFrame);
+        pyramidDetector = new PyramidMotionDetector(DIFF_THRESHOLD);
+        pyramidDetector.detect(height / scale, width / scale, height / scale, lumaFrame);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (IplImage image : new IplImage[] { nv21, rgba, resized, rotated, gray, previousGray, diff, contourInput, display }) {
+            cvReleaseImage(image);
+        }
+        storage.close();
+    }
+
+    /**
+     * 把Y平面和V平面拼接到字节数组
+     */
+    @Benchmark
+    public byte[] yuvUnpack() {
+        ByteBuffer y = yPlane.duplicate();
+        ByteBuffer v = vPlane.duplicate();
+        int ySize = y.remaining();
+        y.get(yuvBytes, 0, ySize);
+        v.get(yuvBytes, ySize, v.remaining());
+        return yuvBytes;
+    }
+
+    /**
+     * YUV转RGBA, 对应RenderScript的ScriptIntrinsicYuvToRGB
+     */
+    @Benchmark
+    public IplImage yuvToRgba() {
+        cvCvtColor(nv21, rgba, CV_YUV2RGBA_NV21);
+        return rgba;
+    }
+
+    @Benchmark
+    public IplImage resize() {
+        cvResize(rgba, resized);
+        return resized;
+    }
+
+    @Benchmark
+    public IplImage transposeFlip() {
+        cvTranspose(resized, rotated);
+        cvFlip(rotated, rotated, 1);
+        return rotated;
+    }
+
+    @Benchmark
+    public IplImage grayConversion() {
+        cvCvtColor(rotated, gray, CV_RGB2GRAY);
+        return gray;
+    }
+
+    @Benchmark
+    public IplImage absDiffThreshold() {
+        cvAbsDiff(gray, previousGray, diff);
+        cvThreshold(diff, diff, DIFF_THRESHOLD, 255, CV_THRESH_BINARY);
+        return diff;
+    }
+
+    /**
+     * cvFindContours会修改输入, 所以包含一次复制
+     */
+    @Benchmark
+    public boolean findContours() {
+        cvCopy(diff, contourInput);
+        CvSeq contour = new CvSeq(null);
+        cvFindContours(contourInput, storage, contour, Loader.sizeof(CvContour.class), CV_RETR_LIST, CV_CHAIN_APPROX_SIMPLE);
+        boolean moved = !contour.isNull() && contour.elem_size() > 0;
+        contour.close();
+        storage.free_space();
+        return moved;
+    }
+
+    /**
+     * 纯Java的连通区域标记, 与findContours的输入相同
+     */
+    @Benchmark
+    public List<Blob> labelBlobs() {
+        return labeler.label(diffMask, diff.width(), diff.height());
+    }
+
+    /**
+     * 灰度转4通道后整帧复制, 对应Bitmap.copyPixelsFromBuffer
+     */
+    @Benchmark
+    public IntBuffer bitmapConversion() {
+        cvCvtColor(gray, display, CV_GRAY2BGRA);
+        bitmapPixels.clear();
+        bitmapPixels.put(display.<ByteBuffer>createBuffer().asIntBuffer());
+        return bitmapPixels;
+    }
+
+    /**
+     * 亮度模式: 直接从Y平面采样
+     */
+    @Benchmark
+    public ByteBuffer lumaDownsample() {
+        LumaUtils.downsampleRotated(yPlane, width, 1, width, height, scale, lumaFrame, height / scale);
+        return lumaFrame;
+    }
+
+    /**
+     * 纯Java的帧差检测, 每次交替输入两帧, 结果按帧计算
+     */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public MotionResult frameDiffDetector() {
+        detector.detect(height / scale, width / scale, height / scale, previousLumaFrame);
+        return detector.detect(height / scale, width / scale, height / scale, lumaFrame);
+    }
+
+    /**
+     * 背景对比检测, 静止的帧
+     */
+    @Benchmark
+    public MotionResult runningAverageStatic() {
+        return runningAverageDetector.detect(height / scale, width / scale, height / scale, lumaFrame);
+    }
+
+    /**
+     * 金字塔检测, 静止的帧只有粗检测和少量轮流更新
+     */
+    @Benchmark
+    public MotionResult pyramidStatic() {
+        return pyramidDetector.detect(height / scale, width / scale, height / scale, lumaFrame);
+    }
+
+}
@@ -0,0 +1,56 @@
+package net.allape.housedog.benchmark;
+
+import java.util.Random;
+
+/**
+ * 合成的NV21测试帧: 渐变背景 + 传感器噪声 + 一个移动的亮块
+ */
+final class SyntheticFrames {
+
+    // 固定种子, 保证每次运行的数据一致
+    private static final long SEED = 20210629L;
+
+    private SyntheticFrames() { }
+
+    /**
+     * @param resolution 形如 1920x1080
+     * @return {宽, 高}
+     */
+    static int[] parse(String resolution) {
+        String[] parts = resolution.split("x");
+        return new int[] { Integer.parseInt(parts[0]), Integer.parseInt(parts[1]) };
+    }
+
+    /**
+     * 生成一帧NV21
+     * @param width 宽度
+     * @param height 高度
+     * @param index 帧序号, 决定亮块的位置和噪声
+     * @return 紧密排列的NV21数据, 长度为 width * height * 3 / 2
+     */
+    static byte[] nv21(int width, int height, int index) {
+        byte[] bytes = new byte[width * height * 3 / 2];
+        Random random = new Random(SEED + index);
+
+        int blockSize = Math.max(8, Math.min(width, height) / 8);
+        int blockX = (index * blockSize / 2) % Math.max(1, width - blockSize);
+        int blockY = height / 3;
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = (x * 160 / width) + (y * 64 / height) + random.nextInt(9) - 4;
+                if (x >= blockX && x < blockX + blockSize && y >= blockY && y < blockY + blockSize) {
+                    value = 240;
+                }
+                bytes[y * width + x] = (byte) Math.max(0, Math.min(255, value));
+            }
+        }
+        // 色度平面 VU 交错
+        for (int i = width * height; i < bytes.length; i += 2) {
+            bytes[i] = (byte) (128 + random.nextInt(5) - 2);
+            bytes[i + 1] = (byte) (128 + random.nextInt(5) - 2);
+        }
+        return bytes;
+    }
+
+}